@@ -0,0 +1,40 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.AnimatedTurtle;
+import org.gannacademy.cdf.turtlelogo.Terrarium;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of enqueueing an instruction for an {@link AnimatedTurtle}, as seen by the (student's) calling thread. Pen
+ * instructions are used because the animation thread retires them without waiting for a frame, so the queue does not
+ * grow without bound over the course of the measurement.
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class AnimatedTurtleBenchmark {
+
+    private AnimatedTurtle turtle;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        turtle = new AnimatedTurtle(0, new Terrarium());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        turtle.getTerrarium().dispose(); // also stops the animation thread
+    }
+
+    @Benchmark
+    public void enqueue() {
+        turtle.penDown();
+    }
+}
@@ -0,0 +1,39 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Entry point of <code>benchmarks.jar</code></p>
+ *
+ * <p>Accepts all of the usual JMH command line options (e.g. <code>java -jar benchmarks.jar Draw -p
+ * tracks=1000</code>), but runs headless and writes machine-readable JSON results to
+ * <code>jmh-result.json</code> unless told otherwise (<code>-rf</code>/<code>-rff</code>).</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class BenchmarkRunner {
+
+    /**
+     * <code>jmh-result.json</code>
+     */
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        System.setProperty("java.awt.headless", "true");
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result(DEFAULT_RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,38 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Terrarium;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * A terrarium that exposes its synchronous drawing path, so that benchmarks can render (and encode) without going
+ * through the asynchronous {@link Terrarium#drawTo(String, String)} machinery.
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class BenchmarkTerrarium extends Terrarium {
+
+    /**
+     * Render the terrarium contents (background, tracks and turtles) into an image the size of the terrarium
+     *
+     * @param image to render into
+     */
+    public void render(BufferedImage image) {
+        Graphics2D context = image.createGraphics();
+        try {
+            context.setPaint(getBackground());
+            context.fillRect(0, 0, image.getWidth(), image.getHeight());
+            draw(context);
+        } finally {
+            context.dispose();
+        }
+    }
+
+    /**
+     * @return A new image the size of the terrarium, suitable for {@link #render(BufferedImage)}
+     */
+    public BufferedImage createImage() {
+        return new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
+    }
+}
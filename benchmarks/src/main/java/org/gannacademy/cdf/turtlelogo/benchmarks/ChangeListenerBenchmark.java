@@ -0,0 +1,66 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Terrarium;
+import org.gannacademy.cdf.turtlelogo.TerrariumChanges;
+import org.gannacademy.cdf.turtlelogo.Track;
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost to the drawing turtle of <code>Terrarium.add()</code> with no, one and four change listeners (which should be
+ * much the same: the listeners are told of the tracks on threads of their own)
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@State(Scope.Benchmark)
+public class ChangeListenerBenchmark {
+
+    private static final int CLEAR_MASK = 0xFFFF;
+
+    @Param({"0", "1", "4"})
+    public int listeners;
+
+    @Param({"BLOCKING", "SLEEPING"})
+    public TerrariumChanges.WaitStrategy strategy;
+
+    private Terrarium terrarium;
+    private Turtle turtle;
+    private int moves;
+    private volatile long heard;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        terrarium = new Terrarium();
+        for (int i = 0; i < listeners; i++) {
+            terrarium.addChangeListener(new Terrarium.ChangeListener() {
+                @Override
+                public void tracksAdded(Terrarium terrarium, long change, List<Track> tracks) {
+                    heard += tracks.size();
+                }
+            }, strategy);
+        }
+        turtle = new Turtle(terrarium);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        terrarium.dispose();
+    }
+
+    @Benchmark
+    public void add() {
+        turtle.move(1);
+        if ((++moves & CLEAR_MASK) == 0) {
+            terrarium.clear();
+            turtle.home();
+        }
+    }
+}
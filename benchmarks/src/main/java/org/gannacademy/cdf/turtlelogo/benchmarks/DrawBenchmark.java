@@ -0,0 +1,67 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to render a full terrarium (background, tracks and turtles) as the number of tracks grows. The drawing is a
+ * seeded random walk, so every run strokes exactly the same segments.
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class DrawBenchmark {
+
+    static final long SEED = 42;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int tracks;
+
+    private BenchmarkTerrarium terrarium;
+    private BufferedImage image;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        terrarium = new BenchmarkTerrarium();
+        image = terrarium.createImage();
+        randomWalk(new Turtle(terrarium), tracks, new Random(SEED));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        terrarium.dispose();
+    }
+
+    /**
+     * Walk a turtle around the terrarium, leaving <code>tracks</code> segments
+     *
+     * @param turtle to walk
+     * @param tracks number of segments to draw
+     * @param random source of (seeded) headings and distances
+     */
+    static void randomWalk(Turtle turtle, int tracks, Random random) {
+        double width = turtle.getTerrarium().getWidth(), height = turtle.getTerrarium().getHeight();
+        for (int i = 0; i < tracks; i++) {
+            turtle.turn(random.nextInt(91) - 45);
+            turtle.move(random.nextDouble() * 10);
+            if (turtle.getX() < 0 || turtle.getX() > width || turtle.getY() < 0 || turtle.getY() > height) {
+                turtle.teleport(random.nextDouble() * width, random.nextDouble() * height);
+            }
+        }
+    }
+
+    @Benchmark
+    public BufferedImage draw() {
+        terrarium.render(image);
+        return image;
+    }
+}
@@ -0,0 +1,58 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode time, per format, of the image that <code>Terrarium.drawTo()</code> writes. The image is rendered once, up
+ * front, and encoded into memory, so that neither rasterization nor the filesystem is measured.
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class ExportBenchmark {
+
+    /**
+     * Formats whose ImageIO writers accept the ARGB images that <code>drawTo()</code> produces
+     */
+    @Param({"png", "gif", "tiff"})
+    public String format;
+
+    @Param({"10000"})
+    public int tracks;
+
+    private BufferedImage image;
+    private ByteArrayOutputStream output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkTerrarium terrarium = new BenchmarkTerrarium();
+        DrawBenchmark.randomWalk(new Turtle(terrarium), tracks, new Random(DrawBenchmark.SEED));
+        image = terrarium.createImage();
+        terrarium.render(image);
+        terrarium.dispose();
+        output = new ByteArrayOutputStream(1 << 20);
+        if (!ImageIO.write(image, format, output)) {
+            throw new IOException("No ImageIO writer for " + format);
+        }
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        output.reset();
+        ImageIO.write(image, format, output);
+        return output.size();
+    }
+}
@@ -0,0 +1,68 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Logo;
+import org.gannacademy.cdf.turtlelogo.Terrarium;
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to draw the circle of <code>example.turtlelogo.Circle</code> written in Java, and the same circle written in
+ * Logo (both as a loop of constant steps, which is folded into a single path, and as a loop of variable steps, which
+ * is not)
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class LogoBenchmark {
+
+    private static final double RADIUS = 200;
+
+    private final Logo.Program folded = Logo.compile("REPEAT 360 [FD 2 * PI * 200 / 360 RT 1]");
+    private final Logo.Program unfolded = Logo.compile("MAKE \"step 2 * PI * 200 / 360\nREPEAT 360 [FD :step RT 1]");
+
+    private Terrarium terrarium;
+    private Turtle turtle;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        terrarium = new Terrarium();
+        turtle = new Turtle(terrarium);
+        turtle.pw(10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        terrarium.dispose();
+    }
+
+    @TearDown(Level.Invocation)
+    public void clear() {
+        terrarium.clear();
+        turtle.home();
+    }
+
+    @Benchmark
+    public void java() {
+        for (int i = 0; i < 360; i++) {
+            turtle.fd(Math.PI * 2.0 * RADIUS / 360.0);
+            turtle.rt(1);
+        }
+    }
+
+    @Benchmark
+    public void logoFolded() {
+        folded.run(turtle);
+    }
+
+    @Benchmark
+    public void logoUnfolded() {
+        unfolded.run(turtle);
+    }
+}
@@ -0,0 +1,70 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.PngEncoder;
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PNG encode time of ImageIO and of {@link PngEncoder} (at several compression levels), for the image that
+ * <code>Terrarium.drawTo()</code> writes, at the default terrarium size and at a large one. The image is rendered
+ * once, up front, and encoded into memory; the size of each encoding is printed once, during setup.
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class PngEncoderBenchmark {
+
+    /**
+     * <code>imageio</code>, or the compression level of a {@link PngEncoder}
+     */
+    @Param({"imageio", "1", "6", "9"})
+    public String encoder;
+
+    @Param({"600x400", "4000x3000"})
+    public String size;
+
+    private BufferedImage image;
+    private PngEncoder png;
+    private ByteArrayOutputStream output;
+    private WritableByteChannel channel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkTerrarium terrarium = new BenchmarkTerrarium();
+        String[] dimensions = size.split("x");
+        terrarium.setSize(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]));
+        DrawBenchmark.randomWalk(new Turtle(terrarium), 10000, new Random(DrawBenchmark.SEED));
+        image = terrarium.createImage();
+        terrarium.render(image);
+        terrarium.dispose();
+        png = encoder.equals("imageio") ? null : new PngEncoder(Integer.parseInt(encoder));
+        output = new ByteArrayOutputStream(1 << 20);
+        channel = Channels.newChannel(output);
+        System.out.println(encoder + " " + size + ": " + encode() + " bytes");
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        output.reset();
+        if (png == null) {
+            ImageIO.write(image, "png", output);
+        } else {
+            png.write(image, channel);
+        }
+        return output.size();
+    }
+}
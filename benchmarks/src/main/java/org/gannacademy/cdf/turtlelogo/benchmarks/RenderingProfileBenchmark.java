@@ -0,0 +1,64 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.RenderingProfile;
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame time of each {@link RenderingProfile} on large scenes: a seeded random walk, with thick and thin pens, in a
+ * large terrarium with a few dozen turtles (so that icon interpolation is measured as well as stroking)
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class RenderingProfileBenchmark {
+
+    @Param({"FAST", "BALANCED", "EXPORT"})
+    public RenderingProfile profile;
+
+    @Param({"10000", "100000"})
+    public int tracks;
+
+    @Param({"1", "5"})
+    public int penWidth;
+
+    private BenchmarkTerrarium terrarium;
+    private BufferedImage image;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        terrarium = new BenchmarkTerrarium();
+        terrarium.setSize(2000, 1500);
+        terrarium.setPaintProfile(profile);
+        Random random = new Random(DrawBenchmark.SEED);
+        Turtle walker = new Turtle(terrarium);
+        walker.pw(penWidth);
+        DrawBenchmark.randomWalk(walker, tracks, random);
+        for (int i = 0; i < 40; i++) {
+            Turtle turtle = new Turtle(terrarium);
+            turtle.teleport(random.nextDouble() * terrarium.getWidth(), random.nextDouble() * terrarium.getHeight());
+            turtle.head(random.nextDouble() * 360);
+        }
+        image = terrarium.createImage();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        terrarium.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage frame() {
+        terrarium.render(image);
+        return image;
+    }
+}
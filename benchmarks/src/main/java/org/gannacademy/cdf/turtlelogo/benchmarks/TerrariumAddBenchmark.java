@@ -0,0 +1,90 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Terrarium;
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention on <code>Terrarium.add()</code> when several producer threads, each driving its own turtle, share a
+ * single terrarium, unbuffered and with append buffers (see <code>Terrarium.setAppendBufferSize()</code>): with
+ * buffers, throughput should grow with the number of threads, up to the number of processors. The terrarium is
+ * cleared between iterations, rather than while measuring, to keep its tracks from piling up
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class TerrariumAddBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedTerrarium {
+        @Param({"0", "1024"})
+        public int appendBufferSize;
+
+        Terrarium terrarium;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            terrarium = new Terrarium();
+            terrarium.setAppendBufferSize(appendBufferSize);
+        }
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            terrarium.clear();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            terrarium.dispose();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        Turtle turtle;
+
+        @Setup(Level.Trial)
+        public void setUp(SharedTerrarium shared) {
+            turtle = new Turtle(shared.terrarium);
+        }
+
+        @Setup(Level.Iteration)
+        public void home() {
+            turtle.home();
+        }
+
+        void step() {
+            turtle.move(1);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void producers1(SharedTerrarium shared, Producer producer) {
+        producer.step();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void producers2(SharedTerrarium shared, Producer producer) {
+        producer.step();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void producers4(SharedTerrarium shared, Producer producer) {
+        producer.step();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void producers8(SharedTerrarium shared, Producer producer) {
+        producer.step();
+    }
+}
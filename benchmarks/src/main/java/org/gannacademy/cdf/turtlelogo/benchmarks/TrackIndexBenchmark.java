@@ -0,0 +1,69 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Terrarium;
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.geom.Line2D;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to answer proximity and collision queries about a seeded random walk, at ten thousand and a million tracks (if
+ * the tracks are well indexed, the second should take little longer than the first)
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class TrackIndexBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int tracks;
+
+    private Terrarium terrarium;
+    private Turtle probe;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        terrarium = new BenchmarkTerrarium();
+        terrarium.setSize(4000, 3000);
+        terrarium.tracksNear(0, 0, 0); // index the tracks as they are drawn
+        DrawBenchmark.randomWalk(new Turtle(terrarium), tracks, new Random(DrawBenchmark.SEED));
+        probe = new Turtle(terrarium);
+        random = new Random(DrawBenchmark.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        terrarium.dispose();
+    }
+
+    @Benchmark
+    public List<Line2D> tracksNear() {
+        return terrarium.tracksNear(random.nextDouble() * 4000, random.nextDouble() * 3000, 10);
+    }
+
+    @Benchmark
+    public Line2D nearestTrack() {
+        return terrarium.nearestTrack(random.nextDouble() * 4000, random.nextDouble() * 3000);
+    }
+
+    @Benchmark
+    public boolean intersects() {
+        double x = random.nextDouble() * 4000, y = random.nextDouble() * 3000;
+        return terrarium.intersects(new Line2D.Double(x, y, x + random.nextDouble() * 10, y + random.nextDouble() * 10));
+    }
+
+    @Benchmark
+    public boolean isTouchingTrack() {
+        probe.teleport(random.nextDouble() * 4000, random.nextDouble() * 3000);
+        return probe.isTouchingTrack();
+    }
+}
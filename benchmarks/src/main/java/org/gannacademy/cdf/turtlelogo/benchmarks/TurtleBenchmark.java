@@ -0,0 +1,70 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Terrarium;
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the basic {@link Turtle#move(double)} and {@link Turtle#turn(double)} instructions
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class TurtleBenchmark {
+
+    /**
+     * Tracks are cleared every 2<sup>16</sup> moves, so that the heap measures the turtle, not the drawing
+     */
+    private static final int CLEAR_MASK = 0xFFFF;
+
+    @Param({"true", "false"})
+    public boolean penDown;
+
+    private Terrarium terrarium;
+    private Turtle turtle;
+    private int moves;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        terrarium = new Terrarium();
+        turtle = new Turtle(terrarium);
+        if (!penDown) {
+            turtle.penUp();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        terrarium.dispose();
+    }
+
+    @Benchmark
+    public void move() {
+        turtle.move(1);
+        if ((++moves & CLEAR_MASK) == 0) {
+            terrarium.clear();
+            turtle.home();
+        }
+    }
+
+    @Benchmark
+    public void turn() {
+        turtle.turn(1);
+    }
+
+    @Benchmark
+    public void moveAndTurn() {
+        turtle.move(1);
+        turtle.turn(1);
+        if ((++moves & CLEAR_MASK) == 0) {
+            terrarium.clear();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.gannacademy.cdf.turtlelogo.benchmarks;
+
+import org.gannacademy.cdf.turtlelogo.Turtle;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame time of a seeded random walk that wanders far beyond the window, viewed unzoomed, zoomed in (where most of
+ * the tracks are culled) and zoomed out (where the tracks are painted from the zoom cache)
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ViewportBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int tracks;
+
+    @Param({"0.0625", "1", "4"})
+    public double zoom;
+
+    private BenchmarkTerrarium terrarium;
+    private BufferedImage image;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        terrarium = new BenchmarkTerrarium();
+        Turtle walker = new Turtle(terrarium);
+        Random random = new Random(DrawBenchmark.SEED);
+        for (int i = 0; i < tracks; i++) {
+            walker.turn(random.nextInt(91) - 45);
+            walker.move(random.nextDouble() * 10);
+        }
+        terrarium.zoom(zoom);
+        image = terrarium.createImage();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        terrarium.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage frame() {
+        terrarium.render(image);
+        return image;
+    }
+}
@@ -10,6 +10,8 @@ public class KeyboardControl implements KeyListener {
 
   public KeyboardControl() {
     scooter = new AnimatedTurtle(1);
+    // key repeats arrive faster than the turtle moves: ignore them, rather than keep moving after the key is released
+    scooter.setInstructionCapacity(2, AnimatedTurtle.OverflowPolicy.DROP_NEWEST);
     scooter.getTerrarium().addKeyListener(this);
     scooter.getTerrarium().requestFocus();
   }
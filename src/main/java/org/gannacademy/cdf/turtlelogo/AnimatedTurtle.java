@@ -4,8 +4,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -28,11 +28,47 @@ public class AnimatedTurtle extends Turtle implements Runnable {
      */
     public static final long TURN_SPEED_CUTOFF = 25; // milliseconds
 
+    /**
+     * No limit on the number of instructions waiting to be animated (see
+     * {@link #setInstructionCapacity(int, OverflowPolicy)})
+     */
+    public static final int UNBOUNDED = 0;
+
+    /**
+     * What happens to an instruction given to a turtle whose instruction queue is full (see
+     * {@link #setInstructionCapacity(int, OverflowPolicy)})
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait until the turtle has room for the instruction (the default)
+         */
+        BLOCK,
+
+        /**
+         * Ignore the new instruction
+         */
+        DROP_NEWEST,
+
+        /**
+         * Forget the instruction that has been waiting longest (but not the one being animated), to make room for the
+         * new one
+         */
+        DROP_OLDEST,
+
+        /**
+         * Combine the new instruction with the last one waiting, if they are the same instruction and the result is
+         * the same (two moves become one longer move, two pen colors the later one, and so on), or else wait for room,
+         * as with {@link #BLOCK}
+         */
+        COALESCE
+    }
+
     private enum Verb {
         MOVE, TURN, HEAD,
         PEN_UP, PEN_DOWN, PEN_COLOR, PEN_WIDTH,
         HIDE, SHOW,
         MOVE_TO, TELEPORT, HOME,
+        HEAD_ALONG_PATH,
         SPEED
     }
 
@@ -42,6 +78,7 @@ public class AnimatedTurtle extends Turtle implements Runnable {
         private Verb verb;
         private Object parameter;
         private final int serial = nextSerial++;
+        private final long enqueuedNanos = System.nanoTime();
 
         public Instruction(Verb verb) {
             this.verb = verb;
@@ -67,6 +104,10 @@ public class AnimatedTurtle extends Turtle implements Runnable {
             this.parameter = color;
         }
 
+        public long getEnqueuedNanos() {
+            return enqueuedNanos;
+        }
+
         public Verb getVerb() {
             return verb;
         }
@@ -91,6 +132,41 @@ public class AnimatedTurtle extends Turtle implements Runnable {
             this.verb = verb;
         }
 
+        /**
+         * Combine a later instruction into this one, if doing the combination is the same as doing one after the
+         * other (only while this instruction is still waiting, and the queue is locked)
+         *
+         * @param next instruction, to follow immediately after this one
+         * @return <code>true</code> if <code>next</code> has been combined into this instruction
+         */
+        public boolean absorb(Instruction next) {
+            if (next.verb != verb) {
+                return false;
+            }
+            switch (verb) {
+                case MOVE:
+                case TURN:
+                    parameter = getDoubleParam() + next.getDoubleParam();
+                    return true;
+                case HEAD:
+                case TELEPORT:
+                case PEN_COLOR:
+                case PEN_WIDTH:
+                case SPEED:
+                    parameter = next.parameter;
+                    return true;
+                case PEN_UP:
+                case PEN_DOWN:
+                case HIDE:
+                case SHOW:
+                case HOME:
+                case HEAD_ALONG_PATH:
+                    return true;
+                default:
+                    return false; // MOVE_TO draws a line to each point in turn
+            }
+        }
+
         @Override
         public String toString() {
             return verb + "." + serial + "(" + parameter + ")";
@@ -152,12 +228,19 @@ public class AnimatedTurtle extends Turtle implements Runnable {
         }
     }
 
-    private Queue<Instruction> instructions;
+    private final Deque<Instruction> instructions = new ArrayDeque<>(); // guarded by itself
+    private int capacity = UNBOUNDED;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
     private Instruction activeInstruction;
     private double MOVE_steps, MOVE_targetSteps, TURN_degrees, TURN_targetDegrees, MOVE_TO_tempHeadingInRadians;
+    private double MOVE_TO_lastHeadingInDegrees = Double.NaN;
     private long frameDelay, tick;
     private boolean threadStarted = false;
+    private Thread animator;
+    private VirtualClock scheduler; // that the animation thread has joined, if any (guarded by instructions)
     private CountDownAndUpLatch contextUpdated;
+    private AnimatedTurtleMetrics metrics;
+    private TerrariumMetrics.Registration metricsRegistration;
 
     /**
      * Construct an animated turtle with {@link #DEFAULT_FRAME_DELAY}
@@ -193,16 +276,162 @@ public class AnimatedTurtle extends Turtle implements Runnable {
     public AnimatedTurtle(long frameDelay, Terrarium terrarium) {
         super(terrarium);
         this.frameDelay = frameDelay;
-        tick = System.currentTimeMillis();
-        instructions = new ConcurrentLinkedQueue<>(); // thread-safe
+        tick = terrarium.getClock().millis();
+        metrics = new AnimatedTurtleMetrics();
+        metricsRegistration = metrics.register(Terrarium.isFastStartup());
         contextUpdated = new CountDownAndUpLatch(1);
-        new Thread(this, "AnimatedTurtle").start();
+        animator = new Thread(this, "AnimatedTurtle");
+        animator.start();
         contextUpdated.await();
     }
 
     private void addInstruction(Instruction instruction) {
-        contextUpdated.countUp();
-        instructions.add(instruction);
+        if (getTerrarium().isDisposed()) {
+            return;
+        }
+        Instruction dropped = null;
+        synchronized (instructions) {
+            if (capacity != UNBOUNDED && instructions.size() >= capacity) {
+                switch (overflowPolicy) {
+                    case DROP_NEWEST:
+                        metrics.dropped();
+                        return;
+                    case DROP_OLDEST:
+                        dropped = instructions.poll();
+                        break;
+                    case COALESCE:
+                        if (instructions.getLast().absorb(instruction)) {
+                            metrics.coalesced();
+                            return;
+                        }
+                        if (!awaitRoom()) {
+                            return;
+                        }
+                        break;
+                    default:
+                        if (!awaitRoom()) {
+                            return;
+                        }
+                }
+            }
+            contextUpdated.countUp();
+            metrics.enqueued();
+            instructions.add(instruction);
+            timeBy(getTerrarium().getClock());
+            if (instructions.size() == 1) {
+                instructions.notifyAll(); // the animation thread may be waiting for it
+            }
+        }
+        if (dropped != null) {
+            metrics.discarded();
+            contextUpdated.countDown(); // as if it had been animated
+        }
+    }
+
+    /**
+     * Wait (while the queue is locked) until there is room in the queue for another instruction
+     *
+     * @return <code>false</code> if the instruction is to be dropped instead (the terrarium has been disposed, or the
+     * waiting thread was interrupted)
+     */
+    private boolean awaitRoom() {
+        while (capacity != UNBOUNDED && instructions.size() >= capacity) {
+            if (getTerrarium().isDisposed()) {
+                return false;
+            }
+            try {
+                instructions.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                metrics.dropped();
+                return false;
+            }
+        }
+        return !getTerrarium().isDisposed();
+    }
+
+    /**
+     * Time the animation thread by a clock (while the queue is locked): a {@link VirtualClock} waits for the turtle
+     * while it has instructions to follow
+     *
+     * @param clock by which the turtle is timed, or <code>null</code> if the turtle has nothing left to do
+     */
+    private void timeBy(AnimationClock clock) {
+        if (clock != scheduler) {
+            if (scheduler != null) {
+                scheduler.leave(animator);
+            }
+            scheduler = clock instanceof VirtualClock ? (VirtualClock) clock : null;
+            if (scheduler != null) {
+                scheduler.join(animator);
+            }
+        }
+    }
+
+    /**
+     * Wake the animation thread, whether it is waiting for instructions or for its next frame (e.g. on a
+     * {@link VirtualClock} that will never advance), so that it notices that its terrarium has been disposed
+     */
+    void wake() {
+        animator.interrupt();
+    }
+
+    /**
+     * <p>Limit the number of instructions waiting to be animated</p>
+     *
+     * <p>An animated turtle takes time to follow each instruction, and instructions given faster than that (holding
+     * down a key that moves the turtle, for example) wait in its queue. Unbounded (the default), the queue grows for as
+     * long as instructions keep coming, and the turtle keeps following them long after they stop. With a capacity,
+     * an instruction given when the queue is full is handled according to the <code>policy</code>. A capacity smaller
+     * than the number of instructions already waiting drops none of them: it only applies to later instructions.</p>
+     *
+     * <p>Instructions that are dropped or combined are counted by the turtle's {@link #getMetrics()}.</p>
+     *
+     * @param capacity most instructions waiting to be animated (not counting the one being animated), or
+     *                 {@link #UNBOUNDED}
+     * @param policy   for instructions given when the queue is full
+     * @throws IllegalArgumentException if <code>capacity</code> is negative, or <code>policy</code> is
+     *                                  <code>null</code>
+     */
+    public void setInstructionCapacity(int capacity, OverflowPolicy policy) {
+        if (capacity < UNBOUNDED) {
+            throw new IllegalArgumentException("Instruction capacity cannot be negative");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Overflow policy is required");
+        }
+        synchronized (instructions) {
+            this.capacity = capacity;
+            overflowPolicy = policy;
+            metrics.setCapacity(capacity);
+            instructions.notifyAll();
+        }
+    }
+
+    /**
+     * @return Most instructions waiting to be animated (see {@link #setInstructionCapacity(int, OverflowPolicy)})
+     */
+    public int getInstructionCapacity() {
+        synchronized (instructions) {
+            return capacity;
+        }
+    }
+
+    /**
+     * @return What happens to an instruction given when the queue is full (see
+     * {@link #setInstructionCapacity(int, OverflowPolicy)})
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        synchronized (instructions) {
+            return overflowPolicy;
+        }
+    }
+
+    /**
+     * @return Instrumentation of this turtle's instruction queue (also available over JMX)
+     */
+    public AnimatedTurtleMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
@@ -268,6 +497,22 @@ public class AnimatedTurtle extends Turtle implements Runnable {
         addInstruction(new Instruction(Verb.MOVE_TO, x, y));
     }
 
+    /**
+     * Animate a path as a series of {@link #moveTo(double, double)} instructions, followed by turning to face along the
+     * last step of the path
+     *
+     * @param points interleaved coordinates (the first pair is reserved for the turtle's current location)
+     */
+    @Override
+    protected void path(double[] points) {
+        if (points.length > 2) {
+            for (int i = 2; i < points.length; i += 2) {
+                moveTo(points[i], points[i + 1]);
+            }
+            addInstruction(new Instruction(Verb.HEAD_ALONG_PATH));
+        }
+    }
+
     @Override
     public void home() {
         addInstruction(new Instruction(Verb.HOME));
@@ -295,9 +540,18 @@ public class AnimatedTurtle extends Turtle implements Runnable {
     }
 
     private void instructionFinished() {
+        instructionCompleted();
+        contextUpdated.countDown();
+    }
+
+    /**
+     * Finish the active instruction without (yet) releasing anyone waiting for it, so that its last frame can be drawn
+     * first
+     */
+    private void instructionCompleted() {
         Instruction i = activeInstruction;
         activeInstruction = null;
-        contextUpdated.countDown();
+        metrics.completed(i.getEnqueuedNanos());
     }
 
     /**
@@ -310,21 +564,41 @@ public class AnimatedTurtle extends Turtle implements Runnable {
         if (!threadStarted) {
             threadStarted = true;
             contextUpdated.countDown();
-            while (true) {
+            while (!getTerrarium().isDisposed()) {
                 if (activeInstruction == null) {
-                    if (!instructions.isEmpty()) {
-                        activeInstruction = instructions.remove();
+                    Instruction next;
+                    synchronized (instructions) {
+                        if (instructions.isEmpty()) {
+                            timeBy(null); // don't hold up a virtual clock while idle
+                        }
+                        while (instructions.isEmpty() && !getTerrarium().isDisposed()) {
+                            try {
+                                instructions.wait();
+                            } catch (InterruptedException e) {
+                                // check again
+                            }
+                        }
+                        next = instructions.poll();
+                        if (next != null && capacity != UNBOUNDED) {
+                            instructions.notifyAll(); // room for a blocked instruction
+                        }
+                    }
+                    if (next != null) {
+                        activeInstruction = next;
                         switch (activeInstruction.getVerb()) {
                             case MOVE:
                                 MOVE_targetSteps = activeInstruction.getDoubleParam();
                                 MOVE_steps = 0;
                                 break;
                             case MOVE_TO:
-                                double dx = activeInstruction.getPointParam().getX() - getX(),
+                                double dx = activeInstruction.getPointParam().getX() - super.getX(),
                                     dy = activeInstruction.getPointParam().getY() - getY();
                                 MOVE_targetSteps = Math.hypot(dx, dy);
                                 MOVE_steps = 0;
                                 MOVE_TO_tempHeadingInRadians = Math.atan2(dy, dx);
+                                if (MOVE_targetSteps != 0) {
+                                    MOVE_TO_lastHeadingInDegrees = (Math.toDegrees(MOVE_TO_tempHeadingInRadians) + 360) % 360;
+                                }
                                 break;
                             case TURN:
                                 TURN_targetDegrees = activeInstruction.getDoubleParam();
@@ -371,40 +645,77 @@ public class AnimatedTurtle extends Turtle implements Runnable {
                                 super.home();
                                 instructionFinished();
                                 break;
+                            case HEAD_ALONG_PATH:
+                                if (!Double.isNaN(MOVE_TO_lastHeadingInDegrees)) {
+                                    super.head(MOVE_TO_lastHeadingInDegrees);
+                                }
+                                instructionFinished();
+                                break;
                             case SPEED:
                                 frameDelay = activeInstruction.getLongParam();
                                 instructionFinished();
                                 break;
                         }
                     }
-                } else if (System.currentTimeMillis() > tick + frameDelay) {
-                    tick = System.currentTimeMillis();
-                    switch (activeInstruction.getVerb()) {
-                        case MOVE:
-                        case MOVE_TO:
-                            if (Math.abs(MOVE_steps) >= Math.abs(MOVE_targetSteps)) {
-                                if (activeInstruction.getVerb() == Verb.MOVE) {
-                                    super.move(MOVE_targetSteps);
+                } else {
+                    AnimationClock clock = getTerrarium().getClock();
+                    if (clock.millis() < tick) {
+                        tick = clock.millis(); // the terrarium has changed clocks
+                    }
+                    synchronized (instructions) {
+                        timeBy(clock);
+                    }
+                    clock.waitUntil(tick + frameDelay);
+                    if (Thread.interrupted()) {
+                        continue; // woken (e.g. because the terrarium has been disposed): check again
+                    }
+                    if (clock.millis() >= tick + frameDelay) {
+                        tick = clock.millis();
+                        boolean finished = false;
+                        switch (activeInstruction.getVerb()) {
+                            case MOVE:
+                            case MOVE_TO:
+                                if (Math.abs(MOVE_steps) >= Math.abs(MOVE_targetSteps)) {
+                                    if (activeInstruction.getVerb() == Verb.MOVE) {
+                                        super.move(MOVE_targetSteps);
+                                    } else {
+                                        super.moveTo(activeInstruction.getPointParam().getX(), activeInstruction.getPointParam().getY());
+                                    }
+                                    instructionCompleted();
+                                    finished = true;
                                 } else {
-                                    super.moveTo(activeInstruction.getPointParam().getX(), activeInstruction.getPointParam().getY());
+                                    MOVE_steps += (MOVE_targetSteps > 0.0 ? 1 : -1);
                                 }
-                                instructionFinished();
-                            } else {
-                                MOVE_steps += (MOVE_targetSteps > 0.0 ? 1 : -1);
-                            }
-                            break;
-                        case TURN:
-                            if (Math.abs(TURN_degrees) >= Math.abs(TURN_targetDegrees)) {
-                                super.turn(TURN_targetDegrees);
-                                instructionFinished();
-                            } else {
-                                TURN_degrees += (TURN_targetDegrees > 0.0 ? 1 : -1) * (frameDelay >= TURN_SPEED_CUTOFF ? 1 : TURN_SPEED_CUTOFF - frameDelay);
-                            }
-                            break;
+                                break;
+                            case TURN:
+                                if (Math.abs(TURN_degrees) >= Math.abs(TURN_targetDegrees)) {
+                                    super.turn(TURN_targetDegrees);
+                                    instructionCompleted();
+                                    finished = true;
+                                } else {
+                                    TURN_degrees += (TURN_targetDegrees > 0.0 ? 1 : -1) * (frameDelay >= TURN_SPEED_CUTOFF ? 1 : TURN_SPEED_CUTOFF - frameDelay);
+                                }
+                                break;
+                        }
+                        if (getTerrarium().getCapture() == null) {
+                            getTerrarium().repaint(); // (a capture draws a frame each time its clock advances)
+                        }
+                        if (finished) {
+                            contextUpdated.countDown();
+                        }
                     }
-                    getTerrarium().repaint();
                 }
             }
+            // the terrarium has been disposed: abandon any remaining instructions and release anyone waiting on them
+            synchronized (instructions) {
+                timeBy(null);
+                instructions.clear();
+                instructions.notifyAll();
+            }
+            while (contextUpdated.getCount() > 0) {
+                contextUpdated.countDown();
+            }
+            metricsRegistration.cancel();
         }
     }
 
@@ -422,10 +733,10 @@ public class AnimatedTurtle extends Turtle implements Runnable {
                     if (activeInstruction.getVerb() == Verb.MOVE) {
                         moveHeadingInRadians = getHeadingInRadians();
                     }
-                    double tempX = getX() + Math.cos(moveHeadingInRadians) * MOVE_steps;
+                    double tempX = super.getX() + Math.cos(moveHeadingInRadians) * MOVE_steps;
                     double tempY = getY() + Math.sin(moveHeadingInRadians) * MOVE_steps;
                     if (isPenDown()) {
-                        context.draw(new Line2D.Double(getX(), getY(), tempX, tempY));
+                        context.draw(new Line2D.Double(super.getX(), getY(), tempX, tempY));
                     }
                     if (!isHidden()) {
                         drawIcon(tempX, tempY, getHeadingInRadians(), context);
@@ -433,7 +744,7 @@ public class AnimatedTurtle extends Turtle implements Runnable {
                     break;
                 case TURN:
                     if (!isHidden()) {
-                        drawIcon(getX(), getY(), Math.toRadians(getHeadingInDegrees() + TURN_degrees), context);
+                        drawIcon(super.getX(), getY(), Math.toRadians(getHeadingInDegrees() + TURN_degrees), context);
                     }
                     break;
             }
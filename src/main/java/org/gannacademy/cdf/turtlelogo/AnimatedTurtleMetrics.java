@@ -0,0 +1,130 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of a single {@link AnimatedTurtle}, available via {@link AnimatedTurtle#getMetrics()} and over JMX
+ * (see {@link AnimatedTurtleMetricsMXBean})
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class AnimatedTurtleMetrics implements AnimatedTurtleMetricsMXBean {
+
+    private static final AtomicInteger nextSerial = new AtomicInteger();
+
+    private final String name;
+    private final LongAdder queueDepth;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private volatile int capacity = AnimatedTurtle.UNBOUNDED;
+    private final Histogram latencies;
+
+    AnimatedTurtleMetrics() {
+        name = "animated-turtle-" + nextSerial.getAndIncrement();
+        queueDepth = new LongAdder();
+        latencies = new Histogram();
+    }
+
+    TerrariumMetrics.Registration register(boolean inBackground) {
+        return new TerrariumMetrics.Registration(this, "AnimatedTurtle", name, inBackground);
+    }
+
+    /**
+     * @return Name of the instrumented turtle (as used in its JMX object name)
+     */
+    public String getName() {
+        return name;
+    }
+
+    void enqueued() {
+        queueDepth.increment();
+    }
+
+    /**
+     * An instruction was dropped before it was enqueued
+     */
+    void dropped() {
+        dropped.increment();
+    }
+
+    /**
+     * An enqueued instruction was dropped before it was animated
+     */
+    void discarded() {
+        queueDepth.decrement();
+        dropped.increment();
+    }
+
+    void coalesced() {
+        coalesced.increment();
+    }
+
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void completed(long enqueuedNanos) {
+        queueDepth.decrement();
+        latencies.record(System.nanoTime() - enqueuedNanos);
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.sum();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getDroppedInstructionCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getCoalescedInstructionCount() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public long getInstructionCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public double getMeanInstructionLatencyNanos() {
+        return latencies.getMean();
+    }
+
+    @Override
+    public long getP99InstructionLatencyNanos() {
+        return latencies.getPercentile(0.99);
+    }
+
+    @Override
+    public long getMaxInstructionLatencyNanos() {
+        return latencies.getMax();
+    }
+
+    @Override
+    public long[] getInstructionLatencyHistogram() {
+        return latencies.getBuckets();
+    }
+
+    /**
+     * @return Latencies from enqueue to completion, in nanoseconds
+     */
+    public Histogram getInstructionLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public void reset() {
+        latencies.reset();
+        dropped.reset();
+        coalesced.reset();
+    }
+}
@@ -0,0 +1,65 @@
+package org.gannacademy.cdf.turtlelogo;
+
+/**
+ * <p>Management interface of {@link AnimatedTurtleMetrics}, registered with the platform MBean server under
+ * <code>org.gannacademy.cdf.turtlelogo:type=AnimatedTurtle,name=animated-turtle-<i>n</i></code></p>
+ *
+ * <p>Latencies are measured from the moment an instruction is enqueued (e.g. by calling
+ * {@link AnimatedTurtle#move(double)}) until the animation of that instruction completes, and are reported in
+ * nanoseconds.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public interface AnimatedTurtleMetricsMXBean {
+
+    /**
+     * @return Number of instructions waiting to be animated (including the one being animated)
+     */
+    long getQueueDepth();
+
+    /**
+     * @return Most instructions that may wait to be animated, or {@link AnimatedTurtle#UNBOUNDED} (see
+     * {@link AnimatedTurtle#setInstructionCapacity(int, AnimatedTurtle.OverflowPolicy)})
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return Number of instructions dropped because the queue was full
+     */
+    long getDroppedInstructionCount();
+
+    /**
+     * @return Number of instructions combined with the last instruction waiting because the queue was full
+     */
+    long getCoalescedInstructionCount();
+
+    /**
+     * @return Number of instructions completed
+     */
+    long getInstructionCount();
+
+    /**
+     * @return Mean latency from enqueue to completion
+     */
+    double getMeanInstructionLatencyNanos();
+
+    /**
+     * @return 99th percentile latency from enqueue to completion
+     */
+    long getP99InstructionLatencyNanos();
+
+    /**
+     * @return Longest latency from enqueue to completion
+     */
+    long getMaxInstructionLatencyNanos();
+
+    /**
+     * @return Latencies from enqueue to completion, bucketed as described in {@link Histogram}
+     */
+    long[] getInstructionLatencyHistogram();
+
+    /**
+     * Forget all recorded latencies and dropped and coalesced instructions (the queue depth is unaffected)
+     */
+    void reset();
+}
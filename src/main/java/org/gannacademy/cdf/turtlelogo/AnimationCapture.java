@@ -0,0 +1,383 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Capture the animation of {@link AnimatedTurtle}s to image files, rather than the screen</p>
+ *
+ * <p>While a terrarium is being captured, its animated turtles are timed by a {@link VirtualClock}, and so no longer
+ * wait between frames of animation: each frame is drawn offscreen as soon as every turtle has taken its step for that
+ * moment, and then encoded (in the background, on as many threads as there are processors) as the next image in a
+ * numbered sequence of PNG files, or as the next frame of an animated GIF. A turtle with a long frame delay is
+ * captured just as quickly as one with a short delay (the time until the next frame is recorded in the GIF, so that
+ * it plays back at the right speed).</p>
+ *
+ * <pre>
+ * Terrarium terrarium = new Terrarium();
+ * try (AnimationCapture capture = AnimationCapture.gif(terrarium, new File("square.gif"))) {
+ *     AnimatedTurtle turtle = new AnimatedTurtle(terrarium);
+ *     for (int side = 0; side &lt; 4; side++) {
+ *         turtle.move(100);
+ *         turtle.turn(90);
+ *     }
+ * } // waits for the turtle to finish, and for the last frame to be saved
+ * </pre>
+ *
+ * <p>PNG frames are exactly what would have been shown on the screen. GIF frames are reduced to the 256 most common
+ * colors in each frame (antialiased edges are blended into the nearest of them).</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class AnimationCapture implements AutoCloseable {
+
+    private enum Format {
+        PNG, GIF
+    }
+
+    /**
+     * A rendered frame, waiting to be encoded
+     */
+    private static class Frame {
+        private final BufferedImage image;
+        private long index, delay;
+
+        Frame(BufferedImage image) {
+            this.image = image;
+        }
+    }
+
+    private final Terrarium terrarium;
+    private final Format format;
+    private final File file;
+    private final int width, height;
+    private final ExecutorService encoders;
+    private final BlockingQueue<Frame> frames;
+    private final Queue<Future<?>> pending = new ArrayDeque<>();
+    private final ExecutorService gifWriter;
+    private ImageWriter writer;
+    private ImageOutputStream output;
+    private long frameCount = 0;
+    private volatile IOException failure;
+    private boolean closed = false;
+    private final AnimationClock clock;
+
+    private AnimationCapture(Terrarium terrarium, Format format, File file) throws IOException {
+        try {
+            terrarium.ready.acquire();
+            terrarium.ready.release();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        this.terrarium = terrarium;
+        this.format = format;
+        this.file = file;
+        width = Math.max(1, terrarium.getWidth());
+        height = Math.max(1, terrarium.getHeight());
+        int threads = Runtime.getRuntime().availableProcessors();
+        encoders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "AnimationCapture");
+            thread.setDaemon(true);
+            return thread;
+        });
+        frames = new ArrayBlockingQueue<>(2 * threads);
+        for (int i = 0; i < 2 * threads; i++) {
+            frames.add(new Frame(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)));
+        }
+        if (format == Format.GIF) {
+            writer = ImageIO.getImageWritersByFormatName("gif").next();
+            output = ImageIO.createImageOutputStream(file);
+            if (output == null) {
+                throw new IOException("Cannot write to " + file);
+            }
+            writer.setOutput(output);
+            writer.prepareWriteSequence(null);
+            gifWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AnimationCapture GIF");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            if (!file.isDirectory() && !file.mkdirs()) {
+                throw new IOException("Cannot create directory " + file);
+            }
+            gifWriter = null;
+        }
+        clock = terrarium.getClock();
+        VirtualClock virtual = new VirtualClock(clock.millis(), true);
+        virtual.onAdvance(this::frame);
+        terrarium.setCapture(this);
+        terrarium.setClock(virtual);
+    }
+
+    /**
+     * <p>Capture the terrarium's animation as a sequence of PNG files</p>
+     *
+     * <p>Frames are saved as <code>frame-000000.png</code>, <code>frame-000001.png</code>, etc.</p>
+     *
+     * @param terrarium to capture
+     * @param directory in which to save the frames (created, if necessary)
+     * @return The capture (which should be {@link #close()}d when the animation is done)
+     * @throws IOException if the directory cannot be created
+     */
+    public static AnimationCapture pngSequence(Terrarium terrarium, File directory) throws IOException {
+        return new AnimationCapture(terrarium, Format.PNG, directory);
+    }
+
+    /**
+     * Capture the terrarium's animation as an animated GIF
+     *
+     * @param terrarium to capture
+     * @param file      to save the animation to
+     * @return The capture (which should be {@link #close()}d when the animation is done)
+     * @throws IOException if the file cannot be written
+     */
+    public static AnimationCapture gif(Terrarium terrarium, File file) throws IOException {
+        return new AnimationCapture(terrarium, Format.GIF, file);
+    }
+
+    /**
+     * @return Number of frames captured so far
+     */
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * <p>Draw the next frame of animation and queue it to be encoded (blocking, if the encoders have fallen behind)</p>
+     *
+     * <p>Called by the capture's clock each time it advances (once every animated turtle has taken its step), in
+     * place of repainting the terrarium, so that there is one frame for each moment of the animation, however many
+     * turtles there are.</p>
+     *
+     * @param delay until the next frame, in milliseconds (the virtual time by which the clock is advancing)
+     */
+    synchronized void frame(long delay) {
+        if (closed) {
+            return;
+        }
+        Frame frame;
+        try {
+            frame = frames.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // e.g. the terrarium has been disposed
+            return;
+        }
+        frame.index = frameCount++;
+        frame.delay = delay;
+        Graphics2D context = frame.image.createGraphics();
+        context.setPaint(terrarium.getBackground());
+        context.fillRect(0, 0, width, height);
+        synchronized (terrarium) {
+            terrarium.draw(context);
+        }
+        context.dispose();
+        if (format == Format.PNG) {
+            pending.add(encoders.submit(() -> {
+                try {
+                    ImageIO.write(frame.image, "png", new File(file, String.format("frame-%06d.png", frame.index)));
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    frames.add(frame);
+                }
+            }));
+        } else {
+            Future<BufferedImage> indexed = encoders.submit(() -> {
+                try {
+                    return toIndexed(frame.image);
+                } finally {
+                    frames.add(frame);
+                }
+            });
+            long centiseconds = Math.max(1, Math.round(delay / 10.0));
+            boolean first = frame.index == 0;
+            pending.add(gifWriter.submit(() -> {
+                try {
+                    writeGifFrame(indexed.get(), centiseconds, first);
+                } catch (IOException e) {
+                    failure = e;
+                } catch (InterruptedException | ExecutionException e) {
+                    failure = new IOException("Could not encode frame", e);
+                }
+            }));
+        }
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            pending.remove();
+        }
+    }
+
+    private void writeGifFrame(BufferedImage image, long centiseconds, boolean first) throws IOException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), null);
+        String formatName = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(formatName);
+        IIOMetadataNode control = child(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("delayTime", Long.toString(centiseconds));
+        control.setAttribute("transparentColorIndex", "0");
+        if (first) {
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            loop.setUserObject(new byte[]{1, 0, 0}); // loop forever
+            child(root, "ApplicationExtensions").appendChild(loop);
+        }
+        metadata.setFromTree(formatName, root);
+        writer.writeToSequence(new IIOImage(image, null, metadata), null);
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+        for (int i = 0; i < parent.getLength(); i++) {
+            if (parent.item(i).getNodeName().equals(name)) {
+                return (IIOMetadataNode) parent.item(i);
+            }
+        }
+        IIOMetadataNode child = new IIOMetadataNode(name);
+        parent.appendChild(child);
+        return child;
+    }
+
+    /**
+     * Reduce an image to (at most) its 256 most common colors, to 5 bits per channel, mapping every other color to the
+     * nearest of them
+     *
+     * @param image to reduce
+     * @return An indexed copy of the image
+     */
+    static BufferedImage toIndexed(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        int[] counts = new int[1 << 15];
+        for (int pixel : pixels) {
+            counts[bin(pixel)]++;
+        }
+        int used = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                used++;
+            }
+        }
+        long[] popular = new long[used]; // count in the high bits, bin in the low bits, so that sorting ranks bins
+        for (int bin = 0, i = 0; bin < counts.length; bin++) {
+            if (counts[bin] > 0) {
+                popular[i++] = ((long) counts[bin] << 16) | bin;
+            }
+        }
+        Arrays.sort(popular);
+        int size = Math.min(256, used);
+        byte[] r = new byte[size], g = new byte[size], b = new byte[size];
+        int[] index = new int[1 << 15];
+        Arrays.fill(index, -1);
+        for (int i = 0; i < size; i++) {
+            int bin = (int) (popular[used - 1 - i] & 0xFFFF);
+            r[i] = (byte) expand(bin >> 10);
+            g[i] = (byte) expand(bin >> 5);
+            b[i] = (byte) expand(bin);
+            index[bin] = i;
+        }
+        for (int bin = 0; bin < counts.length; bin++) {
+            if (counts[bin] > 0 && index[bin] < 0) {
+                int nearest = 0, nearestDistance = Integer.MAX_VALUE;
+                for (int i = 0; i < size; i++) {
+                    int dr = expand(bin >> 10) - (r[i] & 0xFF), dg = expand(bin >> 5) - (g[i] & 0xFF), db = expand(bin) - (b[i] & 0xFF),
+                        distance = dr * dr + dg * dg + db * db;
+                    if (distance < nearestDistance) {
+                        nearest = i;
+                        nearestDistance = distance;
+                    }
+                }
+                index[bin] = nearest;
+            }
+        }
+        BufferedImage indexed = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, new IndexColorModel(8, size, r, g, b));
+        byte[] data = new byte[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            data[i] = (byte) index[bin(pixels[i])];
+        }
+        indexed.getRaster().setDataElements(0, 0, width, height, data);
+        return indexed;
+    }
+
+    private static int bin(int rgb) {
+        return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F);
+    }
+
+    private static int expand(int fiveBits) {
+        fiveBits &= 0x1F;
+        return (fiveBits << 3) | (fiveBits >> 2);
+    }
+
+    /**
+     * Wait for the terrarium's animated turtles to finish their instructions, then for every frame to be saved, and
+     * stop capturing (the terrarium returns to animating on the screen)
+     *
+     * @throws IOException if any frame could not be saved
+     */
+    @Override
+    public void close() throws IOException {
+        for (Turtle turtle : terrarium.getTurtles()) {
+            if (turtle instanceof AnimatedTurtle) {
+                turtle.getX(); // waits for the turtle's instructions to be completed
+            }
+        }
+        Queue<Future<?>> remaining;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            frame(AnimatedTurtle.DEFAULT_FRAME_DELAY); // the animation as it ends
+            closed = true;
+            terrarium.setCapture(null);
+            terrarium.setClock(clock);
+            remaining = new ArrayDeque<>(pending);
+            pending.clear();
+        }
+        try {
+            for (Future<?> future : remaining) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            failure = new IOException("Could not encode frame", e);
+        } finally {
+            encoders.shutdown();
+            if (gifWriter != null) {
+                gifWriter.shutdown();
+            }
+            try {
+                encoders.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        if (format == Format.GIF) {
+            writer.endWriteSequence();
+            output.close();
+            writer.dispose();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
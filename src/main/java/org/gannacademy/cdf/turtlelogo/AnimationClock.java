@@ -0,0 +1,53 @@
+package org.gannacademy.cdf.turtlelogo;
+
+/**
+ * <p>The clock by which {@link AnimatedTurtle}s time their frames of animation</p>
+ *
+ * <p>Each terrarium has a clock (see {@link Terrarium#setClock(AnimationClock)}), which is the {@link #SYSTEM} clock
+ * unless it is replaced. A {@link VirtualClock} can be used instead to make animations run as fast as possible, or
+ * in lock-step with a test.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public interface AnimationClock {
+
+    /**
+     * Wall-clock time ({@link System#currentTimeMillis()}): animations play in real time
+     */
+    AnimationClock SYSTEM = new AnimationClock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void waitUntil(long millis) {
+            long delay = millis - millis();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "AnimationClock.SYSTEM";
+        }
+    };
+
+    /**
+     * @return Current time, in milliseconds
+     */
+    long millis();
+
+    /**
+     * Wait until the current time is at least <code>millis</code> (or until the waiting thread is interrupted, in which
+     * case it returns early, with the thread's interrupt status set)
+     *
+     * @param millis deadline, in milliseconds
+     */
+    void waitUntil(long millis);
+}
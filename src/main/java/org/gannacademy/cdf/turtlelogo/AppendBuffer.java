@@ -0,0 +1,116 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.util.Arrays;
+
+/**
+ * <p>The tracks that one turtle has made, but not yet added to its terrarium's shared tracks (see
+ * {@link Terrarium#setAppendBufferSize(int)})</p>
+ *
+ * <p>A turtle appends to its own buffer without locking the terrarium, and the buffer is merged into the shared tracks
+ * all at once when it fills, or when the terrarium publishes every buffer (before it is drawn, queried or edited). The
+ * buffer's own lock is only ever contended by a merge.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class AppendBuffer {
+
+    private final Terrarium terrarium;
+    private final Turtle owner;
+    private Track[] tracks;
+    private Track[] spare; // emptied by the last merge, to be reused by the next
+    private int size = 0;
+    private volatile boolean retired = false; // no longer published with the terrarium's other buffers
+
+    AppendBuffer(Terrarium terrarium, Turtle owner) {
+        this.terrarium = terrarium;
+        this.owner = owner;
+        tracks = new Track[Math.max(1, terrarium.getAppendBufferSize())];
+    }
+
+    Terrarium getTerrarium() {
+        return terrarium;
+    }
+
+    Turtle getOwner() {
+        return owner;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+
+    /**
+     * The buffer's turtle has left the terrarium: any tracks it still appends are published immediately
+     */
+    void retire() {
+        retired = true;
+    }
+
+    /**
+     * @param track made by the buffer's turtle, after all of the others
+     */
+    void append(Track track) {
+        boolean first, full;
+        synchronized (this) {
+            if (size == tracks.length) {
+                tracks = Arrays.copyOf(tracks, 2 * tracks.length); // the terrarium is merging, or the size grew
+            }
+            tracks[size++] = track;
+            first = size == 1;
+            full = size >= terrarium.getAppendBufferSize();
+        }
+        if (full || retired) {
+            terrarium.publish(this);
+        } else if (first) {
+            terrarium.schedulePublish();
+        }
+    }
+
+    /**
+     * @return Number of track segments waiting in the buffer
+     */
+    synchronized long getSegmentCount() {
+        long segments = 0;
+        for (int i = 0; i < size; i++) {
+            segments += tracks[i].getSegmentCount();
+        }
+        return segments;
+    }
+
+    /**
+     * @return Estimate of the heap consumed by the tracks waiting in the buffer, in bytes
+     */
+    synchronized long getEstimatedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < size; i++) {
+            bytes += tracks[i].getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Add the buffered tracks to the terrarium's shared tracks (only while the terrarium is locked)
+     *
+     * @return <code>true</code> if there were any
+     */
+    boolean merge() {
+        Track[] full;
+        int count;
+        synchronized (this) {
+            if (size == 0) {
+                return false;
+            }
+            full = tracks;
+            count = size;
+            tracks = spare != null && spare.length >= full.length ? spare : new Track[full.length];
+            spare = null;
+            size = 0;
+        }
+        terrarium.store(full, count, owner);
+        Arrays.fill(full, 0, count, null);
+        synchronized (this) {
+            spare = full;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,409 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Render a directory of turtle programs to PNG files, many at once, in a single JVM</p>
+ *
+ * <pre>
+ * java -cp turtle-logo.jar org.gannacademy.cdf.turtlelogo.BatchRenderer [options] &lt;directory&gt;
+ *
+ *   --output &lt;directory&gt;   where to save the images (default: the current directory)
+ *   --threads &lt;n&gt;          number of programs to run at once (default: one per processor)
+ *   --timeout &lt;seconds&gt;    give up on a program that runs for longer than this (default: never)
+ * </pre>
+ *
+ * <p>Every compiled class in the directory (and its subdirectories, which are read as packages) that has a
+ * <code>public static void main(String[])</code> method is run, as is every Logo program (a <code>.logo</code> file,
+ * see {@link Logo}, run by a single turtle). Each program runs headless, with its own terrarium (any
+ * {@link Turtle} or {@link AnimatedTurtle} that it constructs without a terrarium is put there) and its own copy of
+ * its classes (so that programs cannot see each other's static fields). Animated turtles run on a
+ * {@link VirtualClock}, so their animations finish as fast as they can be drawn. Once the program's
+ * <code>main</code> returns and its animated turtles have finished their instructions, each of the terraria that it
+ * used is saved as <code>&lt;program&gt;.png</code> (and <code>&lt;program&gt;-1.png</code>, <code>-2</code>&hellip;
+ * for any additional terraria that it instantiated), and then disposed.</p>
+ *
+ * <p>A program that throws an exception (or does not finish in time) fails on its own, without affecting the others.
+ * Each program's time is measured from when it starts (not from when it was queued), and a program that runs out of
+ * time is interrupted and abandoned, so that it cannot hold up the programs after it, even if it ignores the
+ * interruption. A line is printed as each program finishes, and a summary of timings and throughput at the end. The
+ * exit status is the number of programs that failed (up to 100).</p>
+ *
+ * <p>The directory should not also be on the renderer's classpath, or its classes will be shared by every program.
+ * Programs that call {@link System#exit(int)} end the whole batch.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class BatchRenderer {
+
+    /**
+     * A program to render
+     */
+    private abstract static class Job {
+        final String name;
+
+        Job(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Run the program, in the current thread's terrarium scope
+         *
+         * @throws Exception if the program fails
+         */
+        abstract void run() throws Exception;
+
+        /**
+         * Let go of whatever the program needed to run, once it is done with it (after its turtles have finished, and
+         * its images have been saved)
+         *
+         * @throws IOException if it cannot be let go of
+         */
+        void close() throws IOException {
+        }
+    }
+
+    private static class MainClassJob extends Job {
+        private final URL classpath;
+        private URLClassLoader loader; // kept open for as long as the program's turtles (and threads) may need classes
+
+        MainClassJob(String name, URL classpath) {
+            super(name);
+            this.classpath = classpath;
+        }
+
+        @Override
+        void run() throws Exception {
+            loader = new IsolatingClassLoader(classpath);
+            Method main = loader.loadClass(name).getMethod("main", String[].class);
+            try {
+                main.invoke(null, (Object) new String[0]);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            if (loader != null) {
+                loader.close();
+            }
+        }
+    }
+
+    private static class LogoJob extends Job {
+        private final Path source;
+
+        LogoJob(String name, Path source) {
+            super(name);
+            this.source = source;
+        }
+
+        @Override
+        void run() throws Exception {
+            Logo.run(new String(Files.readAllBytes(source), StandardCharsets.UTF_8), new Turtle());
+        }
+    }
+
+    /**
+     * Loads each program's own classes afresh, rather than asking its parent first, so that every program gets its own
+     * static fields (the turtle logo classes themselves are still shared, so that the program's turtles end up in the
+     * program's terrarium)
+     */
+    private static class IsolatingClassLoader extends URLClassLoader {
+        IsolatingClassLoader(URL classpath) {
+            super(new URL[]{classpath}, BatchRenderer.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("java.") || name.startsWith("javax.") || isShared(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    try {
+                        loaded = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        return super.loadClass(name, resolve);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+    }
+
+    /**
+     * The outcome of a job
+     */
+    private static class Result {
+        final Job job;
+        final long nanos;
+        final List<File> images;
+        final Throwable failure;
+
+        Result(Job job, long nanos, List<File> images, Throwable failure) {
+            this.job = job;
+            this.nanos = nanos;
+            this.images = images;
+            this.failure = failure;
+        }
+    }
+
+    private final File output;
+    private final int threads;
+    private final long timeout;
+    private final PrintStream log;
+
+    /**
+     * @param output  directory in which to save images
+     * @param threads number of programs to run at once
+     * @param timeout in seconds, after which a program is given up on (0 to wait forever)
+     * @param log     to which progress and the summary are printed
+     */
+    public BatchRenderer(File output, int threads, long timeout, PrintStream log) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        this.output = output;
+        this.threads = threads;
+        this.timeout = timeout;
+        this.log = log;
+    }
+
+    private static boolean isShared(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot >= 0 && className.substring(0, dot).equals(BatchRenderer.class.getPackageName());
+    }
+
+    /**
+     * @param directory of compiled classes and <code>.logo</code> files
+     * @return The programs in the directory, in alphabetical order
+     * @throws IOException if the directory cannot be read
+     */
+    private static List<Job> findJobs(Path directory) throws IOException {
+        URL classpath = directory.toUri().toURL();
+        List<Job> jobs = new ArrayList<>();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String relative = directory.relativize(file).toString().replace(File.separatorChar, '/');
+            if (relative.endsWith(".logo")) {
+                jobs.add(new LogoJob(relative.substring(0, relative.length() - 5).replace('/', '.'), file));
+            } else if (relative.endsWith(".class") && !relative.contains("$")) {
+                String name = relative.substring(0, relative.length() - 6).replace('/', '.');
+                if (!isShared(name) && hasMain(name, classpath)) {
+                    jobs.add(new MainClassJob(name, classpath));
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Check for a <code>main</code> method, without initializing the class (or keeping it loaded)
+     */
+    private static boolean hasMain(String name, URL classpath) {
+        try (URLClassLoader loader = new IsolatingClassLoader(classpath)) {
+            Method main = Class.forName(name, false, loader).getMethod("main", String[].class);
+            return Modifier.isStatic(main.getModifiers()) && main.getReturnType() == void.class;
+        } catch (IOException | ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Run a job in a terrarium scope of its own, then save and dispose of its terraria
+     */
+    private Result render(Job job) {
+        long start = System.nanoTime();
+        List<Terrarium> terraria = new CopyOnWriteArrayList<>();
+        List<File> images = new ArrayList<>();
+        Terrarium.setScope(terraria);
+        try {
+            Terrarium terrarium = new Terrarium();
+            terrarium.setClock(new VirtualClock());
+            Throwable failure = run(job, terraria, start);
+            if (failure != null) {
+                return new Result(job, System.nanoTime() - start, images, failure);
+            }
+            List<Terrarium> used = new ArrayList<>(terraria);
+            for (int i = 0; i < used.size(); i++) {
+                File image = new File(output, job.name + (i == 0 ? "" : "-" + i) + ".png");
+                used.get(i).export(image, "PNG");
+                images.add(image);
+            }
+            return new Result(job, System.nanoTime() - start, images, null);
+        } catch (Throwable e) {
+            return new Result(job, System.nanoTime() - start, images, e);
+        } finally {
+            for (Terrarium t : new ArrayList<>(terraria)) {
+                t.dispose();
+            }
+            Terrarium.setScope(null);
+            try {
+                job.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Run a job's program, and wait for its animated turtles, on a thread of its own (in the current thread's terrarium
+     * scope), so that a program that does not finish in time can be given up on without holding up the worker
+     *
+     * @param job      to run
+     * @param terraria in the job's scope
+     * @param start    of the job, from {@link System#nanoTime()}
+     * @return Whatever the program threw (or a {@link TimeoutException}), or <code>null</code> if it finished in time
+     * @throws InterruptedException if the worker is interrupted while it waits
+     */
+    private Throwable run(Job job, List<Terrarium> terraria, long start) throws InterruptedException {
+        Throwable[] failure = new Throwable[1];
+        Thread program = new Thread(() -> {
+            try {
+                job.run();
+                for (Terrarium t : new ArrayList<>(terraria)) {
+                    for (Turtle turtle : t.getTurtles()) {
+                        if (turtle instanceof AnimatedTurtle) {
+                            turtle.getX(); // waits for the turtle's instructions to be completed
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "BatchRenderer " + job.name);
+        program.setDaemon(true);
+        program.start();
+        if (timeout > 0) {
+            long remaining = TimeUnit.SECONDS.toMillis(timeout) - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            program.join(Math.max(1, remaining));
+            if (program.isAlive()) {
+                // abandoned: its terraria are disposed (and so ignore whatever else it draws), even if it never stops
+                program.interrupt();
+                return new TimeoutException("Did not finish within " + timeout + "s");
+            }
+        } else {
+            program.join();
+        }
+        return failure[0];
+    }
+
+    /**
+     * Render every program in a directory
+     *
+     * @param directory of compiled classes and <code>.logo</code> files
+     * @return Number of programs that failed
+     * @throws IOException if the directory cannot be read
+     */
+    public int render(Path directory) throws IOException {
+        List<Job> jobs = findJobs(directory);
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Cannot create " + output.getAbsolutePath());
+        }
+        log.println("Rendering " + jobs.size() + " programs from " + directory.toAbsolutePath() + " on " + threads + " threads");
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "BatchRenderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Job job : jobs) {
+            futures.add(workers.submit(() -> render(job)));
+        }
+        Histogram timings = new Histogram();
+        int failed = 0, images = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            Result result;
+            try {
+                result = futures.get(i).get(); // each job keeps to its own timeout
+            } catch (InterruptedException | ExecutionException e) {
+                result = new Result(jobs.get(i), 0, List.of(), e);
+            }
+            timings.record(result.nanos);
+            images += result.images.size();
+            if (result.failure == null) {
+                log.printf("ok     %-40s %8.1f ms  %s%n", result.job.name, result.nanos / 1e6,
+                    result.images.stream().map(File::getName).collect(Collectors.joining(", ")));
+            } else {
+                failed++;
+                log.printf("FAILED %-40s %8.1f ms  %s%n", result.job.name, result.nanos / 1e6, result.failure);
+            }
+        }
+        workers.shutdownNow();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.printf("%d programs (%d failed), %d images in %.2f s: %.1f programs/s%n", jobs.size(), failed, images, seconds, jobs.size() / seconds);
+        log.printf("per program: mean %.1f ms, p50 %.1f ms, p95 %.1f ms, max %.1f ms%n", timings.getMean() / 1e6,
+            timings.getPercentile(0.5) / 1e6, timings.getPercentile(0.95) / 1e6, timings.getMax() / 1e6);
+        return failed;
+    }
+
+    /**
+     * Render every program in a directory (see above for the options)
+     *
+     * @param args options, followed by the directory
+     * @throws IOException if the directory cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        File output = new File(".");
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeout = 0;
+        Path directory = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--output":
+                    output = new File(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--timeout":
+                    timeout = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    directory = Paths.get(args[i]);
+            }
+        }
+        if (directory == null) {
+            System.err.println("Usage: BatchRenderer [--output <directory>] [--threads <n>] [--timeout <seconds>] <directory>");
+            System.exit(2);
+        }
+        int failed = new BatchRenderer(output, threads, timeout, System.out).render(directory);
+        System.exit(Math.min(failed, 100));
+    }
+}
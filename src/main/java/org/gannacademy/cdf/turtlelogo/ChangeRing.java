@@ -0,0 +1,161 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>The changes made to a terrarium, in a ring buffer read by every {@link TerrariumChanges} subscription (see
+ * {@link Terrarium#addChangeListener(Terrarium.ChangeListener)})</p>
+ *
+ * <p>Changes are only published while the terrarium is locked, so there is one producer at a time, and publishing a
+ * change is a few plain writes into a preallocated slot and one volatile write of the cursor, however many listeners
+ * there are. The producer never waits for the listeners: a listener that falls more than a ring's length behind finds
+ * that the changes it has not yet read have been overwritten, and is told that it missed them.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class ChangeRing {
+
+    static final int TRACK = 0, CLEAR = 1, REWIND = 2, TURTLE_ADDED = 3, TURTLE_REMOVED = 4;
+
+    private static class Slot {
+        int type;
+        Track track;
+        Turtle turtle;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+
+    /**
+     * Number of the last change published (changes are numbered from zero)
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    /**
+     * Set by subscriptions that are about to park until the next change
+     */
+    private volatile boolean sleeping = false;
+
+    final List<TerrariumChanges> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity number of changes held, a power of two
+     */
+    ChangeRing(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Publish a change (only while the terrarium is locked)
+     */
+    void publish(int type, Track track, Turtle turtle) {
+        long change = cursor.get() + 1;
+        // a reader that sees the slot being overwritten must also see the cursor that says it might be
+        VarHandle.storeStoreFence();
+        Slot slot = slots[(int) change & mask];
+        slot.type = type;
+        slot.track = track;
+        slot.turtle = turtle;
+        cursor.set(change);
+        if (sleeping) {
+            sleeping = false;
+            for (TerrariumChanges subscription : subscriptions) {
+                subscription.wake();
+            }
+        }
+    }
+
+    /**
+     * @return Number of the last change published
+     */
+    long getCursor() {
+        return cursor.get();
+    }
+
+    int getType(long change) {
+        return slots[(int) change & mask].type;
+    }
+
+    Track getTrack(long change) {
+        return slots[(int) change & mask].track;
+    }
+
+    Turtle getTurtle(long change) {
+        return slots[(int) change & mask].turtle;
+    }
+
+    /**
+     * @param oldest change read from the ring
+     * @return <code>true</code> if no change that has been read since (and including) <code>oldest</code> could have
+     * been overwritten while it was read
+     */
+    boolean isIntact(long oldest) {
+        VarHandle.loadLoadFence();
+        return cursor.get() - oldest < slots.length - 1;
+    }
+
+    /**
+     * Wait for a change to be published
+     *
+     * @param change   to wait for
+     * @param strategy for waiting
+     * @param waiter   subscription that is waiting (which is parked, if the strategy blocks)
+     * @return Number of the last change published (at least <code>change</code>, unless the waiter has been closed)
+     */
+    long waitFor(long change, TerrariumChanges.WaitStrategy strategy, TerrariumChanges waiter) {
+        long available;
+        int spins = 0;
+        while ((available = cursor.get()) < change && !waiter.isClosed()) {
+            switch (strategy) {
+                case BUSY_SPIN:
+                    Thread.onSpinWait();
+                    break;
+                case YIELDING:
+                    if (++spins < 100) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                    break;
+                case SLEEPING:
+                    if (++spins < 100) {
+                        Thread.onSpinWait();
+                    } else if (spins < 200) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(100_000);
+                    }
+                    break;
+                default:
+                    if (++spins < 100) {
+                        Thread.onSpinWait();
+                    } else if (spins < 110) {
+                        // while changes keep coming, poll for them, rather than have every change wake the waiter
+                        LockSupport.parkNanos(100_000);
+                    } else {
+                        sleeping = true;
+                        if (cursor.get() < change) {
+                            // woken by the next publish (the timeout is only a safeguard)
+                            LockSupport.parkNanos(this, 10_000_000);
+                        }
+                    }
+            }
+        }
+        return available;
+    }
+}
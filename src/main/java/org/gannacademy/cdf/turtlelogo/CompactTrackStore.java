@@ -0,0 +1,308 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Tracks kept on the heap as a delta-encoded byte stream (see {@link TrackStore#compact(double)})</p>
+ *
+ * <p>Each track is encoded as a tag byte, followed by whatever the tag says is not implied by the previous
+ * track:</p>
+ *
+ * <pre>
+ * tag                   {@link #CONTINUES} | {@link #SAME_PEN} | {@link #POLYLINE} | {@link #ABSOLUTE}
+ * pen      (varint)     unless SAME_PEN
+ * vertices (varint)     if POLYLINE, the number of points less two (otherwise there are two)
+ * x, y     (2 doubles)  unless CONTINUES, the first point
+ * dx, dy   (2 varints)  for each further point, zigzag-encoded multiples of the resolution from the previous
+ *                       point, or
+ * x, y     (2 doubles)  for each further point, if ABSOLUTE
+ * </pre>
+ *
+ * <p>A track that starts exactly where the previous track ended (the usual case, since a turtle's pen stays on the
+ * paper) is said to continue it, and its start is not stored at all. Each further point is rounded to the nearest
+ * multiple of the resolution from the previous point <i>as it will be decoded</i>, so rounding errors never
+ * accumulate: every decoded point lies within half the resolution of the original. A short contiguous segment drawn
+ * with the same pen as the one before it takes five bytes. Tracks after a teleport store their first point
+ * exactly, and tracks whose points cannot be rounded (e.g. huge coordinates) are stored exactly throughout.</p>
+ *
+ * <p>The stream is kept in chunks of {@link #CHUNK_BYTES} bytes, so that it never needs to be copied as it grows,
+ * and chunks are released as the oldest tracks are flattened.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class CompactTrackStore extends TrackStore {
+
+    static final int CONTINUES = 1;
+    static final int SAME_PEN = 2;
+    static final int POLYLINE = 4;
+    static final int ABSOLUTE = 8;
+
+    private static final int CHUNK_SHIFT = 16;
+
+    /**
+     * 64KiB
+     */
+    static final int CHUNK_BYTES = 1 << CHUNK_SHIFT;
+
+    private static final long CHUNK_MASK = CHUNK_BYTES - 1;
+
+    /**
+     * Largest delta, in multiples of the resolution, that is rounded (rather than stored exactly)
+     */
+    private static final double MAX_DELTA = 1L << 52;
+
+    private final double scale; // multiples of the resolution per pixel
+    private final List<byte[]> chunks = new ArrayList<>(); // null once a chunk has been released
+    private final Pens pens = new Pens();
+    private long first, end; // bytes [first, end) hold the stored tracks
+    private long tracks, removed;
+
+    // decoder state at first
+    private double firstX, firstY;
+    private int firstPen;
+
+    // encoder state after the last track
+    private boolean empty = true;
+    private double lastX, lastY, decodedX, decodedY;
+    private int lastPen;
+
+    /**
+     * @param resolution in pixels
+     */
+    CompactTrackStore(double resolution) {
+        if (!(resolution > 0) || Double.isInfinite(resolution)) {
+            throw new IllegalArgumentException("The resolution must be a positive number of pixels");
+        }
+        scale = 1 / resolution;
+    }
+
+    private void write(int b) {
+        if ((end & CHUNK_MASK) == 0) {
+            chunks.add(new byte[CHUNK_BYTES]);
+        }
+        chunks.get((int) (end >>> CHUNK_SHIFT))[(int) (end & CHUNK_MASK)] = (byte) b;
+        end++;
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write((int) value);
+    }
+
+    private void writeDouble(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            write((int) (bits >>> shift));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @param from coordinate of the previous point (as decoded)
+     * @param to   coordinate of the next point
+     * @return <code>true</code> if the delta can be rounded to a multiple of the resolution
+     */
+    private boolean isRoundable(double from, double to) {
+        double delta = (to - from) * scale;
+        return Double.isFinite(delta) && Math.abs(delta) < MAX_DELTA;
+    }
+
+    @Override
+    void add(Track track) {
+        int pen = pens.indexOf(track.getColor(), track.getStroke());
+        int vertices = track.getVertexCount();
+        boolean continues = !empty && track.getX(0) == lastX && track.getY(0) == lastY;
+        double x = continues ? decodedX : track.getX(0), y = continues ? decodedY : track.getY(0);
+
+        boolean absolute = false;
+        for (int i = 1; i < vertices && !absolute; i++) {
+            double nextX = track.getX(i), nextY = track.getY(i);
+            absolute = !isRoundable(x, nextX) || !isRoundable(y, nextY);
+            x = x + Math.round((nextX - x) * scale) / scale;
+            y = y + Math.round((nextY - y) * scale) / scale;
+        }
+
+        write((continues ? CONTINUES : 0)
+            | (!empty && pen == lastPen ? SAME_PEN : 0)
+            | (vertices > 2 ? POLYLINE : 0)
+            | (absolute ? ABSOLUTE : 0));
+        if (empty || pen != lastPen) {
+            writeVarLong(pen);
+        }
+        if (vertices > 2) {
+            writeVarLong(vertices - 2);
+        }
+        x = continues ? decodedX : track.getX(0);
+        y = continues ? decodedY : track.getY(0);
+        if (!continues) {
+            writeDouble(x);
+            writeDouble(y);
+        }
+        for (int i = 1; i < vertices; i++) {
+            double nextX = track.getX(i), nextY = track.getY(i);
+            if (absolute) {
+                writeDouble(nextX);
+                writeDouble(nextY);
+                x = nextX;
+                y = nextY;
+            } else {
+                long dx = Math.round((nextX - x) * scale), dy = Math.round((nextY - y) * scale);
+                writeVarLong(zigzag(dx));
+                writeVarLong(zigzag(dy));
+                x = x + dx / scale;
+                y = y + dy / scale;
+            }
+        }
+
+        empty = false;
+        lastX = track.getX(vertices - 1);
+        lastY = track.getY(vertices - 1);
+        decodedX = x;
+        decodedY = y;
+        lastPen = pen;
+        tracks++;
+    }
+
+    @Override
+    Cursor cursor() {
+        return new CompactCursor();
+    }
+
+    @Override
+    void removeVisited(Cursor cursor) {
+        CompactCursor visited = (CompactCursor) cursor;
+        first = visited.position;
+        firstX = visited.x;
+        firstY = visited.y;
+        firstPen = visited.pen;
+        tracks -= visited.visited;
+        removed += visited.visited;
+        for (int chunk = (int) (first >>> CHUNK_SHIFT) - 1; chunk >= 0 && chunks.get(chunk) != null; chunk--) {
+            chunks.set(chunk, null);
+        }
+    }
+
+    @Override
+    Mark mark() {
+        return new Mark(end, removed + tracks);
+    }
+
+    /**
+     * The next track after the mark is encoded as if it were the first, so that it does not depend on the forgotten
+     * tracks
+     */
+    @Override
+    void truncate(Mark mark) {
+        end = mark.position;
+        tracks = mark.added - removed;
+        empty = true;
+        for (long used = (end + CHUNK_MASK) >>> CHUNK_SHIFT; chunks.size() > used; ) {
+            chunks.remove(chunks.size() - 1);
+        }
+    }
+
+    @Override
+    void clear() {
+        chunks.clear();
+        pens.clear();
+        first = 0;
+        end = 0;
+        tracks = 0;
+        removed = 0;
+        empty = true;
+    }
+
+    @Override
+    public long size() {
+        return tracks;
+    }
+
+    /**
+     * @return The chunks still holding tracks, and the pen table
+     */
+    @Override
+    public long getEstimatedBytes() {
+        long live = chunks.isEmpty() ? 0 : ((end - 1) >>> CHUNK_SHIFT) - (first >>> CHUNK_SHIFT) + 1;
+        return live * (CHUNK_BYTES + 16) + 64L * pens.size();
+    }
+
+    private class CompactCursor extends DecodingCursor {
+        private long position = first;
+        private long visited = 0;
+        private double x = firstX, y = firstY;
+        private byte[] chunk;
+
+        CompactCursor() {
+            super(pens);
+            pen = firstPen;
+        }
+
+        private int read() {
+            if (chunk == null || (position & CHUNK_MASK) == 0) {
+                chunk = chunks.get((int) (position >>> CHUNK_SHIFT));
+            }
+            return chunk[(int) (position++ & CHUNK_MASK)] & 0xFF;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int b, shift = 0;
+            do {
+                b = read();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | read();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        @Override
+        boolean next() {
+            if (position >= end) {
+                return false;
+            }
+            int tag = read();
+            if ((tag & SAME_PEN) == 0) {
+                pen = (int) readVarLong();
+            }
+            int count = (tag & POLYLINE) != 0 ? (int) readVarLong() + 2 : 2;
+            if ((tag & CONTINUES) == 0) {
+                x = readDouble();
+                y = readDouble();
+            }
+            vertices = 0;
+            append(x, y);
+            for (int i = 1; i < count; i++) {
+                if ((tag & ABSOLUTE) != 0) {
+                    x = readDouble();
+                    y = readDouble();
+                } else {
+                    long dx = unzigzag(readVarLong()), dy = unzigzag(readVarLong());
+                    x = x + dx / scale;
+                    y = y + dy / scale;
+                }
+                append(x, y);
+            }
+            visited++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A cheap, thread-safe histogram of durations (or any other non-negative <code>long</code> values)</p>
+ *
+ * <p>Values are counted in power-of-two buckets: bucket <i>i</i> holds values in [2<sup><i>i</i>-1</sup>,
+ * 2<sup><i>i</i></sup>), with bucket 0 holding only 0. Every bucket is a striped {@link LongAdder}, so concurrent
+ * recording threads do not contend with each other &mdash; at the cost of percentiles being accurate only to within a
+ * factor of two.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public final class Histogram {
+
+    /**
+     * 64 buckets, enough for any non-negative <code>long</code>
+     */
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    /**
+     * Construct an empty histogram
+     */
+    public Histogram() {
+        buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        count = new LongAdder();
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    private static int bucketOf(long value) {
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * Record a value (negative values are counted as 0)
+     *
+     * @param value to record
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets[bucketOf(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return Number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Sum of all values recorded
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return Mean of all values recorded (0 if none have been recorded)
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * @return Largest value recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile [0..1]
+     * @return Upper bound of the bucket containing the value at this quantile (0 if nothing has been recorded)
+     */
+    public long getPercentile(double quantile) {
+        long[] snapshot = getBuckets();
+        long total = 0;
+        for (long bucket : snapshot) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.max(0, Math.min(1, quantile)) * total), seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(getMax(), i == 0 ? 0 : (1L << i) - 1);
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return Count of values in each bucket (see the class description for the bucket boundaries)
+     */
+    public long[] getBuckets() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets[i].sum();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Forget all recorded values
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,177 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+
+/**
+ * <p>Level-of-detail rendering of a sequence of tracks</p>
+ *
+ * <p>Consecutive tracks (segments or polylines) that are drawn with the same pen, and that each start exactly where
+ * the previous one ended, are merged into a single polyline. That polyline is then simplified (Douglas-Peucker) so that no vertex that is
+ * dropped lies further than the tolerance from the polyline that is actually stroked. A curve traced in thousands of
+ * sub-pixel steps is thus stroked once, with only as many vertices as are visible at the current scale.</p>
+ *
+ * <p>Merged polylines are stroked with pure geometry ({@link RenderingHints#VALUE_STROKE_PURE}), since stroke
+ * normalization would snap the surviving vertices to the pixel grid and undo the error bound. Apart from the
+ * tolerance, the only difference from stroking each track individually is that antialiased edges no longer darken
+ * where consecutive segments overlap. Only opaque, undashed {@link BasicStroke} pens are merged: a translucent pen
+ * visibly darkens those overlaps. Every other track is drawn exactly as it always was.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class LevelOfDetail {
+
+    /**
+     * Longest run merged into a single polyline: long, self-crossing polylines are slower to stroke than their
+     * segments, and shorter runs keep the (worst case quadratic) simplification cheap
+     */
+    static final int MAX_RUN_VERTICES = 256;
+
+    private final Graphics2D context;
+    private final double tolerance;
+    private final Path2D.Double path;
+
+    private Color runColor;
+    private Stroke runStroke;
+    private double[] run;
+    private int runLength; // number of coordinates (two per vertex) in run
+    private int[] stack;
+    private boolean[] keep;
+
+    /**
+     * @param context   to draw into
+     * @param tolerance in device pixels (a tolerance of zero disables merging)
+     */
+    LevelOfDetail(Graphics2D context, double tolerance) {
+        this.context = context;
+        this.tolerance = tolerance / scaleOf(context.getTransform());
+        path = new Path2D.Double(Path2D.WIND_NON_ZERO, MAX_RUN_VERTICES);
+        run = new double[2 * MAX_RUN_VERTICES];
+        runLength = 0;
+    }
+
+    private static double scaleOf(AffineTransform transform) {
+        double scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+        return scale > 0 ? scale : 1;
+    }
+
+    private static boolean isMergeable(TrackStore.Cursor track) {
+        return track.getColor() != null && track.getColor().getAlpha() == 255
+            && track.getStroke() instanceof BasicStroke && ((BasicStroke) track.getStroke()).getDashArray() == null;
+    }
+
+    private boolean continuesRun(TrackStore.Cursor track) {
+        return runLength > 0
+            && (track.getColor() == runColor || track.getColor().equals(runColor))
+            && (track.getStroke() == runStroke || track.getStroke().equals(runStroke))
+            && track.getX(0) == run[runLength - 2] && track.getY(0) == run[runLength - 1];
+    }
+
+    /**
+     * Draw (or queue for merging) the next track in sequence
+     *
+     * @param track cursor on the track to draw
+     */
+    void draw(TrackStore.Cursor track) {
+        if (tolerance <= 0 || !isMergeable(track)) {
+            flush();
+            track.draw(context);
+        } else {
+            if (!continuesRun(track)) {
+                flush();
+                runColor = track.getColor();
+                runStroke = track.getStroke();
+                append(track.getX(0), track.getY(0));
+            }
+            for (int i = 1; i < track.getVertexCount(); i++) {
+                append(track.getX(i), track.getY(i));
+            }
+        }
+    }
+
+    private void append(double x, double y) {
+        if (runLength / 2 == MAX_RUN_VERTICES) {
+            double lastX = run[runLength - 2], lastY = run[runLength - 1];
+            flush();
+            run[runLength++] = lastX;
+            run[runLength++] = lastY;
+        }
+        run[runLength++] = x;
+        run[runLength++] = y;
+    }
+
+    /**
+     * Stroke whatever run of tracks is still waiting to be merged. Must be called once all tracks have been drawn.
+     */
+    void flush() {
+        int vertices = runLength / 2;
+        if (vertices < 2) {
+            runLength = 0;
+            return;
+        }
+        context.setPaint(runColor);
+        context.setStroke(runStroke);
+        simplify(vertices);
+        path.reset();
+        path.moveTo(run[0], run[1]);
+        for (int i = 1; i < vertices; i++) {
+            if (keep[i]) {
+                path.lineTo(run[2 * i], run[2 * i + 1]);
+            }
+        }
+        Object strokeControl = context.getRenderingHint(RenderingHints.KEY_STROKE_CONTROL);
+        context.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        context.draw(path);
+        context.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, strokeControl);
+        runLength = 0;
+    }
+
+    /**
+     * Douglas-Peucker simplification of the current run, marking the vertices to <code>keep</code> (iteratively, with
+     * an explicit stack of index ranges)
+     *
+     * @param vertices in the current run
+     */
+    private void simplify(int vertices) {
+        if (keep == null) {
+            keep = new boolean[MAX_RUN_VERTICES];
+            stack = new int[2 * MAX_RUN_VERTICES];
+        }
+        Arrays.fill(keep, 0, vertices, false);
+        keep[0] = true;
+        keep[vertices - 1] = true;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = vertices - 1;
+        while (top > 0) {
+            int last = stack[--top], first = stack[--top];
+            double worst = tolerance;
+            int worstIndex = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = distanceToSegment(i, first, last);
+                if (distance > worst) {
+                    worst = distance;
+                    worstIndex = i;
+                }
+            }
+            if (worstIndex >= 0) {
+                keep[worstIndex] = true;
+                stack[top++] = first;
+                stack[top++] = worstIndex;
+                stack[top++] = worstIndex;
+                stack[top++] = last;
+            }
+        }
+    }
+
+    private double distanceToSegment(int point, int start, int end) {
+        double px = run[2 * point], py = run[2 * point + 1],
+            ax = run[2 * start], ay = run[2 * start + 1],
+            dx = run[2 * end] - ax, dy = run[2 * end + 1] - ay,
+            lengthSquared = dx * dx + dy * dy,
+            t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+}
@@ -0,0 +1,171 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+
+/**
+ * <p>Run programs written in the Logo language with a {@link Turtle}</p>
+ *
+ * <pre>
+ * Logo.Program program = Logo.compile(
+ *     "TO square :size\n" +
+ *     "  REPEAT 4 [FD :size RT 90]\n" +
+ *     "END\n" +
+ *     "REPEAT 36 [square 100 RT 10]"
+ * );
+ * program.run(new Turtle());
+ * </pre>
+ *
+ * <p>A program is compiled once (and checked for mistakes, which are reported as {@link LogoException}s, with the
+ * line on which they were made) and may then be run as many times as needed, with as many turtles as needed. The
+ * program is compiled into a tree of small Java objects that call the turtle's methods directly, so it runs within a
+ * small constant factor of the same program written in Java (often faster, since loops that only move and turn by
+ * fixed amounts are drawn as single paths).</p>
+ *
+ * <p>The dialect is a numeric subset of Berkeley Logo:</p>
+ *
+ * <ul>
+ * <li>Turtle graphics: <code>FD</code>/<code>FORWARD</code>, <code>BK</code>/<code>BACK</code>,
+ * <code>RT</code>/<code>RIGHT</code>, <code>LT</code>/<code>LEFT</code>, <code>PU</code>/<code>PENUP</code>,
+ * <code>PD</code>/<code>PENDOWN</code>, <code>HT</code>/<code>HIDETURTLE</code>, <code>ST</code>/<code>SHOWTURTLE</code>,
+ * <code>HOME</code>, <code>SETXY</code>, <code>SETX</code>, <code>SETY</code>, <code>SETH</code>/<code>SETHEADING</code>,
+ * <code>SETPENSIZE</code>, <code>SETPC</code>/<code>SETPENCOLOR</code> (a color number from 0 to 15, or
+ * <code>[red green blue]</code> from 0 to 100), <code>CS</code>/<code>CLEARSCREEN</code>, <code>CLEAN</code>,
+ * <code>XCOR</code>, <code>YCOR</code>, <code>HEADING</code>, <code>PENDOWNP</code>. As in Logo, the origin is at the
+ * center of the terrarium, <i>y</i> increases up the screen, and headings are measured clockwise from north.</li>
+ * <li>Control: <code>REPEAT</code>, <code>REPCOUNT</code>, <code>IF</code>, <code>IFELSE</code>,
+ * <code>TO</code>&hellip;<code>END</code>, <code>STOP</code>, <code>OP</code>/<code>OUTPUT</code>,
+ * <code>MAKE</code>, <code>LOCAL</code>, <code>PR</code>/<code>PRINT</code>.</li>
+ * <li>Arithmetic: <code>+ - * / = &lt; &gt; &lt;= &gt;= &lt;&gt;</code>, <code>SUM</code>, <code>DIFFERENCE</code>,
+ * <code>PRODUCT</code>, <code>QUOTIENT</code>, <code>REMAINDER</code>, <code>MODULO</code>, <code>POWER</code>,
+ * <code>MINUS</code>, <code>ABS</code>, <code>SQRT</code>, <code>SIN</code>, <code>COS</code>, <code>TAN</code>,
+ * <code>ARCTAN</code> (in degrees), <code>INT</code>, <code>ROUND</code>, <code>RANDOM</code>, <code>PI</code>,
+ * <code>EQUALP</code>, <code>LESSP</code>, <code>GREATERP</code>, <code>AND</code>, <code>OR</code>,
+ * <code>NOT</code>, <code>TRUE</code>, <code>FALSE</code>.</li>
+ * </ul>
+ *
+ * <p>Every value is a number (<code>TRUE</code> and <code>FALSE</code> are 1 and 0), lists may only be used as
+ * instructions (e.g. for <code>REPEAT</code>) or colors, and words may only be used to name variables (e.g.
+ * <code>MAKE "size 10</code>). Names are not case-sensitive, and <code>;</code> starts a comment.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class Logo {
+
+    /**
+     * A mistake in a Logo program, found either when it was compiled or when it was run
+     *
+     * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+     */
+    public static class LogoException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int line;
+
+        /**
+         * @param line    of the program on which the mistake was made (or 0 if it is not known)
+         * @param message describing the mistake
+         */
+        public LogoException(int line, String message) {
+            super(line > 0 ? "Line " + line + ": " + message : message);
+            this.line = line;
+        }
+
+        /**
+         * @return Line of the program on which the mistake was made (or 0 if it is not known)
+         */
+        public int getLine() {
+            return line;
+        }
+    }
+
+    /**
+     * A compiled Logo program (see {@link #compile(String)})
+     *
+     * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+     */
+    public static class Program {
+        private final LogoCompiler compiler;
+        private final LogoCompiler.Instruction main;
+
+        private Program(String source) {
+            LogoParser parser = new LogoParser(source);
+            LogoParser.Block block = parser.parse();
+            compiler = new LogoCompiler(parser.getDefinitions());
+            main = compiler.compileBlock(block, false);
+        }
+
+        /**
+         * Run the program (each run starts with no global variables)
+         *
+         * @param turtle to carry out the program's instructions
+         * @throws LogoException if the program makes a mistake
+         */
+        public void run(Turtle turtle) {
+            LogoCompiler.Frame frame = new LogoCompiler.Frame(new LogoCompiler.Context(turtle), null, null, new double[0]);
+            try {
+                main.run(frame);
+            } catch (StackOverflowError e) {
+                throw new LogoException(0, "Too many procedures are running at once (is one calling itself forever?)");
+            }
+        }
+
+        /**
+         * @param name of a procedure defined by the program
+         * @return <code>true</code> if the program defines the procedure
+         */
+        public boolean defines(String name) {
+            return compiler.getProcedure(name.toLowerCase()) != null;
+        }
+    }
+
+    /**
+     * Berkeley Logo's standard colors, by number
+     */
+    private static final Color[] PALETTE = {
+        Color.BLACK, Color.BLUE, Color.GREEN, Color.CYAN, Color.RED, Color.MAGENTA, Color.YELLOW, Color.WHITE,
+        new Color(155, 96, 59), new Color(197, 136, 18), new Color(100, 162, 64), new Color(120, 187, 187),
+        new Color(255, 149, 119), new Color(144, 113, 208), new Color(255, 163, 0), new Color(183, 183, 183)
+    };
+
+    private Logo() {
+    }
+
+    /**
+     * @param source of a Logo program
+     * @return The compiled program, ready to be run
+     * @throws LogoException if the program cannot be compiled
+     */
+    public static Program compile(String source) {
+        return new Program(source);
+    }
+
+    /**
+     * Compile and run a Logo program
+     *
+     * @param source of a Logo program
+     * @param turtle to carry out the program's instructions
+     * @throws LogoException if the program makes a mistake
+     */
+    public static void run(String source, Turtle turtle) {
+        compile(source).run(turtle);
+    }
+
+    /**
+     * @param index of one of Logo's standard colors, from 0 to 15
+     * @return The color
+     */
+    static Color getPaletteColor(int index) {
+        return PALETTE[Math.floorMod(index, PALETTE.length)];
+    }
+
+    /**
+     * @param value to print
+     * @return The value, as Logo would print it (e.g. <code>3</code> rather than <code>3.0</code>)
+     */
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
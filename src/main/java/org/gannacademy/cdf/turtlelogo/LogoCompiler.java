@@ -0,0 +1,1042 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <p>Compiles the syntax tree of a Logo program into a tree of closures that run directly against the
+ * {@link Turtle} API (see {@link Logo})</p>
+ *
+ * <p>Every instruction becomes an {@link Instruction} and every expression an {@link Expression}, each of which
+ * holds the (already compiled) instructions and expressions that it is made of, so running the program is just a
+ * matter of calling down the tree: nothing is looked up by name at run time except the variables of other
+ * procedures (Logo's variables are dynamically scoped). Along the way:</p>
+ *
+ * <ul>
+ * <li>Expressions whose inputs are all constants are computed once, when the program is compiled, rather than every
+ * time they are run (e.g. <code>FD 2 * 3.14159 * 200 / 360</code>).</li>
+ * <li>A <code>REPEAT</code> whose instructions only move and turn by constant amounts (e.g.
+ * <code>REPEAT 360 [FD 1 RT 1]</code>, or loops of such loops) is folded: the turtle's whole route is computed
+ * directly and handed to the turtle as a single {@link Turtle#path(double[])}, rather than step by step. Animated
+ * turtles still take every step, so that they can be watched.</li>
+ * <li>A call to a procedure that is the last thing its caller does (e.g. <code>spiral :size + 2</code> at the end of
+ * <code>TO spiral</code>, or <code>OUTPUT fact.loop :n - 1 :n * :acc</code>) replaces the caller, rather than
+ * calling it, so tail-recursive procedures run in constant stack space, however deeply they recur. (A procedure
+ * replaced by a different procedure is kept, off of the Java stack, so long as its variables are still visible.)</li>
+ * </ul>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class LogoCompiler {
+
+    /**
+     * Signals returned by {@link Instruction#run(Frame)}: carry on with the next instruction
+     */
+    static final int NORMAL = 0;
+
+    /**
+     * Signals returned by {@link Instruction#run(Frame)}: the procedure has stopped (or output a value)
+     */
+    static final int STOP = 1;
+
+    /**
+     * Signals returned by {@link Instruction#run(Frame)}: the procedure is to be replaced by a tail call (see
+     * {@link Frame#tailProcedure})
+     */
+    static final int TAIL = 2;
+
+    /**
+     * Most motions that a folded loop body may expand to (see {@link #fold(LogoParser.Block)})
+     */
+    private static final int MAX_FOLDED_MOTIONS = 1 << 12;
+
+    /**
+     * Most points handed to the turtle in a single path by a folded loop
+     */
+    private static final int MAX_FOLDED_POINTS = 1 << 16;
+
+    interface Instruction {
+        /**
+         * @param frame of the running procedure
+         * @return {@link #NORMAL}, {@link #STOP} or {@link #TAIL}
+         */
+        int run(Frame frame);
+    }
+
+    interface Expression {
+        /**
+         * @param frame of the running procedure (or <code>null</code>, if the expression is {@link #isPure(String)}
+         *              and being folded)
+         * @return Value of the expression
+         */
+        double evaluate(Frame frame);
+    }
+
+    /**
+     * An expression whose value was computed when the program was compiled
+     */
+    static final class Constant implements Expression {
+        final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double evaluate(Frame frame) {
+            return value;
+        }
+    }
+
+    /**
+     * A procedure defined by the program
+     */
+    static final class Procedure {
+        final String name;
+        final int inputs;
+        final List<String> slots; // inputs, then locals
+        final Set<String> locals = new HashSet<>(); // declared by LOCAL (perhaps with the name of an input)
+        Instruction body;
+
+        Procedure(String name, List<String> inputs) {
+            this.name = name;
+            this.inputs = inputs.size();
+            this.slots = new ArrayList<>(inputs);
+        }
+    }
+
+    /**
+     * Everything shared by one run of a program
+     */
+    static final class Context {
+        final Turtle turtle;
+        final Map<String, double[]> globals = new HashMap<>();
+        final Random random = new Random();
+
+        Context(Turtle turtle) {
+            this.turtle = turtle;
+        }
+    }
+
+    /**
+     * The variables of one call to a procedure (or of the top level of the program)
+     *
+     * <p>A local variable only hides the variable of the same name (of a caller, or global) once its
+     * <code>LOCAL</code> has run, and has no value until it is given one.</p>
+     */
+    static final class Frame {
+        static final byte UNBOUND = 0, UNASSIGNED = 1, ASSIGNED = 2;
+
+        final Context context;
+        final Frame caller;
+        final Procedure procedure;
+        final double[] slots;
+        final byte[] bindings; // of each slot, or null if the procedure declares no locals (so each slot is an input)
+        double repcount = -1;
+        double output;
+        boolean outputted = false;
+        Procedure tailProcedure;
+        double[] tailSlots;
+
+        Frame(Context context, Frame caller, Procedure procedure, double[] slots) {
+            this.context = context;
+            this.caller = caller;
+            this.procedure = procedure;
+            this.slots = slots;
+            if (procedure != null && !procedure.locals.isEmpty()) {
+                bindings = new byte[slots.length];
+                Arrays.fill(bindings, 0, procedure.inputs, ASSIGNED);
+            } else {
+                bindings = null;
+            }
+        }
+
+        /**
+         * @param slot of one of the procedure's variables
+         * @return <code>true</code> if the variable is an input, or a local that has been declared in this call
+         */
+        boolean binds(int slot) {
+            return bindings == null || bindings[slot] != UNBOUND;
+        }
+
+        /**
+         * @param slot     of one of the procedure's variables, which {@link #binds(int)}
+         * @param variable being read
+         * @return Value of the variable
+         */
+        double get(int slot, LogoParser.Variable variable) {
+            if (bindings != null && bindings[slot] != ASSIGNED) {
+                throw new Logo.LogoException(variable.line, variable.name + " has no value");
+            }
+            return slots[slot];
+        }
+
+        /**
+         * @param slot  of one of the procedure's variables, which {@link #binds(int)}
+         * @param value of the variable
+         */
+        void set(int slot, double value) {
+            slots[slot] = value;
+            if (bindings != null) {
+                bindings[slot] = ASSIGNED;
+            }
+        }
+    }
+
+    private static final Map<String, String> CANONICAL = new HashMap<>();
+    private static final Map<String, Integer> ARITY = new HashMap<>();
+    private static final Set<String> IMPURE = Set.of("random", "xcor", "ycor", "heading", "repcount", "pendownp");
+
+    static {
+        primitive(1, "forward", "fd");
+        primitive(1, "back", "bk");
+        primitive(1, "right", "rt");
+        primitive(1, "left", "lt");
+        primitive(0, "penup", "pu");
+        primitive(0, "pendown", "pd");
+        primitive(0, "hideturtle", "ht");
+        primitive(0, "showturtle", "st");
+        primitive(0, "home");
+        primitive(2, "setxy");
+        primitive(1, "setx");
+        primitive(1, "sety");
+        primitive(1, "setheading", "seth");
+        primitive(1, "setpensize", "setpenwidth", "setpw");
+        primitive(1, "setpencolor", "setpc");
+        primitive(0, "clearscreen", "cs");
+        primitive(0, "clean");
+        primitive(1, "print", "pr");
+        primitive(2, "repeat");
+        primitive(2, "if");
+        primitive(3, "ifelse");
+        primitive(0, "stop");
+        primitive(1, "output", "op");
+        primitive(2, "make");
+        primitive(1, "local");
+
+        primitive(2, "sum");
+        primitive(2, "difference");
+        primitive(2, "product");
+        primitive(2, "quotient");
+        primitive(2, "remainder");
+        primitive(2, "modulo");
+        primitive(2, "power");
+        primitive(1, "minus");
+        primitive(1, "abs");
+        primitive(1, "sqrt");
+        primitive(1, "sin");
+        primitive(1, "cos");
+        primitive(1, "tan");
+        primitive(1, "arctan");
+        primitive(1, "int");
+        primitive(1, "round");
+        primitive(1, "random");
+        primitive(0, "pi");
+        primitive(0, "xcor");
+        primitive(0, "ycor");
+        primitive(0, "heading");
+        primitive(0, "repcount");
+        primitive(0, "pendownp", "pendown?");
+        primitive(2, "equalp", "equal?");
+        primitive(2, "lessp", "less?");
+        primitive(2, "greaterp", "greater?");
+        primitive(2, "and");
+        primitive(2, "or");
+        primitive(1, "not");
+        primitive(0, "true");
+        primitive(0, "false");
+    }
+
+    private static void primitive(int arity, String... names) {
+        for (String name : names) {
+            CANONICAL.put(name, names[0]);
+            ARITY.put(name, arity);
+        }
+    }
+
+    /**
+     * @param name of a primitive (lowercase)
+     * @return Number of inputs that the primitive takes, or <code>-1</code> if there is no such primitive
+     */
+    static int getArity(String name) {
+        return ARITY.getOrDefault(name, -1);
+    }
+
+    /**
+     * @param name of a primitive (canonical) or operator
+     * @return <code>true</code> if the primitive always reports the same value, given the same inputs
+     */
+    private static boolean isPure(String name) {
+        return !IMPURE.contains(name);
+    }
+
+    private final Map<String, Procedure> procedures = new HashMap<>();
+    private Procedure scope; // procedure being compiled, or null at the top level
+
+    /**
+     * @param definitions of the procedures of the program, which are all compiled
+     */
+    LogoCompiler(List<LogoParser.Definition> definitions) {
+        for (LogoParser.Definition definition : definitions) {
+            if (procedures.containsKey(definition.name)) {
+                throw new Logo.LogoException(definition.line, definition.name + " is already defined");
+            }
+            Procedure procedure = new Procedure(definition.name, definition.inputs);
+            collectLocals(definition.body, procedure);
+            procedures.put(definition.name, procedure);
+        }
+        for (LogoParser.Definition definition : definitions) {
+            scope = procedures.get(definition.name);
+            scope.body = compileBlock(definition.body, true);
+        }
+        scope = null;
+    }
+
+    /**
+     * @param name of a procedure defined by the program
+     * @return The procedure, or <code>null</code> if there is none by that name
+     */
+    Procedure getProcedure(String name) {
+        return procedures.get(name);
+    }
+
+    private static void collectLocals(LogoParser.Node node, Procedure procedure) {
+        if (node instanceof LogoParser.Block) {
+            for (LogoParser.Node child : ((LogoParser.Block) node).nodes) {
+                collectLocals(child, procedure);
+            }
+        } else if (node instanceof LogoParser.Call) {
+            LogoParser.Call call = (LogoParser.Call) node;
+            if ("local".equals(CANONICAL.get(call.name)) && call.inputs[0] instanceof LogoParser.Word) {
+                String name = ((LogoParser.Word) call.inputs[0]).name;
+                if (!procedure.slots.contains(name)) {
+                    procedure.slots.add(name);
+                }
+                procedure.locals.add(name);
+            }
+            for (LogoParser.Node input : call.inputs) {
+                collectLocals(input, procedure);
+            }
+        }
+    }
+
+    /**
+     * @param block of instructions
+     * @param tail  <code>true</code> if the block is the last thing that its procedure does
+     * @return The compiled block
+     */
+    Instruction compileBlock(LogoParser.Block block, boolean tail) {
+        Instruction[] instructions = new Instruction[block.nodes.size()];
+        for (int i = 0; i < instructions.length; i++) {
+            instructions[i] = compileInstruction(block.nodes.get(i), tail && i == instructions.length - 1);
+        }
+        if (instructions.length == 0) {
+            return frame -> NORMAL;
+        }
+        if (instructions.length == 1) {
+            return instructions[0];
+        }
+        return frame -> {
+            for (Instruction instruction : instructions) {
+                int signal = instruction.run(frame);
+                if (signal != NORMAL) {
+                    return signal;
+                }
+            }
+            return NORMAL;
+        };
+    }
+
+    private static Logo.LogoException unused(LogoParser.Node node) {
+        String what = node instanceof LogoParser.Number ? Logo.format(((LogoParser.Number) node).value)
+            : node instanceof LogoParser.Variable ? ":" + ((LogoParser.Variable) node).name
+            : node instanceof LogoParser.Word ? "\"" + ((LogoParser.Word) node).name
+            : node instanceof LogoParser.Call ? ((LogoParser.Call) node).name
+            : "[...]";
+        return new Logo.LogoException(node.line, "You don't say what to do with " + what);
+    }
+
+    private LogoParser.Block block(LogoParser.Call call, int input) {
+        if (!(call.inputs[input] instanceof LogoParser.Block)) {
+            throw new Logo.LogoException(call.line, call.name + " expects a [list] of instructions");
+        }
+        return (LogoParser.Block) call.inputs[input];
+    }
+
+    private String word(LogoParser.Call call, int input) {
+        if (!(call.inputs[input] instanceof LogoParser.Word)) {
+            throw new Logo.LogoException(call.line, call.name + " expects a \"name");
+        }
+        return ((LogoParser.Word) call.inputs[input]).name;
+    }
+
+    private Instruction compileInstruction(LogoParser.Node node, boolean tail) {
+        if (!(node instanceof LogoParser.Call)) {
+            throw unused(node);
+        }
+        LogoParser.Call call = (LogoParser.Call) node;
+        Procedure procedure = procedures.get(call.name);
+        if (procedure != null) {
+            Expression[] inputs = compileInputs(call);
+            if (tail && scope != null) {
+                return frame -> {
+                    frame.tailProcedure = procedure;
+                    frame.tailSlots = slots(procedure, inputs, frame);
+                    return TAIL;
+                };
+            }
+            return frame -> {
+                invoke(procedure, slots(procedure, inputs, frame), frame);
+                return NORMAL;
+            };
+        }
+        String name = CANONICAL.getOrDefault(call.name, call.name);
+        switch (name) {
+            case "forward": {
+                Expression steps = compileExpression(call.inputs[0]);
+                return frame -> {
+                    frame.context.turtle.move(steps.evaluate(frame));
+                    return NORMAL;
+                };
+            }
+            case "back": {
+                Expression steps = compileExpression(call.inputs[0]);
+                return frame -> {
+                    frame.context.turtle.move(-steps.evaluate(frame));
+                    return NORMAL;
+                };
+            }
+            case "right": {
+                Expression angle = compileExpression(call.inputs[0]);
+                return frame -> {
+                    frame.context.turtle.turn(angle.evaluate(frame));
+                    return NORMAL;
+                };
+            }
+            case "left": {
+                Expression angle = compileExpression(call.inputs[0]);
+                return frame -> {
+                    frame.context.turtle.turn(-angle.evaluate(frame));
+                    return NORMAL;
+                };
+            }
+            case "penup":
+                return frame -> {
+                    frame.context.turtle.penUp();
+                    return NORMAL;
+                };
+            case "pendown":
+                return frame -> {
+                    frame.context.turtle.penDown();
+                    return NORMAL;
+                };
+            case "hideturtle":
+                return frame -> {
+                    frame.context.turtle.hide();
+                    return NORMAL;
+                };
+            case "showturtle":
+                return frame -> {
+                    frame.context.turtle.show();
+                    return NORMAL;
+                };
+            case "home":
+                return frame -> {
+                    home(frame.context.turtle);
+                    return NORMAL;
+                };
+            case "setxy": {
+                Expression x = compileExpression(call.inputs[0]), y = compileExpression(call.inputs[1]);
+                return frame -> {
+                    Turtle turtle = frame.context.turtle;
+                    turtle.moveTo(toTurtleX(turtle, x.evaluate(frame)), toTurtleY(turtle, y.evaluate(frame)));
+                    return NORMAL;
+                };
+            }
+            case "setx": {
+                Expression x = compileExpression(call.inputs[0]);
+                return frame -> {
+                    Turtle turtle = settle(frame.context.turtle);
+                    turtle.moveTo(toTurtleX(turtle, x.evaluate(frame)), turtle.getY());
+                    return NORMAL;
+                };
+            }
+            case "sety": {
+                Expression y = compileExpression(call.inputs[0]);
+                return frame -> {
+                    Turtle turtle = settle(frame.context.turtle);
+                    turtle.moveTo(turtle.getX(), toTurtleY(turtle, y.evaluate(frame)));
+                    return NORMAL;
+                };
+            }
+            case "setheading": {
+                Expression heading = compileExpression(call.inputs[0]);
+                return frame -> {
+                    frame.context.turtle.head(toTurtleHeading(heading.evaluate(frame)));
+                    return NORMAL;
+                };
+            }
+            case "setpensize": {
+                Expression width = compileExpression(call.inputs[0]);
+                return frame -> {
+                    frame.context.turtle.penWidth(width.evaluate(frame));
+                    return NORMAL;
+                };
+            }
+            case "setpencolor":
+                return compilePenColor(call);
+            case "clearscreen":
+                return frame -> {
+                    frame.context.turtle.getTerrarium().clear();
+                    home(frame.context.turtle);
+                    return NORMAL;
+                };
+            case "clean":
+                return frame -> {
+                    frame.context.turtle.getTerrarium().clear();
+                    return NORMAL;
+                };
+            case "print": {
+                Expression value = compileExpression(call.inputs[0]);
+                return frame -> {
+                    System.out.println(Logo.format(value.evaluate(frame)));
+                    return NORMAL;
+                };
+            }
+            case "repeat":
+                return compileRepeat(call);
+            case "if": {
+                Expression condition = compileExpression(call.inputs[0]);
+                Instruction then = compileBlock(block(call, 1), tail);
+                return frame -> condition.evaluate(frame) != 0 ? then.run(frame) : NORMAL;
+            }
+            case "ifelse": {
+                Expression condition = compileExpression(call.inputs[0]);
+                Instruction then = compileBlock(block(call, 1), tail), otherwise = compileBlock(block(call, 2), tail);
+                return frame -> condition.evaluate(frame) != 0 ? then.run(frame) : otherwise.run(frame);
+            }
+            case "stop":
+                return frame -> STOP;
+            case "output":
+                return compileOutput(call);
+            case "make":
+                return compileMake(call);
+            case "local": {
+                String variable = word(call, 0);
+                if (scope == null) {
+                    return frame -> NORMAL;
+                }
+                int slot = scope.slots.indexOf(variable);
+                return frame -> {
+                    frame.bindings[slot] = Frame.UNASSIGNED;
+                    return NORMAL;
+                };
+            }
+            default:
+                throw unused(node);
+        }
+    }
+
+    private Instruction compileRepeat(LogoParser.Call call) {
+        Expression count = compileExpression(call.inputs[0]);
+        Instruction body = compileBlock(block(call, 1), false);
+        Instruction repeat = frame -> {
+            long times = (long) count.evaluate(frame);
+            double outer = frame.repcount;
+            for (long i = 1; i <= times; i++) {
+                frame.repcount = i;
+                int signal = body.run(frame);
+                if (signal != NORMAL) {
+                    frame.repcount = outer;
+                    return signal;
+                }
+            }
+            frame.repcount = outer;
+            return NORMAL;
+        };
+        double[] motions = fold(block(call, 1));
+        if (motions == null) {
+            return repeat;
+        }
+        return frame -> {
+            Turtle turtle = frame.context.turtle;
+            if (turtle instanceof AnimatedTurtle) {
+                return repeat.run(frame);
+            }
+            follow(turtle, motions, (long) count.evaluate(frame));
+            return NORMAL;
+        };
+    }
+
+    /**
+     * @param block of instructions
+     * @return The block as a series of motions (pairs of an amount to move, then an angle to turn), or
+     * <code>null</code> if it does anything but move and turn by constant amounts
+     */
+    private double[] fold(LogoParser.Block block) {
+        List<Double> motions = new ArrayList<>();
+        for (LogoParser.Node node : block.nodes) {
+            if (!(node instanceof LogoParser.Call) || procedures.containsKey(((LogoParser.Call) node).name)) {
+                return null;
+            }
+            LogoParser.Call call = (LogoParser.Call) node;
+            String name = CANONICAL.getOrDefault(call.name, call.name);
+            if (name.equals("repeat")) {
+                Expression count = compileExpression(call.inputs[0]);
+                double[] inner = call.inputs[1] instanceof LogoParser.Block ? fold((LogoParser.Block) call.inputs[1]) : null;
+                if (!(count instanceof Constant) || inner == null
+                    || ((Constant) count).value * inner.length + motions.size() > 2 * MAX_FOLDED_MOTIONS) {
+                    return null;
+                }
+                for (long i = (long) ((Constant) count).value; i > 0; i--) {
+                    for (double motion : inner) {
+                        motions.add(motion);
+                    }
+                }
+                continue;
+            }
+            if (!name.equals("forward") && !name.equals("back") && !name.equals("right") && !name.equals("left")) {
+                return null;
+            }
+            Expression amount = compileExpression(call.inputs[0]);
+            if (!(amount instanceof Constant)) {
+                return null;
+            }
+            double value = ((Constant) amount).value;
+            switch (name) {
+                case "forward":
+                    motions.add(value);
+                    motions.add(null);
+                    break;
+                case "back":
+                    motions.add(-value);
+                    motions.add(null);
+                    break;
+                case "right":
+                    motions.add(null);
+                    motions.add(value);
+                    break;
+                default:
+                    motions.add(null);
+                    motions.add(-value);
+            }
+            if (motions.size() > 2 * MAX_FOLDED_MOTIONS) {
+                return null;
+            }
+        }
+        double[] folded = new double[motions.size()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = motions.get(i) == null ? Double.NaN : motions.get(i);
+        }
+        return folded;
+    }
+
+    /**
+     * Move the turtle through a folded loop, computing each point exactly as {@link Turtle#move(double)} and
+     * {@link Turtle#turn(double)} would
+     *
+     * @param turtle  to move
+     * @param motions from {@link #fold(LogoParser.Block)}: (move, NaN) or (NaN, turn) pairs
+     * @param times   to repeat the motions
+     */
+    private static void follow(Turtle turtle, double[] motions, long times) {
+        int moves = 0;
+        for (int i = 0; i < motions.length; i += 2) {
+            if (!Double.isNaN(motions[i])) {
+                moves++;
+            }
+        }
+        double x = turtle.getX(), y = turtle.getY(), heading = turtle.getHeadingInDegrees();
+        long batch = Math.max(1, MAX_FOLDED_POINTS / Math.max(1, moves));
+        for (long done = 0; done < times; ) {
+            long iterations = Math.min(batch, times - done);
+            double[] points = new double[(int) (2 * (iterations * moves + 1))];
+            int point = 2;
+            for (long i = 0; i < iterations; i++) {
+                for (int m = 0; m < motions.length; m += 2) {
+                    if (Double.isNaN(motions[m])) {
+                        heading = (heading + motions[m + 1]) % 360;
+                    } else {
+                        x = x + Math.cos(Math.toRadians(heading)) * motions[m];
+                        y = y + Math.sin(Math.toRadians(heading)) * motions[m];
+                        points[point++] = x;
+                        points[point++] = y;
+                    }
+                }
+            }
+            if (moves > 0) {
+                turtle.path(points);
+            }
+            turtle.head(heading);
+            done += iterations;
+        }
+    }
+
+    private Instruction compilePenColor(LogoParser.Call call) {
+        if (call.inputs[0] instanceof LogoParser.Block) {
+            List<LogoParser.Node> rgb = ((LogoParser.Block) call.inputs[0]).nodes;
+            if (rgb.size() != 3) {
+                throw new Logo.LogoException(call.line, call.name + " expects [red green blue], each from 0 to 100");
+            }
+            Expression red = compileExpression(rgb.get(0)), green = compileExpression(rgb.get(1)), blue = compileExpression(rgb.get(2));
+            return frame -> {
+                frame.context.turtle.penColor(new Color(
+                    percent(red.evaluate(frame)), percent(green.evaluate(frame)), percent(blue.evaluate(frame))
+                ));
+                return NORMAL;
+            };
+        }
+        Expression index = compileExpression(call.inputs[0]);
+        return frame -> {
+            frame.context.turtle.penColor(Logo.getPaletteColor((int) index.evaluate(frame)));
+            return NORMAL;
+        };
+    }
+
+    private static float percent(double value) {
+        return (float) Math.max(0, Math.min(1, value / 100));
+    }
+
+    private Instruction compileOutput(LogoParser.Call call) {
+        if (scope == null) {
+            throw new Logo.LogoException(call.line, "OUTPUT can only be used in a procedure");
+        }
+        if (call.inputs[0] instanceof LogoParser.Call && procedures.containsKey(((LogoParser.Call) call.inputs[0]).name)) {
+            // whatever the callee outputs is output in turn, so the callee can simply replace this procedure
+            LogoParser.Call tail = (LogoParser.Call) call.inputs[0];
+            Procedure procedure = procedures.get(tail.name);
+            Expression[] inputs = compileInputs(tail);
+            return frame -> {
+                frame.tailProcedure = procedure;
+                frame.tailSlots = slots(procedure, inputs, frame);
+                return TAIL;
+            };
+        }
+        Expression value = compileExpression(call.inputs[0]);
+        return frame -> {
+            frame.output = value.evaluate(frame);
+            frame.outputted = true;
+            return STOP;
+        };
+    }
+
+    private Instruction compileMake(LogoParser.Call call) {
+        String variable = word(call, 0);
+        Expression value = compileExpression(call.inputs[1]);
+        int slot = scope == null ? -1 : scope.slots.indexOf(variable);
+        if (slot >= 0 && !scope.locals.contains(variable)) {
+            return frame -> {
+                frame.slots[slot] = value.evaluate(frame);
+                return NORMAL;
+            };
+        }
+        if (slot >= 0) {
+            return frame -> {
+                double v = value.evaluate(frame);
+                if (frame.binds(slot)) {
+                    frame.set(slot, v);
+                } else {
+                    assign(frame.caller, variable, v);
+                }
+                return NORMAL;
+            };
+        }
+        return frame -> {
+            assign(frame, variable, value.evaluate(frame));
+            return NORMAL;
+        };
+    }
+
+    /**
+     * @param frame    from which to look for the variable, and then its callers
+     * @param variable to be given a value (a global variable, if it is not bound by any of the frames)
+     * @param value    of the variable
+     */
+    private static void assign(Frame frame, String variable, double value) {
+        for (Frame f = frame; f.procedure != null; f = f.caller) {
+            int s = f.procedure.slots.indexOf(variable);
+            if (s >= 0 && f.binds(s)) {
+                f.set(s, value);
+                return;
+            }
+        }
+        frame.context.globals.computeIfAbsent(variable, name -> new double[1])[0] = value;
+    }
+
+    private Expression[] compileInputs(LogoParser.Call call) {
+        Expression[] inputs = new Expression[call.inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = compileExpression(call.inputs[i]);
+        }
+        return inputs;
+    }
+
+    private static double[] slots(Procedure procedure, Expression[] inputs, Frame frame) {
+        double[] slots = new double[procedure.slots.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            slots[i] = inputs[i].evaluate(frame);
+        }
+        return slots;
+    }
+
+    /**
+     * Call a procedure, and any procedures that it is replaced by with tail calls
+     *
+     * @param procedure to call
+     * @param slots     of the procedure, with its inputs filled in
+     * @param caller    frame
+     * @return The frame of the last procedure to run
+     */
+    static Frame invoke(Procedure procedure, double[] slots, Frame caller) {
+        while (true) {
+            Frame frame = new Frame(caller.context, caller, procedure, slots);
+            if (procedure.body.run(frame) != TAIL) {
+                return frame;
+            }
+            if (!shadows(frame.tailProcedure, frame)) {
+                caller = frame; // the replacement can still see variables of the replaced procedure that it doesn't shadow
+            }
+            procedure = frame.tailProcedure;
+            slots = frame.tailSlots;
+        }
+    }
+
+    /**
+     * @param procedure replacing a frame with a tail call
+     * @param frame     being replaced
+     * @return <code>true</code> if every variable bound by the frame is an input of the procedure (a local of the
+     * procedure only hides it once declared)
+     */
+    private static boolean shadows(Procedure procedure, Frame frame) {
+        for (int s = 0; s < frame.slots.length; s++) {
+            if (frame.binds(s)) {
+                int input = procedure.slots.indexOf(frame.procedure.slots.get(s));
+                if (input < 0 || input >= procedure.inputs) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    Expression compileExpression(LogoParser.Node node) {
+        if (node instanceof LogoParser.Number) {
+            return new Constant(((LogoParser.Number) node).value);
+        }
+        if (node instanceof LogoParser.Variable) {
+            return compileVariable((LogoParser.Variable) node);
+        }
+        if (node instanceof LogoParser.Word) {
+            throw new Logo.LogoException(node.line, "\"" + ((LogoParser.Word) node).name + " can only be used as the name of a variable");
+        }
+        if (node instanceof LogoParser.Block) {
+            throw new Logo.LogoException(node.line, "A [list] can only be used as instructions or a color");
+        }
+        LogoParser.Call call = (LogoParser.Call) node;
+        Procedure procedure = procedures.get(call.name);
+        if (procedure != null) {
+            Expression[] inputs = compileInputs(call);
+            return frame -> {
+                Frame result = invoke(procedure, slots(procedure, inputs, frame), frame);
+                if (!result.outputted) {
+                    throw new Logo.LogoException(call.line, result.procedure.name + " didn't output to " + scopeName());
+                }
+                return result.output;
+            };
+        }
+        String name = CANONICAL.getOrDefault(call.name, call.name);
+        Expression[] inputs = compileInputs(call);
+        Expression expression = compileReporter(call, name, inputs);
+        if (isPure(name)) {
+            for (Expression input : inputs) {
+                if (!(input instanceof Constant)) {
+                    return expression;
+                }
+            }
+            return new Constant(expression.evaluate(null));
+        }
+        return expression;
+    }
+
+    private String scopeName() {
+        return scope == null ? "the program" : scope.name;
+    }
+
+    private Expression compileVariable(LogoParser.Variable variable) {
+        int slot = scope == null ? -1 : scope.slots.indexOf(variable.name);
+        if (slot >= 0 && !scope.locals.contains(variable.name)) {
+            return frame -> frame.slots[slot];
+        }
+        if (slot >= 0) {
+            return frame -> frame.binds(slot) ? frame.get(slot, variable) : lookup(frame.caller, variable);
+        }
+        return frame -> lookup(frame, variable);
+    }
+
+    /**
+     * @param frame    from which to look for the variable, and then its callers
+     * @param variable to be read (a global variable, if it is not bound by any of the frames)
+     * @return Value of the variable
+     */
+    private static double lookup(Frame frame, LogoParser.Variable variable) {
+        for (Frame f = frame; f.procedure != null; f = f.caller) {
+            int s = f.procedure.slots.indexOf(variable.name);
+            if (s >= 0 && f.binds(s)) {
+                return f.get(s, variable);
+            }
+        }
+        double[] global = frame.context.globals.get(variable.name);
+        if (global == null) {
+            throw new Logo.LogoException(variable.line, variable.name + " has no value");
+        }
+        return global[0];
+    }
+
+    private static double truth(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    private Expression compileReporter(LogoParser.Call call, String name, Expression[] inputs) {
+        Expression a = inputs.length > 0 ? inputs[0] : null, b = inputs.length > 1 ? inputs[1] : null;
+        switch (name) {
+            case "+":
+            case "sum":
+                return frame -> a.evaluate(frame) + b.evaluate(frame);
+            case "-":
+            case "difference":
+                return frame -> a.evaluate(frame) - b.evaluate(frame);
+            case "*":
+            case "product":
+                return frame -> a.evaluate(frame) * b.evaluate(frame);
+            case "/":
+            case "quotient":
+                return frame -> {
+                    double divisor = b.evaluate(frame);
+                    if (divisor == 0) {
+                        throw new Logo.LogoException(call.line, call.name + " doesn't like 0 as input");
+                    }
+                    return a.evaluate(frame) / divisor;
+                };
+            case "remainder":
+                return frame -> a.evaluate(frame) % b.evaluate(frame);
+            case "modulo":
+                return frame -> {
+                    double divisor = b.evaluate(frame), remainder = a.evaluate(frame) % divisor;
+                    return remainder != 0 && (remainder < 0) != (divisor < 0) ? remainder + divisor : remainder;
+                };
+            case "power":
+                return frame -> Math.pow(a.evaluate(frame), b.evaluate(frame));
+            case "negate":
+            case "minus":
+                return frame -> -a.evaluate(frame);
+            case "abs":
+                return frame -> Math.abs(a.evaluate(frame));
+            case "sqrt":
+                return frame -> Math.sqrt(a.evaluate(frame));
+            case "sin":
+                return frame -> Math.sin(Math.toRadians(a.evaluate(frame)));
+            case "cos":
+                return frame -> Math.cos(Math.toRadians(a.evaluate(frame)));
+            case "tan":
+                return frame -> Math.tan(Math.toRadians(a.evaluate(frame)));
+            case "arctan":
+                return frame -> Math.toDegrees(Math.atan(a.evaluate(frame)));
+            case "int":
+                return frame -> (double) (long) a.evaluate(frame);
+            case "round":
+                return frame -> (double) Math.round(a.evaluate(frame));
+            case "random":
+                return frame -> frame.context.random.nextInt(Math.max(1, (int) a.evaluate(frame)));
+            case "pi":
+                return frame -> Math.PI;
+            case "xcor":
+                return frame -> toLogoX(frame.context.turtle);
+            case "ycor":
+                return frame -> toLogoY(frame.context.turtle);
+            case "heading":
+                return frame -> toLogoHeading(settle(frame.context.turtle).getHeadingInDegrees());
+            case "repcount":
+                return frame -> frame.repcount;
+            case "pendownp":
+                return frame -> truth(settle(frame.context.turtle).isPenDown());
+            case "=":
+            case "equalp":
+                return frame -> truth(a.evaluate(frame) == b.evaluate(frame));
+            case "<>":
+                return frame -> truth(a.evaluate(frame) != b.evaluate(frame));
+            case "<":
+            case "lessp":
+                return frame -> truth(a.evaluate(frame) < b.evaluate(frame));
+            case ">":
+            case "greaterp":
+                return frame -> truth(a.evaluate(frame) > b.evaluate(frame));
+            case "<=":
+                return frame -> truth(a.evaluate(frame) <= b.evaluate(frame));
+            case ">=":
+                return frame -> truth(a.evaluate(frame) >= b.evaluate(frame));
+            case "and":
+                return frame -> truth(a.evaluate(frame) != 0 && b.evaluate(frame) != 0);
+            case "or":
+                return frame -> truth(a.evaluate(frame) != 0 || b.evaluate(frame) != 0);
+            case "not":
+                return frame -> truth(a.evaluate(frame) == 0);
+            case "true":
+                return frame -> 1;
+            case "false":
+                return frame -> 0;
+            default:
+                throw new Logo.LogoException(call.line, call.name + " is a command, not a value");
+        }
+    }
+
+    /*
+     * Logo puts the origin at the center of the terrarium, with y increasing up the screen, and measures headings
+     * clockwise from north; turtles put the origin at the top, left corner, with y increasing down the screen, and
+     * measure headings clockwise from east.
+     */
+
+    /**
+     * @param turtle to read
+     * @return The turtle, once it has finished moving (if it is animated)
+     */
+    private static Turtle settle(Turtle turtle) {
+        turtle.getX(); // waits for an animated turtle's instructions to be carried out
+        return turtle;
+    }
+
+    private static void home(Turtle turtle) {
+        turtle.home();
+        turtle.head(Turtle.NORTH);
+    }
+
+    private static double toTurtleX(Turtle turtle, double x) {
+        return turtle.getTerrarium().getWidth() / 2.0 + x;
+    }
+
+    private static double toTurtleY(Turtle turtle, double y) {
+        return turtle.getTerrarium().getHeight() / 2.0 - y;
+    }
+
+    private static double toTurtleHeading(double heading) {
+        return (heading + Turtle.NORTH) % 360;
+    }
+
+    private static double toLogoX(Turtle turtle) {
+        return turtle.getX() - turtle.getTerrarium().getWidth() / 2.0;
+    }
+
+    private static double toLogoY(Turtle turtle) {
+        return turtle.getTerrarium().getHeight() / 2.0 - settle(turtle).getY();
+    }
+
+    private static double toLogoHeading(double heading) {
+        return ((heading - Turtle.NORTH) % 360 + 360) % 360;
+    }
+}
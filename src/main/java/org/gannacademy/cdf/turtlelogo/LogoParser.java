@@ -0,0 +1,371 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Reads Logo source into a syntax tree (see {@link Logo})</p>
+ *
+ * <p>Logo has no punctuation between a procedure and its inputs, so the parser must know how many inputs each
+ * procedure takes: those of the primitives come from {@link LogoCompiler#getArity(String)}, and those of the
+ * procedures defined in the source are found by reading every <code>TO</code> line before anything else. Infix
+ * operators bind more tightly than procedure inputs, so <code>FD :size * 2</code> moves forward by twice the size.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class LogoParser {
+
+    /**
+     * A node of the syntax tree
+     */
+    abstract static class Node {
+        final int line;
+
+        Node(int line) {
+            this.line = line;
+        }
+    }
+
+    /**
+     * A number, e.g. <code>90</code>
+     */
+    static final class Number extends Node {
+        final double value;
+
+        Number(int line, double value) {
+            super(line);
+            this.value = value;
+        }
+    }
+
+    /**
+     * The value of a variable, e.g. <code>:size</code>
+     */
+    static final class Variable extends Node {
+        final String name;
+
+        Variable(int line, String name) {
+            super(line);
+            this.name = name;
+        }
+    }
+
+    /**
+     * A quoted word, e.g. <code>"size</code>
+     */
+    static final class Word extends Node {
+        final String name;
+
+        Word(int line, String name) {
+            super(line);
+            this.name = name;
+        }
+    }
+
+    /**
+     * A bracketed list, e.g. <code>[FD 1 RT 1]</code> (a list of instructions) or <code>[255 0 0]</code> (a list of
+     * numbers)
+     */
+    static final class Block extends Node {
+        final List<Node> nodes;
+
+        Block(int line, List<Node> nodes) {
+            super(line);
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * A call to a procedure (or an infix operator, by its symbol, or <code>"negate"</code> for a leading minus sign)
+     */
+    static final class Call extends Node {
+        final String name;
+        final Node[] inputs;
+
+        Call(int line, String name, Node... inputs) {
+            super(line);
+            this.name = name;
+            this.inputs = inputs;
+        }
+    }
+
+    /**
+     * A procedure defined with <code>TO</code>&hellip;<code>END</code>
+     */
+    static final class Definition {
+        final int line;
+        final String name;
+        final List<String> inputs;
+        final Block body;
+
+        Definition(int line, String name, List<String> inputs, Block body) {
+            this.line = line;
+            this.name = name;
+            this.inputs = inputs;
+            this.body = body;
+        }
+    }
+
+    private enum Kind {NUMBER, NAME, VARIABLE, WORD, OPEN_BRACKET, CLOSE_BRACKET, OPEN_PAREN, CLOSE_PAREN, OPERATOR, NEGATE, END}
+
+    private static final class Token {
+        final Kind kind;
+        final String text;
+        final int line;
+
+        Token(Kind kind, String text, int line) {
+            this.kind = kind;
+            this.text = text;
+            this.line = line;
+        }
+    }
+
+    private static final Set<String> COMPARISONS = Set.of("=", "<", ">", "<=", ">=", "<>");
+
+    private final List<Token> tokens = new ArrayList<>();
+    private final Map<String, Integer> arities = new HashMap<>();
+    private final List<Definition> definitions = new ArrayList<>();
+    private int next = 0;
+
+    /**
+     * @param source Logo source code
+     * @throws Logo.LogoException if the source cannot be read
+     */
+    LogoParser(String source) {
+        tokenize(source);
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            if (isName(tokens.get(i), "to") && tokens.get(i + 1).kind == Kind.NAME) {
+                int inputs = 0;
+                for (int j = i + 2; tokens.get(j).kind == Kind.VARIABLE && tokens.get(j).line == tokens.get(i).line; j++) {
+                    inputs++;
+                }
+                arities.put(tokens.get(i + 1).text, inputs);
+            }
+        }
+    }
+
+    private static boolean isDelimiter(char c) {
+        return Character.isWhitespace(c) || "[]()+-*/=<>;\"".indexOf(c) >= 0;
+    }
+
+    private void tokenize(String source) {
+        int line = 1;
+        for (int i = 0; i < source.length(); ) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (Character.isWhitespace(c) || c == '~') {
+                i++;
+            } else if (c == ';') {
+                while (i < source.length() && source.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '[' || c == ']' || c == '(' || c == ')') {
+                Kind kind = c == '[' ? Kind.OPEN_BRACKET : c == ']' ? Kind.CLOSE_BRACKET : c == '(' ? Kind.OPEN_PAREN : Kind.CLOSE_PAREN;
+                tokens.add(new Token(kind, String.valueOf(c), line));
+                i++;
+            } else if (c == '-' && i + 1 < source.length() && !Character.isWhitespace(source.charAt(i + 1))
+                && (i == 0 || Character.isWhitespace(source.charAt(i - 1)) || source.charAt(i - 1) == '[' || source.charAt(i - 1) == '(')) {
+                tokens.add(new Token(Kind.NEGATE, "-", line)); // a minus sign, as in FD -10 (but not :a - 10)
+                i++;
+            } else if ("+-*/=".indexOf(c) >= 0) {
+                tokens.add(new Token(Kind.OPERATOR, String.valueOf(c), line));
+                i++;
+            } else if (c == '<' || c == '>') {
+                String operator = String.valueOf(c);
+                if (i + 1 < source.length() && (source.charAt(i + 1) == '=' || (c == '<' && source.charAt(i + 1) == '>'))) {
+                    operator += source.charAt(++i);
+                }
+                tokens.add(new Token(Kind.OPERATOR, operator, line));
+                i++;
+            } else {
+                int start = c == ':' || c == '"' ? i + 1 : i;
+                int end = start;
+                while (end < source.length() && !isDelimiter(source.charAt(end))) {
+                    end++;
+                }
+                String text = source.substring(start, end).toLowerCase(Locale.ROOT);
+                if (c == ':' || c == '"') {
+                    if (text.isEmpty()) {
+                        throw new Logo.LogoException(line, "Expected a name after " + c);
+                    }
+                    tokens.add(new Token(c == ':' ? Kind.VARIABLE : Kind.WORD, text, line));
+                } else if (Character.isDigit(c) || (c == '.' && end > i + 1 && Character.isDigit(source.charAt(i + 1)))) {
+                    try {
+                        Double.parseDouble(text);
+                    } catch (NumberFormatException e) {
+                        throw new Logo.LogoException(line, "Not a number: " + text);
+                    }
+                    tokens.add(new Token(Kind.NUMBER, text, line));
+                } else {
+                    tokens.add(new Token(Kind.NAME, text, line));
+                }
+                i = end;
+            }
+        }
+        tokens.add(new Token(Kind.END, "end of the program", line));
+    }
+
+    private static boolean isName(Token token, String name) {
+        return token.kind == Kind.NAME && token.text.equals(name);
+    }
+
+    private Token peek() {
+        return tokens.get(next);
+    }
+
+    private Token take() {
+        Token token = tokens.get(next);
+        if (token.kind != Kind.END) {
+            next++;
+        }
+        return token;
+    }
+
+    private Token expect(Kind kind, String description) {
+        Token token = take();
+        if (token.kind != kind) {
+            throw new Logo.LogoException(token.line, "Expected " + description + " but found " + token.text);
+        }
+        return token;
+    }
+
+    /**
+     * @return The instructions of the program, outside of any procedure definitions (see {@link #getDefinitions()})
+     */
+    Block parse() {
+        int line = peek().line;
+        List<Node> instructions = new ArrayList<>();
+        while (peek().kind != Kind.END) {
+            if (isName(peek(), "to")) {
+                definitions.add(parseDefinition());
+            } else {
+                instructions.add(parseExpression());
+            }
+        }
+        return new Block(line, instructions);
+    }
+
+    /**
+     * @return The procedures defined by the program (once it has been {@link #parse()}d)
+     */
+    List<Definition> getDefinitions() {
+        return definitions;
+    }
+
+    /**
+     * @param name of a procedure defined by the program
+     * @return Number of inputs the procedure takes, or <code>-1</code> if the program does not define it
+     */
+    int getArity(String name) {
+        return arities.getOrDefault(name, -1);
+    }
+
+    private Definition parseDefinition() {
+        Token to = take();
+        Token name = expect(Kind.NAME, "the name of the procedure");
+        if (LogoCompiler.getArity(name.text) >= 0) {
+            throw new Logo.LogoException(name.line, name.text + " is already a primitive");
+        }
+        List<String> inputs = new ArrayList<>();
+        while (peek().kind == Kind.VARIABLE && peek().line == to.line) {
+            inputs.add(take().text);
+        }
+        List<Node> body = new ArrayList<>();
+        while (!isName(peek(), "end")) {
+            if (peek().kind == Kind.END) {
+                throw new Logo.LogoException(to.line, "TO " + name.text + " without END");
+            }
+            if (isName(peek(), "to")) {
+                throw new Logo.LogoException(peek().line, "TO inside of TO " + name.text);
+            }
+            body.add(parseExpression());
+        }
+        take();
+        return new Definition(to.line, name.text, inputs, new Block(to.line, body));
+    }
+
+    private Node parseExpression() {
+        Node left = parseSum();
+        while (peek().kind == Kind.OPERATOR && COMPARISONS.contains(peek().text)) {
+            Token operator = take();
+            left = new Call(operator.line, operator.text, left, parseSum());
+        }
+        return left;
+    }
+
+    private Node parseSum() {
+        Node left = parseProduct();
+        while (peek().kind == Kind.OPERATOR && (peek().text.equals("+") || peek().text.equals("-"))) {
+            Token operator = take();
+            left = new Call(operator.line, operator.text, left, parseProduct());
+        }
+        return left;
+    }
+
+    private Node parseProduct() {
+        Node left = parseUnary();
+        while (peek().kind == Kind.OPERATOR && (peek().text.equals("*") || peek().text.equals("/"))) {
+            Token operator = take();
+            left = new Call(operator.line, operator.text, left, parseUnary());
+        }
+        return left;
+    }
+
+    private Node parseUnary() {
+        if (peek().kind == Kind.NEGATE) {
+            Token negate = take();
+            return new Call(negate.line, "negate", parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private Node parsePrimary() {
+        Token token = take();
+        switch (token.kind) {
+            case NUMBER:
+                return new Number(token.line, Double.parseDouble(token.text));
+            case VARIABLE:
+                return new Variable(token.line, token.text);
+            case WORD:
+                return new Word(token.line, token.text);
+            case OPEN_BRACKET:
+                List<Node> nodes = new ArrayList<>();
+                while (peek().kind != Kind.CLOSE_BRACKET) {
+                    if (peek().kind == Kind.END) {
+                        throw new Logo.LogoException(token.line, "[ without ]");
+                    }
+                    nodes.add(parseExpression());
+                }
+                take();
+                return new Block(token.line, nodes);
+            case OPEN_PAREN:
+                Node inner = parseExpression();
+                expect(Kind.CLOSE_PAREN, ")");
+                return inner;
+            case NAME:
+                int arity = LogoCompiler.getArity(token.text);
+                if (arity < 0) {
+                    arity = getArity(token.text);
+                }
+                if (arity < 0) {
+                    throw new Logo.LogoException(token.line, "I don't know how to " + token.text);
+                }
+                Node[] inputs = new Node[arity];
+                for (int i = 0; i < arity; i++) {
+                    if (peek().kind == Kind.END || peek().kind == Kind.CLOSE_BRACKET || peek().kind == Kind.CLOSE_PAREN) {
+                        throw new Logo.LogoException(token.line, "Not enough inputs to " + token.text);
+                    }
+                    inputs[i] = parseExpression();
+                }
+                return new Call(token.line, token.text, inputs);
+            default:
+                throw new Logo.LogoException(token.line, "Unexpected " + token.text);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Tracks kept outside of the heap, in memory-mapped files (see {@link TrackStore#memoryMapped(File)})</p>
+ *
+ * <p>Each point along a track is a fixed-size record of {@link #RECORD_BYTES} bytes, in native byte order:</p>
+ *
+ * <pre>
+ * offset  0: double x
+ * offset  8: double y
+ * offset 16: int    pen   (index into the pen table, which is kept on the heap)
+ * offset 20: int    flags ({@link #START} on the first point of each track)
+ * </pre>
+ *
+ * <p>Records are appended to regions of {@link #REGION_RECORDS} records, each of which is a file of its own in the
+ * store's directory, mapped in its entirety when it is created. Flattening the oldest tracks deletes regions that
+ * no longer hold any tracks. Every region file has a name of its own, so that a file that the platform refuses to
+ * delete while it is still mapped (it is tried again later) never stands in the way of a new region.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class MappedTrackStore extends TrackStore {
+
+    static final int RECORD_BYTES = 24;
+
+    /**
+     * Flag marking the first point of a track
+     */
+    static final int START = 1;
+
+    private static final int REGION_SHIFT = 20;
+
+    /**
+     * 2<sup>20</sup> records (24MiB) per region
+     */
+    static final int REGION_RECORDS = 1 << REGION_SHIFT;
+
+    private static final long REGION_MASK = REGION_RECORDS - 1;
+
+    private final Path directory;
+    private final List<MappedByteBuffer> regions = new ArrayList<>(); // null once a region has been deleted
+    private final List<Path> paths = new ArrayList<>(); // of the regions' files
+    private final List<Path> undeleted = new ArrayList<>(); // files of deleted regions that could not yet be deleted
+    private int files = 0; // region files created, to name the next one
+    private final Pens pens = new Pens();
+    private long first, end; // records [first, end) hold the stored tracks
+    private long tracks, removed;
+    private boolean closed;
+
+    /**
+     * @param parent directory in which to create the store's own directory, or <code>null</code> for the system
+     *               temporary directory
+     * @throws IOException if the directory cannot be created
+     */
+    MappedTrackStore(File parent) throws IOException {
+        if (parent == null) {
+            directory = Files.createTempDirectory("turtle-logo-tracks");
+        } else {
+            directory = Files.createTempDirectory(Files.createDirectories(parent.toPath()), "turtle-logo-tracks");
+        }
+        directory.toFile().deleteOnExit();
+    }
+
+    private MappedByteBuffer region(long record) {
+        return regions.get((int) (record >>> REGION_SHIFT));
+    }
+
+    private static int offset(long record) {
+        return (int) (record & REGION_MASK) * RECORD_BYTES;
+    }
+
+    private void append(double x, double y, int pen, int flags) {
+        if ((end & REGION_MASK) == 0) {
+            Path path = directory.resolve(String.format("tracks-%08d.bin", files++));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) REGION_RECORDS * RECORD_BYTES);
+                buffer.order(ByteOrder.nativeOrder());
+                regions.add(buffer);
+                paths.add(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map more track storage in " + directory, e);
+            }
+        }
+        MappedByteBuffer region = region(end);
+        int offset = offset(end);
+        region.putDouble(offset, x);
+        region.putDouble(offset + 8, y);
+        region.putInt(offset + 16, pen);
+        region.putInt(offset + 20, flags);
+        end++;
+    }
+
+    @Override
+    void add(Track track) {
+        if (closed) {
+            throw new IllegalStateException("This track store has been closed");
+        }
+        int pen = pens.indexOf(track.getColor(), track.getStroke());
+        for (int i = 0; i < track.getVertexCount(); i++) {
+            append(track.getX(i), track.getY(i), pen, i == 0 ? START : 0);
+        }
+        tracks++;
+    }
+
+    @Override
+    Cursor cursor() {
+        return new MappedCursor();
+    }
+
+    @Override
+    void removeVisited(Cursor cursor) {
+        MappedCursor visited = (MappedCursor) cursor;
+        first = visited.record;
+        tracks -= visited.visited;
+        removed += visited.visited;
+        int lastDeleted = (int) (first >>> REGION_SHIFT) - 1;
+        for (int region = lastDeleted; region >= 0 && regions.get(region) != null; region--) {
+            deleteRegion(region);
+        }
+    }
+
+    private void deleteRegion(int region) {
+        undeleted.removeIf(MappedTrackStore::delete); // unmapped since, perhaps
+        Path path = paths.get(region);
+        regions.set(region, null);
+        paths.set(region, null);
+        if (path != null && !delete(path)) {
+            undeleted.add(path); // some platforms refuse to delete a file while it is mapped
+        }
+    }
+
+    /**
+     * @param path of a file
+     * @return <code>true</code> if the file has been deleted (or was already gone)
+     */
+    private static boolean delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    Mark mark() {
+        return new Mark(end, removed + tracks);
+    }
+
+    @Override
+    void truncate(Mark mark) {
+        end = mark.position;
+        tracks = mark.added - removed;
+        for (long used = (end + REGION_MASK) >>> REGION_SHIFT; regions.size() > used; ) {
+            deleteRegion(regions.size() - 1);
+            regions.remove(regions.size() - 1);
+            paths.remove(paths.size() - 1);
+        }
+    }
+
+    @Override
+    void clear() {
+        for (int region = 0; region < regions.size(); region++) {
+            if (regions.get(region) != null) {
+                deleteRegion(region);
+            }
+        }
+        regions.clear();
+        paths.clear();
+        pens.clear();
+        first = 0;
+        end = 0;
+        tracks = 0;
+        removed = 0;
+    }
+
+    @Override
+    void close() {
+        clear();
+        closed = true;
+        undeleted.removeIf(MappedTrackStore::delete);
+        for (Path path : undeleted) {
+            path.toFile().deleteOnExit(); // (before the directory, which was registered first)
+        }
+        undeleted.clear();
+        try {
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public long size() {
+        return tracks;
+    }
+
+    /**
+     * @return The pen table, and one buffer object per region
+     */
+    @Override
+    public long getEstimatedBytes() {
+        return 64L * (regions.size() + pens.size());
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return (end - first) * RECORD_BYTES;
+    }
+
+    private class MappedCursor extends DecodingCursor {
+        private long record = first;
+        private long visited = 0;
+
+        MappedCursor() {
+            super(pens);
+        }
+
+        @Override
+        boolean next() {
+            if (record >= end) {
+                return false;
+            }
+            pen = region(record).getInt(offset(record) + 16);
+            vertices = 0;
+            do {
+                MappedByteBuffer region = region(record);
+                int offset = offset(record);
+                append(region.getDouble(offset), region.getDouble(offset + 8));
+                record++;
+            } while (record < end && (region(record).getInt(offset(record) + 20) & START) == 0);
+            visited++;
+            return true;
+        }
+    }
+}
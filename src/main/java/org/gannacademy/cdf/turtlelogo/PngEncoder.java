@@ -0,0 +1,440 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Save images as PNG files, compressing them on many threads at once</p>
+ *
+ * <p>The image is filtered and compressed in blocks of rows, each on its own thread, in the manner of
+ * <a href="https://zlib.net/pigz/">pigz</a>: every block is compressed as a separate run of the deflate stream,
+ * primed with the last 32KB of the block before it (so very little compression is lost), and ended on a byte
+ * boundary, so that the compressed blocks can simply be written one after another. Each row is filtered with
+ * whichever of the five PNG filters leaves the fewest runs of repeated bytes, all of which are counted in a single
+ * pass over the row.</p>
+ *
+ * <p>Images with no transparency are saved as 8-bit RGB, others as 8-bit RGBA. Either way, the file decodes to
+ * exactly the pixels of the image.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class PngEncoder {
+
+    /**
+     * 6 (the same as zlib and pigz)
+     */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+    /**
+     * Uncompressed bytes in each block compressed on its own thread (as in pigz)
+     */
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * Space left at the start of every compressed block, for the zlib header (should it be the first block)
+     */
+    private static final int HEADROOM = 2;
+
+    /**
+     * Scratch buffers kept for reuse, so that encoding one image after another allocates little
+     */
+    private static final int POOL_SIZE = 4 * Runtime.getRuntime().availableProcessors();
+    private static final Queue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private static final int NONE = 0, SUB = 1, UP = 2, AVERAGE = 3, PAETH = 4;
+
+    private final int level;
+
+    /**
+     * Construct an encoder with {@link #DEFAULT_COMPRESSION_LEVEL}
+     */
+    public PngEncoder() {
+        this(DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * @param level of compression, from 0 (none, fastest) to 9 (smallest, slowest)
+     */
+    public PngEncoder(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be from 0 to 9");
+        }
+        this.level = level;
+    }
+
+    /**
+     * @return Level of compression
+     */
+    public int getCompressionLevel() {
+        return level;
+    }
+
+    /**
+     * Save an image as a PNG file
+     *
+     * @param image to save
+     * @param path  of the file (replaced, if it exists)
+     * @throws IOException if the file could not be written
+     */
+    public void write(BufferedImage image, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(image, channel);
+        }
+    }
+
+    /**
+     * Write an image in PNG format
+     *
+     * @param image   to write
+     * @param channel to which to write it (left open)
+     * @throws IOException if the image could not be written
+     */
+    public void write(BufferedImage image, WritableByteChannel channel) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels = pixels(image);
+        boolean alpha = hasAlpha(pixels);
+        int channels = alpha ? 4 : 3;
+        int stride = width * channels + 1; // each row is preceded by the number of its filter
+        int rowsPerBlock = Math.max(1, BLOCK_SIZE / stride);
+
+        List<CompletableFuture<Block>> blocks = new ArrayList<>();
+        for (int first = 0; first < height; first += rowsPerBlock) {
+            int start = first, end = Math.min(height, first + rowsPerBlock);
+            blocks.add(CompletableFuture.supplyAsync(() -> compress(pixels, width, alpha, start, end, end == height)));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height).put((byte) 8).put((byte) (alpha ? 6 : 2)).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeFully(channel, ByteBuffer.wrap(SIGNATURE));
+        writeChunk(channel, "IHDR", header.array(), 0, header.position());
+
+        long adler = 1;
+        try {
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i).join();
+                adler = combine(adler, block.adler, block.length);
+                byte[] data = block.data;
+                int offset = HEADROOM, end = block.end;
+                if (i == 0) {
+                    offset = 0;
+                    data[0] = 0x78; // zlib header: deflate, 32KB window
+                    data[1] = (byte) 0x9C;
+                }
+                if (i == blocks.size() - 1) {
+                    ByteBuffer.wrap(data, end, 4).putInt((int) adler);
+                    end += 4;
+                }
+                writeChunk(channel, "IDAT", data, offset, end - offset);
+                giveBack(data);
+            }
+        } catch (CompletionException e) {
+            throw new IOException("Could not compress image", e.getCause());
+        }
+        writeChunk(channel, "IEND", new byte[0], 0, 0);
+    }
+
+    /**
+     * Borrow a scratch buffer from the pool (or allocate one, if there is none large enough)
+     *
+     * @param size in bytes
+     * @return A buffer at least <code>size</code> bytes long, to be {@link #giveBack(byte[])}n when done with
+     */
+    private static byte[] borrow(int size) {
+        byte[] buffer = pool.poll();
+        if (buffer == null) {
+            return new byte[size];
+        }
+        pooled.decrementAndGet();
+        return buffer.length >= size ? buffer : new byte[Math.max(size, buffer.length * 2)];
+    }
+
+    private static void giveBack(byte[] buffer) {
+        if (pooled.incrementAndGet() <= POOL_SIZE) {
+            pool.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The image's pixels, as packed ARGB
+     */
+    private static int[] pixels(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB || image.getType() == BufferedImage.TYPE_INT_RGB) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            if (data.length == image.getWidth() * image.getHeight()) {
+                if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                    return data;
+                }
+                int[] opaque = new int[data.length];
+                for (int i = 0; i < data.length; i++) {
+                    opaque[i] = data[i] | 0xFF000000;
+                }
+                return opaque;
+            }
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static boolean hasAlpha(int[] pixels) {
+        for (int pixel : pixels) {
+            if (pixel >>> 24 != 0xFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A compressed block of rows
+     */
+    private static class Block {
+        final byte[] data; // compressed from {@link #HEADROOM} to end, with room for the checksum after
+        final int end;
+        final long adler;
+        final int length;
+
+        Block(byte[] data, int end, long adler, int length) {
+            this.data = data;
+            this.end = end;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Filter and compress rows <code>[start, end)</code>
+     */
+    private Block compress(int[] pixels, int width, boolean alpha, int start, int end, boolean last) {
+        int stride = width * (alpha ? 4 : 3) + 1;
+        byte[] filtered = borrow((end - start) * stride);
+        int length = filter(pixels, width, alpha, start, end, filtered);
+        Adler32 checksum = new Adler32();
+        checksum.update(filtered, 0, length);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (start > 0) {
+                // the rows just before this block, filtered again as they were in the previous block, so that this
+                // block is compressed as it would have been, had the image been compressed in one piece
+                int first = Math.max(0, start - (DICTIONARY_SIZE + stride - 1) / stride);
+                byte[] dictionary = borrow((start - first) * stride);
+                int size = filter(pixels, width, alpha, first, start, dictionary);
+                deflater.setDictionary(dictionary, Math.max(0, size - DICTIONARY_SIZE), Math.min(size, DICTIONARY_SIZE));
+                giveBack(dictionary);
+            }
+            deflater.setInput(filtered, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] output = borrow(length / 2 + 64);
+            int position = HEADROOM;
+            while (true) {
+                if (position + 4 >= output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int space = output.length - position - 4; // leaving room for the checksum
+                int count = deflater.deflate(output, position, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                position += count;
+                if (last ? deflater.finished() : count < space) {
+                    break;
+                }
+            }
+            return new Block(output, position, checksum.getValue(), length);
+        } finally {
+            deflater.end();
+            giveBack(filtered);
+        }
+    }
+
+    /**
+     * Filter rows <code>[start, end)</code> of the image, each preceded by the number of its filter
+     *
+     * @return Number of bytes written to <code>filtered</code>
+     */
+    private static int filter(int[] pixels, int width, boolean alpha, int start, int end, byte[] filtered) {
+        int channels = alpha ? 4 : 3;
+        int rowBytes = width * channels, stride = rowBytes + 1;
+        byte[] previous = new byte[rowBytes], current = new byte[rowBytes];
+        if (start > 0) {
+            unpack(pixels, width, alpha, start - 1, previous);
+        }
+        for (int y = start; y < end; y++) {
+            unpack(pixels, width, alpha, y, current);
+            int offset = (y - start) * stride;
+            int filter = chooseFilter(current, previous, channels);
+            filtered[offset] = (byte) filter;
+            filter(filter, current, previous, channels, filtered, offset + 1);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return (end - start) * stride;
+    }
+
+    private static void unpack(int[] pixels, int width, boolean alpha, int y, byte[] row) {
+        int i = 0;
+        for (int x = 0, p = y * width; x < width; x++, p++) {
+            int pixel = pixels[p];
+            row[i++] = (byte) (pixel >> 16);
+            row[i++] = (byte) (pixel >> 8);
+            row[i++] = (byte) pixel;
+            if (alpha) {
+                row[i++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Pick the filter whose output changes from one byte to the next least often, measuring all five at once. Deflate
+     * compresses long runs of a repeated byte best, and drawings on a plain background are mostly such runs when left
+     * unfiltered, which the usual heuristic (the smallest sum of differences) misses, since it favors runs of zeros.
+     */
+    private static int chooseFilter(byte[] row, byte[] previous, int bpp) {
+        int none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+        int lastNone = -1, lastSub = -1, lastUp = -1, lastAverage = -1, lastPaeth = -1;
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF, b = previous[i] & 0xFF;
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0, c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+            int s = (x - a) & 0xFF, u = (x - b) & 0xFF, v = (x - ((a + b) >> 1)) & 0xFF, p = (x - paeth(a, b, c)) & 0xFF;
+            if (x != lastNone) {
+                none++;
+            }
+            if (s != lastSub) {
+                sub++;
+            }
+            if (u != lastUp) {
+                up++;
+            }
+            if (v != lastAverage) {
+                average++;
+            }
+            if (p != lastPaeth) {
+                paeth++;
+            }
+            lastNone = x;
+            lastSub = s;
+            lastUp = u;
+            lastAverage = v;
+            lastPaeth = p;
+        }
+        int best = NONE, fewest = none;
+        if (sub < fewest) {
+            best = SUB;
+            fewest = sub;
+        }
+        if (up < fewest) {
+            best = UP;
+            fewest = up;
+        }
+        if (average < fewest) {
+            best = AVERAGE;
+            fewest = average;
+        }
+        if (paeth < fewest) {
+            best = PAETH;
+        }
+        return best;
+    }
+
+    private static void filter(int filter, byte[] row, byte[] previous, int bpp, byte[] out, int offset) {
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF, b = previous[i] & 0xFF;
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0, c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+            switch (filter) {
+                case SUB:
+                    x -= a;
+                    break;
+                case UP:
+                    x -= b;
+                    break;
+                case AVERAGE:
+                    x -= (a + b) >> 1;
+                    break;
+                case PAETH:
+                    x -= paeth(a, b, c);
+                    break;
+                default:
+            }
+            out[offset + i] = (byte) x;
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c, pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+    }
+
+    /**
+     * Combine the Adler-32 checksums of two runs of bytes into the checksum of both, one after the other (as zlib's
+     * <code>adler32_combine()</code>)
+     *
+     * @param first  checksum of the first run
+     * @param second checksum of the second run
+     * @param length of the second run
+     * @return Checksum of both runs
+     */
+    static long combine(long first, long second, long length) {
+        final long base = 65521;
+        long remainder = length % base;
+        long sum1 = first & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (second & 0xFFFF) + base - 1;
+        sum2 += ((first >> 16) & 0xFFFF) + ((second >> 16) & 0xFFFF) + base - remainder;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= base << 1) {
+            sum2 -= base << 1;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(WritableByteChannel channel, String type, byte[] data, int offset, int length) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(length).put(type.getBytes(StandardCharsets.US_ASCII)).flip();
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 4, 4);
+        crc.update(data, offset, length);
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        trailer.putInt((int) crc.getValue()).flip();
+        writeFully(channel, header);
+        writeFully(channel, ByteBuffer.wrap(data, offset, length));
+        writeFully(channel, trailer);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,19 +1,40 @@
 package org.gannacademy.cdf.turtlelogo;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>A {@link Turtle} lives (and draws) inside a <code>Terrarium</code>.</p>
@@ -31,7 +52,8 @@ import java.util.concurrent.Semaphore;
  * method. From a technical standpoint, the initial terrarium is a quasi-singleton, and will continue to be treated as
  * a singleton by any new turtles as they are instantiated. The singleton terrarium instance can be accessed statically
  * via the {@link #getInstance()} method. When additional terraria have been instantiated, they may also be accessed
- * statically via their index (in instantiation order) using the {@link #getInstance(int)} method.</p>
+ * statically via their index (in instantiation order) using the {@link #getInstance(int)} method. Terraria that are no
+ * longer needed can be {@link #dispose()}d.</p>
  *
  * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
  */
@@ -66,132 +88,1656 @@ public class Terrarium extends JPanel implements KeyListener {
      */
     public static final Color DEFAULT_BACKGROUND = Color.WHITE;
 
-    private static List<Terrarium> terraria;
+    /**
+     * 0 pixels (every track is stroked individually)
+     */
+    public static final double DEFAULT_LEVEL_OF_DETAIL = 0;
+
+    /**
+     * No budget: tracks are kept until the terrarium is {@link #clear()}ed
+     */
+    public static final int UNLIMITED_TRACKS = 0;
+
+    /**
+     * 1/1024 (see {@link #zoom(double, double, double)})
+     */
+    public static final double MIN_ZOOM = 1.0 / 1024;
+
+    /**
+     * 64 (see {@link #zoom(double, double, double)})
+     */
+    public static final double MAX_ZOOM = 64;
+
+    /**
+     * 65,536 changes: how far a {@link ChangeListener} may fall behind before it misses changes
+     */
+    public static final int CHANGE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * No append buffers: each track is added to the shared tracks as it is made (see
+     * {@link #setAppendBufferSize(int)})
+     */
+    public static final int UNBUFFERED = 0;
+
+    /**
+     * Longest that a track waits in an append buffer before it is published, in milliseconds, if nothing else
+     * publishes it first (see {@link #setAppendBufferSize(int)})
+     */
+    public static final int APPEND_PUBLISH_DELAY = 50;
+
+    /**
+     * Fewest tracks worth painting from a {@link ZoomCache} when zoomed out, rather than stroking them all
+     */
+    private static final int ZOOM_CACHE_THRESHOLD = 10000;
+
+    /**
+     * Zoom for each click of the mouse wheel (see {@link #setNavigable(boolean)})
+     */
+    private static final double WHEEL_ZOOM = 1.1;
+
+    /**
+     * System property that, when <code>true</code>, turns on {@link #setFastStartup(boolean)} before the first
+     * terrarium is created
+     */
+    public static final String FAST_STARTUP_PROPERTY = "org.gannacademy.cdf.turtlelogo.fastStartup";
+
+    /**
+     * Notified when the oldest tracks of a terrarium are flattened into its raster layer (see
+     * {@link #setTrackBudget(int)})
+     *
+     * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+     */
+    public interface FlattenListener {
+        /**
+         * Called on the drawing thread that exceeded the budget, while the terrarium is locked: keep it short!
+         *
+         * @param terrarium that was flattened
+         * @param tracks    number of tracks (segments) that were flattened
+         */
+        void flattened(Terrarium terrarium, long tracks);
+    }
+
+    /**
+     * <p>Told of the changes made to a terrarium, in batches, on a thread of its own (see
+     * {@link #addChangeListener(ChangeListener, TerrariumChanges.WaitStrategy)})</p>
+     *
+     * <p>Changes are numbered in the order in which they were made, from zero when the terrarium is first listened
+     * to. Only the shared tracks are reported: tracks added to {@link TrackLayer}s, and the turtles of
+     * {@link TurtleSwarm}s, are not.</p>
+     *
+     * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+     */
+    public interface ChangeListener {
+        /**
+         * @param terrarium that changed
+         * @param change    number of the first of the tracks (the rest are numbered consecutively)
+         * @param tracks    added, in order (the list is only valid until this method returns)
+         */
+        void tracksAdded(Terrarium terrarium, long change, List<Track> tracks);
+
+        /**
+         * @param terrarium that was cleared (see {@link #clear()})
+         * @param change    number
+         */
+        default void cleared(Terrarium terrarium, long change) {
+        }
+
+        /**
+         * @param terrarium that was rewound to a checkpoint (see {@link #rewind(int)}): re-read its tracks
+         * @param change    number
+         */
+        default void rewound(Terrarium terrarium, long change) {
+        }
+
+        /**
+         * @param terrarium to which the turtle was added
+         * @param change    number
+         * @param turtle    added
+         */
+        default void turtleAdded(Terrarium terrarium, long change, Turtle turtle) {
+        }
+
+        /**
+         * @param terrarium from which the turtle was removed
+         * @param change    number
+         * @param turtle    removed
+         */
+        default void turtleRemoved(Terrarium terrarium, long change, Turtle turtle) {
+        }
+
+        /**
+         * The listener fell so far behind that changes it had not yet been told of were overwritten: re-read the
+         * terrarium
+         *
+         * @param terrarium that changed
+         * @param first     number of the first change missed
+         * @param last      number of the last change missed
+         */
+        default void missed(Terrarium terrarium, long first, long last) {
+        }
+    }
+
+    /**
+     * The state of a terrarium, to which it can be rewound (see {@link #checkpoint()})
+     */
+    private static class Checkpoint {
+        /**
+         * 64 &times; 64 pixels
+         */
+        private static final int TILE = 64;
+
+        private final long segments; // added since the terrarium was cleared, including those since flattened
+        private final List<Runnable> turtles;
+        private TrackStore.Mark mark;
+        private Map<Long, int[]> tiles; // of the raster layer as it was at the checkpoint, once they are drawn over
+
+        Checkpoint(long segments, TrackStore.Mark mark, List<Runnable> turtles) {
+            this.segments = segments;
+            this.mark = mark;
+            this.turtles = turtles;
+        }
+
+        /**
+         * Remember the tiles of the raster layer that are about to be drawn on, unless they have been already
+         *
+         * @param raster layer
+         * @param bounds about to be drawn on, or <code>null</code> for the whole layer
+         */
+        void preserve(BufferedImage raster, Rectangle bounds) {
+            if (tiles == null) {
+                tiles = new HashMap<>();
+            }
+            Rectangle area = new Rectangle(raster.getWidth(), raster.getHeight());
+            if (bounds != null) {
+                area = area.intersection(bounds);
+            }
+            if (area.isEmpty()) {
+                return;
+            }
+            for (int row = area.y / TILE; row <= (area.y + area.height - 1) / TILE; row++) {
+                for (int column = area.x / TILE; column <= (area.x + area.width - 1) / TILE; column++) {
+                    int x = column * TILE, y = row * TILE;
+                    tiles.computeIfAbsent(((long) row << 32) | column, tile -> (int[]) raster.getRaster().getDataElements(
+                        x, y, Math.min(TILE, raster.getWidth() - x), Math.min(TILE, raster.getHeight() - y), null
+                    ));
+                }
+            }
+        }
+
+        /**
+         * Put back the tiles of the raster layer that have been drawn on since the checkpoint
+         *
+         * @param raster layer
+         */
+        void restore(BufferedImage raster) {
+            if (tiles != null) {
+                for (Map.Entry<Long, int[]> tile : tiles.entrySet()) {
+                    int x = (int) (long) tile.getKey() * TILE, y = (int) (tile.getKey() >>> 32) * TILE;
+                    raster.getRaster().setDataElements(
+                        x, y, Math.min(TILE, raster.getWidth() - x), Math.min(TILE, raster.getHeight() - y), tile.getValue()
+                    );
+                }
+                tiles = null;
+            }
+        }
+    }
+
+    private static final List<Terrarium> terraria = new CopyOnWriteArrayList<>();
+    private static final AtomicReference<Terrarium> defaultInstance = new AtomicReference<>();
+    private static final Object creatingDefaultInstance = new Object();
+    private static final InheritableThreadLocal<List<Terrarium>> scope = new InheritableThreadLocal<>();
+    private List<Terrarium> scoped; // the scope in which the terrarium was instantiated (if any)
+    private static volatile boolean fastStartup = Boolean.getBoolean(FAST_STARTUP_PROPERTY);
+    private static final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Terrarium appends");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Turtle> turtles;
+    private final List<TurtleSwarm> swarms;
+    private final List<TrackLayer> layers;
+    private volatile TrackStore tracks;
+    private final List<FlattenListener> flattenListeners;
+    private volatile ChangeRing changes;
+    private volatile int appendBufferSize = UNBUFFERED;
+    private final List<AppendBuffer> appendBuffers = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+    private BufferedImage flattened;
+    private long flattenedTrackCount;
+    private volatile long trackCount;
+    private volatile TrackIndex index;
+    private final TrackOwners owners = new TrackOwners(); // of the shared tracks, for the index
+    private long trackEdits; // other than adding tracks: clearing, rewinding, flattening or moving them
+    private volatile AffineTransform view; // world to window, or null if the terrarium is not zoomed or panned
+    private final ZoomCache zoomCache = new ZoomCache();
+    private Navigator navigator;
+    private volatile int trackBudget = UNLIMITED_TRACKS;
+    private final TreeMap<Integer, Checkpoint> checkpoints;
+    private int nextCheckpoint = 0;
+
+    private final TerrariumMetrics metrics;
+    private final TerrariumMetrics.Registration metricsRegistration;
+    private volatile boolean disposed = false;
+    private volatile double levelOfDetail = DEFAULT_LEVEL_OF_DETAIL;
+    private volatile boolean levelOfDetailExported = false;
+    private volatile int pngCompressionLevel = PngEncoder.DEFAULT_COMPRESSION_LEVEL;
+    private volatile RenderingProfile paintProfile = RenderingProfile.BALANCED;
+    private volatile RenderingProfile exportProfile = RenderingProfile.BALANCED;
+    private final TerrariumExporter exporter = new TerrariumExporter(this);
+    private volatile AnimationCapture capture;
+    private volatile AnimationClock clock = AnimationClock.SYSTEM;
+
+    private volatile JFrame frame;
+    private volatile Point pendingPosition;
+    public Semaphore ready;
+
+    private static final int CONTROL_KEY_MASK = GraphicsEnvironment.isHeadless() ? 0 : Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+
+    /**
+     * <p>Construct a new terrarium of default dimensions, centered on the screen in its own window</p>
+     *
+     * <p>When running headless (<code>-Djava.awt.headless=true</code>), no window is created: the terrarium is sized
+     * immediately and can still be drawn to files.</p>
+     *
+     * <p>With {@link #setFastStartup(boolean)} turned on, the terrarium is sized (and ready for turtles) immediately,
+     * and its window is opened in the background.</p>
+     */
+    public Terrarium() {
+        super();
+        turtles = new Vector<>();
+        swarms = new CopyOnWriteArrayList<>();
+        layers = new CopyOnWriteArrayList<>();
+        tracks = TrackStore.onHeap();
+        flattenListeners = new CopyOnWriteArrayList<>();
+        checkpoints = new TreeMap<>();
+        metrics = new TerrariumMetrics(this);
+        metricsRegistration = metrics.register(fastStartup);
+        ready = new Semaphore(0);
+        addInstance(this);
+        if (GraphicsEnvironment.isHeadless() || fastStartup) {
+            setPreferredSize(new Dimension(DEFAULT_WIDTH, DEFAULT_HEIGHT));
+            super.setSize(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+            setBackground(DEFAULT_BACKGROUND);
+            ready.release();
+            if (fastStartup) {
+                Turtle.prefetchIcon();
+            }
+            if (GraphicsEnvironment.isHeadless()) {
+                return;
+            }
+        }
+        Terrarium self = this;
+        SwingUtilities.invokeLater(() -> {
+            setPreferredSize(new Dimension(DEFAULT_WIDTH, DEFAULT_HEIGHT));
+            setBackground(DEFAULT_BACKGROUND);
+            getFrame();
+            self.addKeyListener(self);
+            self.requestFocus();
+        });
+    }
+
+    private static void addInstance(Terrarium terrarium) {
+        List<Terrarium> scoped = scope.get();
+        if (scoped != null) {
+            if (!scoped.isEmpty()) {
+                terrarium.clock = scoped.get(0).clock;
+            }
+            terrarium.scoped = scoped;
+            scoped.add(terrarium);
+        } else {
+            terraria.add(terrarium);
+            defaultInstance.compareAndSet(null, terrarium);
+        }
+    }
+
+    /**
+     * <p>Give the current thread (and any threads that it starts) a set of terraria of its own (see
+     * {@link BatchRenderer})</p>
+     *
+     * <p>Within a scope, {@link #getInstance()} returns the oldest terrarium in the scope that has not been
+     * {@link #dispose()}d (instantiating one, if necessary), and {@link #getInstance(int)} and
+     * {@link #getInstanceCount()} count only the terraria in the scope, so that programs run side by side cannot see
+     * each other's terraria. Every terrarium instantiated within the scope is added to it (and only to it: terraria in
+     * a scope are never seen from outside it), and starts with the same {@link #setClock(AnimationClock) clock} as the
+     * first.</p>
+     *
+     * @param terraria in the scope (usually empty, to begin with), or <code>null</code> to leave the scope
+     */
+    static void setScope(List<Terrarium> terraria) {
+        if (terraria == null) {
+            scope.remove();
+        } else {
+            scope.set(terraria);
+        }
+    }
+
+    /**
+     * <p>Get the default terrarium instance (instantiating it, if necessary)</p>
+     *
+     * <p>The default terrarium is the oldest terrarium that has not been {@link #dispose()}d. It is safe to call this
+     * method from many threads at once: only one default terrarium is ever created (threads that ask for it while it is
+     * being created wait for it, on a lock), and once it exists, getting it takes no locks.</p>
+     *
+     * @return The default terrarium
+     */
+    public static Terrarium getInstance() {
+        List<Terrarium> scoped = scope.get();
+        if (scoped != null) {
+            synchronized (scoped) {
+                for (Terrarium terrarium : scoped) {
+                    if (!terrarium.disposed) {
+                        return terrarium;
+                    }
+                }
+                return new Terrarium();
+            }
+        }
+        Terrarium instance;
+        while ((instance = defaultInstance.get()) == null) {
+            synchronized (creatingDefaultInstance) {
+                if (defaultInstance.get() == null) {
+                    Iterator<Terrarium> oldest = terraria.iterator();
+                    if (oldest.hasNext()) {
+                        defaultInstance.compareAndSet(null, oldest.next());
+                    } else {
+                        new Terrarium();
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Get a particular Terrarium instance
+     *
+     * @param index [0..<i>n</i>) if there are <i>n</i> terraria, sequenced by instantiation
+     *              order (terraria that have been {@link #dispose()}d no longer count)
+     * @return The terrarium at this index
+     */
+    public static Terrarium getInstance(int index) {
+        getInstance();
+        List<Terrarium> scoped = scope.get();
+        return scoped != null ? scoped.get(index) : terraria.get(index);
+    }
+
+    /**
+     * @return Number of terraria that have been instantiated and not yet {@link #dispose()}d
+     */
+    public static int getInstanceCount() {
+        List<Terrarium> scoped = scope.get();
+        return scoped != null ? scoped.size() : terraria.size();
+    }
+
+    /**
+     * <p>Dispose of the terrarium: close its window, forget its tracks and turtles, and unregister it (from
+     * {@link #getInstance(int)} and from JMX), so that it can be garbage-collected</p>
+     *
+     * <p>If this was the default terrarium, the next oldest terrarium becomes the default (and if there is none, a
+     * new one will be created when next it is needed). Animated turtles in a disposed terrarium stop animating, and the
+     * tracks of any other turtles still in it are ignored.</p>
+     */
+    public void dispose() {
+        synchronized (this) {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            appendBuffers.clear();
+            tracks.close();
+            trackCount = 0;
+            owners.clear();
+            index = null;
+            zoomCache.clear();
+            checkpoints.clear();
+            for (Turtle turtle : turtles) {
+                if (turtle instanceof AnimatedTurtle) {
+                    ((AnimatedTurtle) turtle).wake(); // so that it stops animating
+                }
+            }
+            turtles.clear();
+            swarms.clear();
+            layers.clear();
+            flattened = null;
+        }
+        if (scoped != null) {
+            scoped.remove(this);
+        } else {
+            terraria.remove(this);
+            Iterator<Terrarium> oldest = terraria.iterator();
+            defaultInstance.compareAndSet(this, oldest.hasNext() ? oldest.next() : null);
+        }
+        metricsRegistration.cancel();
+        flattenListeners.clear();
+        ChangeRing changes = this.changes;
+        if (changes != null) {
+            for (TerrariumChanges subscription : changes.subscriptions) {
+                subscription.close();
+            }
+        }
+        if (!GraphicsEnvironment.isHeadless()) {
+            SwingUtilities.invokeLater(() -> {
+                removeKeyListener(this);
+                if (frame != null) {
+                    frame.dispose();
+                    frame = null;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the terrarium has been {@link #dispose()}d
+     */
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    /**
+     * <p>Start up new terraria without waiting for their windows</p>
+     *
+     * <p>Ordinarily, constructing a terrarium (and so the first turtle) waits until the terrarium's window has been
+     * laid out by the Swing event dispatch thread. Since the terrarium's dimensions are known up front, that wait is
+     * not really necessary: in fast startup mode, new terraria are ready for turtles immediately, while their windows
+     * are opened in the background, the turtle icon is decoded in parallel, and the terraria's metrics are registered
+     * with JMX in the background. Turtles may start drawing before the window appears, but nothing is lost: the
+     * window shows everything drawn so far when it opens.</p>
+     *
+     * <p>Fast startup can also be turned on with the {@link #FAST_STARTUP_PROPERTY} system property. See
+     * {@link TerrariumMetrics#getTimeToFirstTurtle()} and {@link TerrariumMetrics#getTimeToFirstFrame()} to measure
+     * the difference.</p>
+     *
+     * @param fastStartup <code>true</code> to start new terraria without waiting for their windows
+     */
+    public static void setFastStartup(boolean fastStartup) {
+        Terrarium.fastStartup = fastStartup;
+    }
+
+    /**
+     * @return <code>true</code> if new terraria start without waiting for their windows
+     */
+    public static boolean isFastStartup() {
+        return fastStartup;
+    }
+
+    private JFrame getFrame() {
+        if (frame == null) {
+            Terrarium self = this;
+            SwingUtilities.invokeLater(() -> {
+                if (disposed) {
+                    ready.release();
+                    return;
+                }
+                JFrame frame = new JFrame("Turtle Logo");
+                frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+                frame.add(self);
+                frame.pack();
+                this.frame = frame;
+                ready.release(); // (a spare permit, if the terrarium was already ready, is harmless)
+                Point position = pendingPosition;
+                if (position == null) {
+                    frame.setLocationRelativeTo(null);
+                } else {
+                    frame.setLocation(position);
+                }
+                frame.setVisible(true);
+            });
+        }
+        return frame;
+    }
+
+    /**
+     * <p>Adds a new turtle track to the terrarium</p>
+     *
+     * <p>May only be called by {@link Turtle} and its subclasses, enforced via {@link Turtle.UnderTheShell}.</p>
+     *
+     * @param track to be added
+     * @param key   to authenticate "Turtleness"
+     */
+    public synchronized void add(Track track, Turtle.UnderTheShell key) {
+        assert key != null;
+        add(track, (Turtle) null);
+    }
+
+    /**
+     * @param track to be added
+     * @param owner turtle that left the track (or <code>null</code>, if unknown)
+     */
+    synchronized void add(Track track, Turtle owner) {
+        if (disposed) {
+            return;
+        }
+        store(track, owner);
+        if (trackBudget != UNLIMITED_TRACKS && trackCount > trackBudget) {
+            flatten(trackBudget / 2);
+        }
+        repaint();
+    }
+
+    /**
+     * Add a track to the shared tracks (only while the terrarium is locked)
+     *
+     * @param track to be added
+     * @param owner turtle that left the track (or <code>null</code>, if unknown)
+     */
+    private void store(Track track, Turtle owner) {
+        int serial = owner == null ? 0 : owner.getSerial();
+        owners.record(flattenedTrackCount + trackCount, serial);
+        tracks.add(track);
+        trackCount += track.getSegmentCount();
+        if (index != null) {
+            index.add(track, serial);
+        }
+        if (changes != null) {
+            changes.publish(ChangeRing.TRACK, track, null);
+        }
+    }
+
+    /**
+     * Add the contents of an append buffer to the shared tracks (only while the terrarium is locked)
+     *
+     * @param tracks to be added, in order
+     * @param count  number of tracks, from the start of the array
+     * @param owner  turtle that left the tracks
+     */
+    void store(Track[] tracks, int count, Turtle owner) {
+        if (disposed) {
+            return;
+        }
+        if (index != null || changes != null) {
+            for (int i = 0; i < count; i++) {
+                store(tracks[i], owner);
+            }
+            return;
+        }
+        owners.record(flattenedTrackCount + trackCount, owner == null ? 0 : owner.getSerial());
+        long segments = 0;
+        for (int i = 0; i < count; i++) {
+            segments += tracks[i].getSegmentCount();
+        }
+        this.tracks.add(tracks, count);
+        trackCount += segments;
+    }
+
+    /**
+     * <p>Adds many new turtle tracks to the terrarium at once (one lock, one repaint), in order</p>
+     *
+     * <p>May only be called by {@link Turtle} and its kin, enforced via {@link Turtle.UnderTheShell}.</p>
+     *
+     * @param tracks to be added
+     * @param key    to authenticate "Turtleness"
+     */
+    public synchronized void add(Collection<Track> tracks, Turtle.UnderTheShell key) {
+        assert key != null;
+        if (disposed) {
+            return;
+        }
+        for (Track track : tracks) {
+            store(track, null);
+        }
+        if (trackBudget != UNLIMITED_TRACKS && trackCount > trackBudget) {
+            flatten(trackBudget / 2);
+        }
+        repaint();
+    }
+
+    /**
+     * <p>Adds a new turtle track to one of the terrarium's layers (see {@link Turtle#setLayer(TrackLayer)})</p>
+     *
+     * <p>May only be called by {@link Turtle} and its subclasses, enforced via {@link Turtle.UnderTheShell}.</p>
+     *
+     * @param track to be added
+     * @param layer to which to add the track
+     * @param key   to authenticate "Turtleness"
+     */
+    public synchronized void add(Track track, TrackLayer layer, Turtle.UnderTheShell key) {
+        assert key != null;
+        if (disposed) {
+            return;
+        }
+        layer.add(track);
+        repaint();
+    }
+
+    /**
+     * Clear all turtle tracks from the terrarium, including its layers (and forget every {@link #checkpoint()})
+     */
+    public synchronized void clear() {
+        publishAppends(); // tracks made before the terrarium was cleared are cleared, too
+        tracks.clear();
+        trackCount = 0;
+        flattened = null;
+        flattenedTrackCount = 0;
+        owners.clear();
+        trackEdits++;
+        if (index != null) {
+            index.clear(0);
+        }
+        if (changes != null) {
+            changes.publish(ChangeRing.CLEAR, null, null);
+        }
+        checkpoints.clear();
+        for (TrackLayer layer : layers) {
+            layer.clear();
+        }
+        repaint();
+    }
+
+    /**
+     * <p>Draw a layer of tracks in the terrarium (see {@link TrackLayer})</p>
+     *
+     * <p>A layer is only drawn in one terrarium at a time: a layer that was drawn in another terrarium is moved (not
+     * copied) to this one.</p>
+     *
+     * @param layer to add
+     */
+    public void addLayer(TrackLayer layer) {
+        Terrarium previous = layer.moveTo(this);
+        if (previous == this) {
+            return;
+        }
+        if (previous != null) {
+            previous.layers.remove(layer);
+            previous.repaint();
+        }
+        layers.add(layer);
+        repaint();
+    }
+
+    /**
+     * @param layer to no longer draw (its tracks are kept)
+     */
+    public void removeLayer(TrackLayer layer) {
+        if (layers.remove(layer)) {
+            layer.moveTo(null);
+            repaint();
+        }
+    }
+
+    /**
+     * @param name of a layer
+     * @return The terrarium's layer of that name, which is added if there is none yet
+     */
+    public synchronized TrackLayer getLayer(String name) {
+        for (TrackLayer layer : layers) {
+            if (layer.getName().equals(name)) {
+                return layer;
+            }
+        }
+        TrackLayer layer = new TrackLayer(name);
+        addLayer(layer);
+        return layer;
+    }
+
+    /**
+     * @return The terrarium's layers, in the order in which they are drawn
+     */
+    public List<TrackLayer> getLayers() {
+        List<TrackLayer> ordered = new ArrayList<>(layers);
+        ordered.sort(Comparator.comparingInt(TrackLayer::getZOrder));
+        return ordered;
+    }
+
+    /**
+     * <p>Remember the current state of the terrarium, so that it can be {@link #rewind(int)}ed to it later (e.g. to
+     * undo a drawing step)</p>
+     *
+     * <p>A checkpoint records how many tracks the terrarium holds and the state of each of its turtles (location,
+     * heading, pen and visibility) &mdash; it is cheap, no matter how long the drawing. Animated turtles are
+     * remembered as they are at that moment, so they should have finished their instructions first.</p>
+     *
+     * <p>Tracks that are flattened into the raster layer (see {@link #setTrackBudget(int)}) are not lost to
+     * checkpoints: as tracks made after a checkpoint are flattened, the tiles of the raster layer that they are drawn
+     * over are kept as they were, to be put back by a rewind. Checkpoints that are no longer needed should be
+     * {@link #releaseCheckpoint(int)}d, so that their tiles are not kept.</p>
+     *
+     * @return Identifier of the checkpoint
+     */
+    public synchronized int checkpoint() {
+        publishAppends();
+        List<Runnable> states = new ArrayList<>();
+        for (Turtle turtle : turtles) {
+            states.add(turtle.snapshot());
+        }
+        for (TurtleSwarm swarm : swarms) {
+            states.add(swarm.snapshot());
+        }
+        for (TrackLayer layer : layers) {
+            states.add(layer.snapshot());
+        }
+        int checkpoint = nextCheckpoint++;
+        checkpoints.put(checkpoint, new Checkpoint(flattenedTrackCount + trackCount, tracks.mark(), states));
+        return checkpoint;
+    }
+
+    /**
+     * <p>Put the terrarium back the way it was at a checkpoint: forget every track made since, and return each turtle
+     * that was in the terrarium then to its state at the time (turtles added since are left alone)</p>
+     *
+     * <p>Only the tracks made since the checkpoint are forgotten, so a rewind takes time in proportion to the tracks
+     * it undoes, not to the whole drawing. The checkpoint itself can be rewound to again, but the checkpoints made after
+     * it are forgotten.</p>
+     *
+     * @param checkpoint from {@link #checkpoint()}
+     * @throws IllegalArgumentException if the checkpoint has been released or forgotten
+     */
+    public synchronized void rewind(int checkpoint) {
+        publishAppends();
+        Checkpoint target = checkpoints.get(checkpoint);
+        if (target == null) {
+            throw new IllegalArgumentException("There is no checkpoint " + checkpoint + " to rewind to");
+        }
+        checkpoints.tailMap(checkpoint, false).clear();
+        trackEdits++;
+        owners.truncate(target.segments);
+        if (index != null) {
+            index.truncate(target.segments);
+        }
+        if (target.segments >= flattenedTrackCount) {
+            tracks.truncate(target.mark);
+            trackCount = target.segments - flattenedTrackCount;
+        } else {
+            // every track since the checkpoint has been flattened, at least in part
+            target.restore(flattened);
+            tracks.clear();
+            trackCount = 0;
+            flattenedTrackCount = target.segments;
+            target.mark = tracks.mark();
+        }
+        for (Runnable turtle : target.turtles) {
+            turtle.run();
+        }
+        if (changes != null) {
+            changes.publish(ChangeRing.REWIND, null, null);
+        }
+        repaint();
+    }
+
+    /**
+     * Forget a checkpoint that will not be rewound to
+     *
+     * @param checkpoint from {@link #checkpoint()}
+     */
+    public synchronized void releaseCheckpoint(int checkpoint) {
+        checkpoints.remove(checkpoint);
+    }
+
+    /**
+     * <p>Limit the number of tracks that the terrarium holds on to</p>
+     *
+     * <p>Every track is kept in memory so that the terrarium can be repainted, which means that a turtle that never
+     * stops drawing will eventually run out of memory. With a budget, once the terrarium holds more than
+     * <code>maxTracks</code> tracks, the oldest are drawn into a raster layer (an image the size of the terrarium)
+     * and forgotten, leaving at most <code>maxTracks / 2</code>. Memory use is then bounded by the budget (at roughly
+     * {@link TerrariumMetrics#ESTIMATED_BYTES_PER_TRACK} bytes per track) plus the raster layer. Each segment of a
+     * {@link Turtle#path(double[], double[])} counts as a track.</p>
+     *
+     * <p>The terrarium looks exactly the same after flattening, with two caveats: any part of a flattened track that
+     * lies outside of the terrarium is lost (even if the terrarium is later enlarged), and the raster layer is drawn
+     * pixel-for-pixel, even on a scaled (e.g. high-DPI) display.</p>
+     *
+     * @param maxTracks to hold in memory, or {@link #UNLIMITED_TRACKS} (the default)
+     */
+    public synchronized void setTrackBudget(int maxTracks) {
+        publishAppends();
+        trackBudget = Math.max(UNLIMITED_TRACKS, maxTracks);
+        if (trackBudget != UNLIMITED_TRACKS && trackCount > trackBudget) {
+            flatten(trackBudget / 2);
+            repaint();
+        }
+    }
+
+    /**
+     * @return Maximum number of tracks held in memory (see {@link #setTrackBudget(int)})
+     */
+    public int getTrackBudget() {
+        return trackBudget;
+    }
+
+    /**
+     * <p>Let each turtle buffer the tracks that it makes, and add them to the terrarium's shared tracks in batches, so
+     * that many turtles, each driven by its own thread, can draw in the same terrarium at once without waiting for
+     * each other</p>
+     *
+     * <p>Unbuffered (the default), every track locks the terrarium as it is added, and so turtles drawing on different
+     * threads take turns. With append buffers, each turtle appends its tracks to a buffer of its own, which is
+     * published (added to the shared tracks, under a single lock) when it fills, whenever the terrarium is drawn,
+     * queried, counted, checkpointed, rewound or cleared, and at most {@link #APPEND_PUBLISH_DELAY} milliseconds after
+     * its first track was made. The order of the tracks is then:</p>
+     *
+     * <ul>
+     * <li>each turtle's tracks are in the order in which the turtle made them; but</li>
+     * <li>the tracks of different turtles are in the order in which their buffers were published, so a track made
+     * by one turtle may come before a track made earlier by another (and be drawn beneath it).</li>
+     * </ul>
+     *
+     * <p>Tracks left in a {@link TrackLayer} are not buffered. A single turtle gains little from a buffer, and its
+     * tracks appear on the screen in batches, rather than one by one.</p>
+     *
+     * @param tracks most tracks that each turtle buffers, or {@link #UNBUFFERED}
+     * @throws IllegalArgumentException if <code>tracks</code> is negative
+     */
+    public synchronized void setAppendBufferSize(int tracks) {
+        if (tracks < UNBUFFERED) {
+            throw new IllegalArgumentException("Append buffer size cannot be negative");
+        }
+        appendBufferSize = tracks;
+        publishAppends();
+    }
+
+    /**
+     * @return Most tracks that each turtle buffers (see {@link #setAppendBufferSize(int)})
+     */
+    public int getAppendBufferSize() {
+        return appendBufferSize;
+    }
+
+    /**
+     * @param owner turtle that will append to the buffer
+     * @return A new append buffer, published with the others
+     */
+    AppendBuffer createAppendBuffer(Turtle owner) {
+        AppendBuffer buffer = new AppendBuffer(this, owner);
+        appendBuffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * Add the contents of one append buffer (that has filled) to the shared tracks
+     *
+     * @param buffer to publish
+     */
+    synchronized void publish(AppendBuffer buffer) {
+        if (buffer.merge()) {
+            published();
+        }
+    }
+
+    /**
+     * Add the contents of every append buffer to the shared tracks (before they are read)
+     */
+    void publishAppends() {
+        if (appendBuffers.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            boolean merged = false;
+            for (AppendBuffer buffer : appendBuffers) {
+                merged |= buffer.merge();
+            }
+            if (merged) {
+                published();
+            }
+        }
+    }
+
+    private void published() {
+        if (trackBudget != UNLIMITED_TRACKS && trackCount > trackBudget) {
+            flatten(trackBudget / 2);
+        }
+        repaint();
+    }
+
+    /**
+     * Publish every append buffer shortly, unless that is already scheduled (called when a buffer receives its first
+     * track, so that it is not left waiting indefinitely)
+     */
+    void schedulePublish() {
+        if (!publishScheduled.get() && publishScheduled.compareAndSet(false, true)) {
+            publisher.schedule(() -> {
+                publishScheduled.set(false);
+                publishAppends();
+            }, APPEND_PUBLISH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param listener to be notified whenever tracks are flattened
+     */
+    public void addFlattenListener(FlattenListener listener) {
+        flattenListeners.add(listener);
+    }
+
+    /**
+     * @param listener to no longer be notified
+     */
+    public void removeFlattenListener(FlattenListener listener) {
+        flattenListeners.remove(listener);
+    }
+
+    /**
+     * Listen to the changes made to the terrarium, on a thread that parks between changes
+     *
+     * @param listener to be told of every change made from now on
+     * @return The listener's subscription
+     * @see #addChangeListener(ChangeListener, TerrariumChanges.WaitStrategy)
+     */
+    public TerrariumChanges addChangeListener(ChangeListener listener) {
+        return addChangeListener(listener, TerrariumChanges.WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * <p>Listen to the changes made to the terrarium: tracks added, the terrarium cleared or rewound, and turtles added
+     * or removed</p>
+     *
+     * <p>Changes are recorded in a ring buffer of {@link #CHANGE_BUFFER_SIZE} changes, shared by every listener, and
+     * each listener is told of them, in batches, on a thread of its own (see {@link TerrariumChanges}). Recording a
+     * change costs the drawing turtle the same, however many listeners there are (and nothing at all, until the first
+     * listener is added), and a slow listener never holds up the turtles.</p>
+     *
+     * @param listener to be told of every change made from now on
+     * @param strategy by which the listener's thread waits for changes
+     * @return The listener's subscription (close it to stop listening)
+     */
+    public synchronized TerrariumChanges addChangeListener(ChangeListener listener, TerrariumChanges.WaitStrategy strategy) {
+        if (listener == null || strategy == null) {
+            throw new IllegalArgumentException("A listener and a wait strategy are required");
+        }
+        if (changes == null) {
+            changes = new ChangeRing(CHANGE_BUFFER_SIZE);
+        }
+        TerrariumChanges subscription = new TerrariumChanges(this, changes, listener, strategy, changes.getCursor() + 1);
+        changes.subscriptions.add(subscription);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * @param listener to no longer be told of changes
+     */
+    public void removeChangeListener(ChangeListener listener) {
+        ChangeRing changes = this.changes;
+        if (changes != null) {
+            for (TerrariumChanges subscription : changes.subscriptions) {
+                if (subscription.getListener() == listener) {
+                    subscription.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of the last change made (see {@link ChangeListener}), or -1 if there have been none since the
+     * first listener was added
+     */
+    synchronized long getLastChange() {
+        publishAppends();
+        return changes == null ? -1 : changes.getCursor();
+    }
+
+    /**
+     * @return Number of times the tracks have been changed other than by adding to them (cleared, rewound, flattened or
+     * moved to another store), so that a reader that lets go of the terrarium can tell whether what it has read still
+     * stands; the terrarium must be locked while it is read
+     */
+    long getTrackEdits() {
+        return trackEdits;
+    }
+
+    /**
+     * @return The raster layer holding flattened tracks (or <code>null</code>, if none have been flattened); the
+     * terrarium must be locked while it is read
+     */
+    BufferedImage getFlattened() {
+        return flattened;
+    }
+
+    /**
+     * Replace the raster layer holding flattened tracks (e.g. with one received by a {@link TerrariumViewer})
+     *
+     * @param flattened raster layer (or <code>null</code>, for none)
+     */
+    synchronized void setFlattened(BufferedImage flattened) {
+        if (flattened != null && flattened.getType() != BufferedImage.TYPE_INT_ARGB_PRE) {
+            BufferedImage converted = new BufferedImage(flattened.getWidth(), flattened.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D context = converted.createGraphics();
+            context.drawImage(flattened, 0, 0, null);
+            context.dispose();
+            flattened = converted;
+        }
+        this.flattened = flattened;
+        trackEdits++;
+        repaint();
+    }
+
+    /**
+     * Draw the oldest tracks into the raster layer and forget them
+     *
+     * @param remaining number of tracks (segments) to leave, at most
+     */
+    private synchronized void flatten(long remaining) {
+        long start = System.nanoTime();
+        int width = Math.max(1, getWidth()), height = Math.max(1, getHeight());
+        if (flattened == null || flattened.getWidth() < width || flattened.getHeight() < height) {
+            BufferedImage larger = new BufferedImage(
+                Math.max(width, flattened == null ? 0 : flattened.getWidth()),
+                Math.max(height, flattened == null ? 0 : flattened.getHeight()),
+                BufferedImage.TYPE_INT_ARGB_PRE
+            );
+            if (flattened != null) {
+                Graphics2D copy = larger.createGraphics();
+                copy.drawImage(flattened, 0, 0, null);
+                copy.dispose();
+            }
+            flattened = larger;
+        }
+        Graphics2D context = flattened.createGraphics();
+        exportProfile.apply(context); // the flattened tracks are exported (as well as painted) ever after
+        TrackStore.Cursor oldest = tracks.cursor();
+        long count = 0;
+        while (trackCount > remaining && oldest.next()) {
+            preserve(oldest, flattenedTrackCount + count);
+            oldest.draw(context);
+            trackCount -= oldest.getSegmentCount();
+            count += oldest.getSegmentCount();
+        }
+        context.dispose();
+        tracks.removeVisited(oldest);
+        flattenedTrackCount += count;
+        owners.forget(flattenedTrackCount);
+        trackEdits++;
+        metrics.flattened(count, System.nanoTime() - start);
+        for (FlattenListener listener : flattenListeners) {
+            listener.flattened(this, count);
+        }
+    }
+
+    /**
+     * Before a track is flattened, keep the tiles of the raster layer that it will be drawn over for each checkpoint
+     * that it was made after
+     *
+     * @param track     about to be flattened
+     * @param flattened number of tracks (segments) flattened before it, since the terrarium was cleared
+     */
+    private void preserve(TrackStore.Cursor track, long flattened) {
+        Rectangle bounds = null;
+        boolean measured = false;
+        for (Checkpoint checkpoint : checkpoints.values()) {
+            if (checkpoint.segments > flattened) {
+                break;
+            }
+            if (!measured) {
+                bounds = getBounds(track);
+                measured = true;
+            }
+            checkpoint.preserve(this.flattened, bounds);
+        }
+    }
+
+    /**
+     * @param track to be drawn
+     * @return Pixels that drawing the track may touch, or <code>null</code> if they cannot be known
+     */
+    private static Rectangle getBounds(TrackStore.Cursor track) {
+        if (!(track.getStroke() instanceof BasicStroke)) {
+            return null;
+        }
+        double pad = track.getReach() + 2; // and antialiasing
+        double minX = track.getX(0), maxX = minX, minY = track.getY(0), maxY = minY;
+        for (int i = 1; i < track.getVertexCount(); i++) {
+            minX = Math.min(minX, track.getX(i));
+            maxX = Math.max(maxX, track.getX(i));
+            minY = Math.min(minY, track.getY(i));
+            maxY = Math.max(maxY, track.getY(i));
+        }
+        if (!Double.isFinite(minX - maxX - minY - maxY) || Math.max(maxX - minX, maxY - minY) > Integer.MAX_VALUE / 2) {
+            return null;
+        }
+        int left = (int) Math.floor(Math.max(minX - pad, Integer.MIN_VALUE / 2));
+        int top = (int) Math.floor(Math.max(minY - pad, Integer.MIN_VALUE / 2));
+        return new Rectangle(left, top,
+            (int) Math.ceil(Math.min(maxX + pad, Integer.MAX_VALUE / 2)) - left + 1,
+            (int) Math.ceil(Math.min(maxY + pad, Integer.MAX_VALUE / 2)) - top + 1);
+    }
+
+    /**
+     * @return Number of tracks that have been flattened into the raster layer since the terrarium was last cleared
+     */
+    public synchronized long getFlattenedTrackCount() {
+        return flattenedTrackCount;
+    }
+
+    /**
+     * @return Size of the raster layer holding flattened tracks, in bytes
+     */
+    public synchronized long getFlattenedLayerBytes() {
+        return flattened == null ? 0 : 4L * flattened.getWidth() * flattened.getHeight();
+    }
+
+    /**
+     * <p>Choose where the terrarium keeps its tracks (by default, {@link TrackStore#onHeap()})</p>
+     *
+     * <p>The tracks already in the terrarium are moved to the new store, and the old store is emptied. A store may
+     * only be used by one terrarium.</p>
+     *
+     * @param store for the terrarium's tracks
+     */
+    public synchronized void setTrackStore(TrackStore store) {
+        if (store == tracks) {
+            return;
+        }
+        publishAppends();
+        Iterator<Checkpoint> pending = checkpoints.values().iterator();
+        Checkpoint checkpoint = pending.hasNext() ? pending.next() : null;
+        while (checkpoint != null && checkpoint.segments < flattenedTrackCount) {
+            checkpoint = pending.hasNext() ? pending.next() : null;
+        }
+        long segments = flattenedTrackCount;
+        TrackStore.Cursor track = tracks.cursor();
+        while (true) {
+            for (; checkpoint != null && checkpoint.segments == segments; checkpoint = pending.hasNext() ? pending.next() : null) {
+                checkpoint.mark = store.mark();
+            }
+            if (!track.next()) {
+                break;
+            }
+            segments += track.getSegmentCount();
+            double[] points = new double[2 * track.getVertexCount()];
+            for (int i = 0; i < track.getVertexCount(); i++) {
+                points[2 * i] = track.getX(i);
+                points[2 * i + 1] = track.getY(i);
+            }
+            store.add(new Track(points, track.getColor(), track.getStroke(), Turtle.UNDER_THE_SHELL));
+        }
+        tracks.close();
+        tracks = store;
+        trackEdits++;
+    }
+
+    /**
+     * @return Where the terrarium keeps its tracks
+     */
+    public TrackStore getTrackStore() {
+        publishAppends();
+        return tracks;
+    }
+
+    /**
+     * <p>Find the tracks near a point (e.g. to ask what a turtle is about to run into)</p>
+     *
+     * <p>Tracks are measured as they are drawn, so a track drawn with a wide pen comes closer to the point than its
+     * center line does. Each segment of a {@link Turtle#path(double[], double[])} is a track of its own. Only the
+     * terrarium's shared tracks are searched, not its {@link TrackLayer}s.</p>
+     *
+     * <p>The first proximity query made of a terrarium indexes its tracks, and the index is then kept up to date as
+     * turtles draw, so that each query only looks at the tracks near where it is asked, however many tracks there are
+     * elsewhere. Tracks that had already been flattened (see {@link #setTrackBudget(int)}) when the index was made are
+     * not indexed, but tracks flattened afterwards are still found (the index takes roughly 50 bytes per track, on top
+     * of any budget). Queries may be made from any thread, even while
+     * turtles are drawing.</p>
+     *
+     * @param x      coordinate
+     * @param y      coordinate
+     * @param radius around the point
+     * @return The tracks that come within <code>radius</code> of the point, in the order in which they were drawn
+     */
+    public List<Line2D> tracksNear(double x, double y, double radius) {
+        return getIndex().near(x, y, radius);
+    }
+
+    /**
+     * Find the track nearest to a point (see {@link #tracksNear(double, double, double)})
+     *
+     * @param x coordinate
+     * @param y coordinate
+     * @return The track that comes closest to the point (or <code>null</code>, if there are no tracks)
+     */
+    public Line2D nearestTrack(double x, double y) {
+        return getIndex().nearest(x, y);
+    }
+
+    /**
+     * Test whether a line would cross any track (see {@link #tracksNear(double, double, double)})
+     *
+     * @param line to test (e.g. the step that a turtle is about to take)
+     * @return <code>true</code> if the line crosses or touches any track
+     */
+    public boolean intersects(Line2D line) {
+        return getIndex().intersects(line);
+    }
+
+    /**
+     * @return The index of the terrarium's tracks, made the first time that it is needed
+     */
+    TrackIndex getIndex() {
+        publishAppends();
+        TrackIndex index = this.index;
+        if (index == null) {
+            synchronized (this) {
+                index = this.index;
+                if (index == null) {
+                    index = new TrackIndex(flattenedTrackCount);
+                    long segment = flattenedTrackCount;
+                    TrackStore.Cursor track = tracks.cursor();
+                    while (track.next()) {
+                        index.add(track, owners.ownerOf(segment));
+                        segment += track.getSegmentCount();
+                    }
+                    this.index = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * <p>Adds a new turtle to the terrarium</p>
+     *
+     * <p>May only be called by {@link Turtle} and its subclasses, enforced via {@link Turtle.UnderTheShell}.</p>
+     *
+     * @param turtle to be added
+     * @param key    to authenticate "Turtleness"
+     */
+    public synchronized void add(Turtle turtle, Turtle.UnderTheShell key) {
+        assert key != null;
+        turtles.add(turtle);
+        metrics.turtleAdded();
+        if (changes != null) {
+            changes.publish(ChangeRing.TURTLE_ADDED, null, turtle);
+        }
+        repaint();
+    }
+
+    /**
+     * <p>Adds a swarm of turtles to the terrarium</p>
+     *
+     * <p>May only be called by {@link TurtleSwarm}, enforced via {@link Turtle.UnderTheShell}.</p>
+     *
+     * @param swarm to be added
+     * @param key   to authenticate "Turtleness"
+     */
+    public void add(TurtleSwarm swarm, Turtle.UnderTheShell key) {
+        assert key != null;
+        swarms.add(swarm);
+        metrics.turtleAdded();
+        repaint();
+    }
+
+    /**
+     * <p>Remove a turtle from the terrarium</p>
+     *
+     * <p>May only be called by {@link Turtle} and its subclasses, enforced via {@link Turtle.UnderTheShell}.</p>
+     *
+     * @param turtle to be removed
+     * @param key    to authenticate "Turtleness"
+     */
+    public synchronized void remove(Turtle turtle, Turtle.UnderTheShell key) {
+        assert key != null;
+        for (AppendBuffer buffer : appendBuffers) {
+            if (buffer.getOwner() == turtle) {
+                buffer.retire();
+                appendBuffers.remove(buffer);
+                publish(buffer);
+            }
+        }
+        if (turtles.remove(turtle) && changes != null) {
+            changes.publish(ChangeRing.TURTLE_REMOVED, null, turtle);
+        }
+        repaint();
+    }
+
+    /**
+     * @return Number of tracks currently in the terrarium (each segment of a polyline counts as a track)
+     */
+    public long getTrackCount() {
+        publishAppends();
+        return trackCount;
+    }
+
+    /**
+     * @return Estimate of the heap consumed by the terrarium's tracks, in bytes
+     */
+    public long getEstimatedTrackBytes() {
+        publishAppends();
+        return tracks.getEstimatedBytes();
+    }
+
+    /**
+     * @return Number of tracks in the terrarium, including those still in append buffers, counted without locking the
+     * terrarium or publishing the buffers (so that polling {@link TerrariumMetrics} never changes the order of tracks)
+     */
+    long peekTrackCount() {
+        long count = trackCount;
+        for (AppendBuffer buffer : appendBuffers) {
+            count += buffer.getSegmentCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return Estimate of the heap consumed by the terrarium's tracks, including those still in append buffers, without
+     * locking the terrarium or publishing the buffers
+     */
+    long peekEstimatedTrackBytes() {
+        long bytes = tracks.getEstimatedBytes();
+        for (AppendBuffer buffer : appendBuffers) {
+            bytes += buffer.getEstimatedBytes();
+        }
+        return bytes;
+    }
 
-    private final List<Turtle> turtles;
-    private final List<Track> tracks;
+    /**
+     * Set the clock by which animated turtles in this terrarium time their frames (see {@link VirtualClock})
+     *
+     * @param clock to use (defaults to {@link AnimationClock#SYSTEM})
+     */
+    public void setClock(AnimationClock clock) {
+        this.clock = clock == null ? AnimationClock.SYSTEM : clock;
+    }
 
-    private JFrame frame;
-    public Semaphore ready;
+    /**
+     * @return The clock by which animated turtles in this terrarium time their frames
+     */
+    public AnimationClock getClock() {
+        return clock;
+    }
 
-    private static final int CONTROL_KEY_MASK = Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+    /**
+     * @return A snapshot of the turtles currently in the terrarium
+     */
+    synchronized List<Turtle> getTurtles() {
+        return new ArrayList<>(turtles);
+    }
 
     /**
-     * Construct a new terrarium of default dimensions, centered on the screen in its own window
+     * @param capture that draws the frames of the animation, in place of animated turtles repainting the screen (or
+     *                <code>null</code> to stop capturing)
      */
-    public Terrarium() {
-        super();
-        turtles = new Vector<>();
-        tracks = new Vector<>();
-        ready = new Semaphore(0);
-        addInstance(this);
-        Terrarium self = this;
-        SwingUtilities.invokeLater(() -> {
-            setPreferredSize(new Dimension(DEFAULT_WIDTH, DEFAULT_HEIGHT));
-            setBackground(DEFAULT_BACKGROUND);
-            getFrame();
-            self.addKeyListener(self);
-            self.requestFocus();
-        });
+    void setCapture(AnimationCapture capture) {
+        this.capture = capture;
     }
 
-    private static void addInstance(Terrarium terrarium) {
-        if (terraria == null) {
-            terraria = new ArrayList<>();
-        }
-        terraria.add(terrarium);
+    /**
+     * @return The capture in progress, if any
+     */
+    AnimationCapture getCapture() {
+        return capture;
+    }
+
+    /**
+     * @return Number of turtles currently in the terrarium
+     */
+    public int getTurtleCount() {
+        return turtles.size();
+    }
+
+    /**
+     * @return Instrumentation of this terrarium (also available over JMX)
+     */
+    public TerrariumMetrics getMetrics() {
+        return metrics;
     }
 
     /**
-     * Get the default terrarium instance (instantiating it, if necessary)
+     * <p>Set the level of detail used when painting the terrarium on screen</p>
      *
-     * @return The default terrarium
+     * <p>Consecutive tracks drawn with the same (opaque) pen are merged into polylines, and any vertex that lies within
+     * <code>tolerance</code> pixels of the merged polyline is dropped. Curves traced in many tiny steps are then
+     * stroked once, rather than once per step. A tolerance of 0 strokes every track individually.</p>
+     *
+     * <p>A quarter of a pixel is a good choice for long drawings: antialiased edges move by at most a quarter of a
+     * pixel, which is not visible, while curves drawn in one-degree steps are stroked many times faster.</p>
+     *
+     * @param tolerance in pixels (defaults to {@link #DEFAULT_LEVEL_OF_DETAIL})
      */
-    public static Terrarium getInstance() {
-        return getInstance(0);
+    public void setLevelOfDetail(double tolerance) {
+        levelOfDetail = Math.max(0, tolerance);
+        repaint();
     }
 
     /**
-     * Get a particular Terrarium instance
+     * @return Level of detail tolerance, in pixels (see {@link #setLevelOfDetail(double)})
+     */
+    public double getLevelOfDetail() {
+        return levelOfDetail;
+    }
+
+    /**
+     * Choose whether images drawn to files (e.g. by {@link #drawTo(String)}) also use the on-screen level of detail
+     * (by default they do not, and every track is stroked individually)
      *
-     * @param index [0..<i>n</i>) if there are <i>n</i> terraria, sequenced by instantiation
-     *              order
-     * @return The terrarium at this index
+     * @param exported <code>true</code> to apply {@link #getLevelOfDetail()} to exports
      */
-    public static Terrarium getInstance(int index) {
-        if (terraria == null) {
-            terraria = new ArrayList<>();
-            new Terrarium();
-        }
-        return terraria.get(index);
+    public void setLevelOfDetailExported(boolean exported) {
+        levelOfDetailExported = exported;
     }
 
-    private JFrame getFrame() {
-        if (frame == null) {
-            Terrarium self = this;
-            SwingUtilities.invokeLater(() -> {
-                frame = new JFrame("Turtle Logo");
-                frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-                frame.add(self);
-                frame.pack();
-                ready.release();
-                frame.setLocationRelativeTo(null);
-                frame.setVisible(true);
-            });
-        }
-        return frame;
+    /**
+     * @return <code>true</code> if exports use the on-screen level of detail
+     */
+    public boolean isLevelOfDetailExported() {
+        return levelOfDetailExported;
     }
 
     /**
-     * <p>Adds a new turtle track to the terrarium</p>
+     * <p>Choose how carefully the terrarium is painted on the screen (e.g. {@link RenderingProfile#FAST} while a long
+     * drawing is being drawn, and then {@link RenderingProfile#BALANCED} once it is done)</p>
      *
-     * <p>May only be called by {@link Turtle} and its subclasses, enforced via {@link Turtle.UnderTheShell}.</p>
+     * <p>Tracks that have been flattened (see {@link #setTrackBudget(int)}) were drawn once, with the export profile,
+     * and are not drawn again.</p>
      *
-     * @param track to be added
-     * @param key   to authenticate "Turtleness"
+     * @param profile for painting (defaults to {@link RenderingProfile#BALANCED})
      */
-    public synchronized void add(Track track, Turtle.UnderTheShell key) {
-        assert key != null;
-        tracks.add(track);
+    public void setPaintProfile(RenderingProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("A rendering profile is required");
+        }
+        paintProfile = profile;
         repaint();
     }
 
     /**
-     * Clear all turtle tracks from the terrarium
+     * @return Rendering profile for painting on the screen
      */
-    public synchronized void clear() {
-        tracks.clear();
-        repaint();
+    public RenderingProfile getPaintProfile() {
+        return paintProfile;
     }
 
     /**
-     * <p>Adds a new turtle to the terrarium</p>
+     * Choose how carefully the terrarium is drawn to images (e.g. by {@link #drawTo(String)}), independently of how
+     * it is painted on the screen
      *
-     * <p>May only be called by {@link Turtle} and its subclasses, enforced via {@link Turtle.UnderTheShell}.</p>
+     * @param profile for exports (defaults to {@link RenderingProfile#BALANCED}, {@link RenderingProfile#EXPORT} for
+     *                the best quality)
+     */
+    public void setExportProfile(RenderingProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("A rendering profile is required");
+        }
+        exportProfile = profile;
+    }
+
+    /**
+     * @return Rendering profile for drawing to images
+     */
+    public RenderingProfile getExportProfile() {
+        return exportProfile;
+    }
+
+    /**
+     * <p>Zoom the terrarium's window in (or out) on a point, which stays where it is in the window</p>
      *
-     * @param turtle to be added
-     * @param key    to authenticate "Turtleness"
+     * <p>The window is a view onto the turtles' world, which has no edges: turtles may wander (and draw) anywhere, and
+     * the view may be zoomed and panned to show any part of it. Only the tracks that can be seen are drawn, and a
+     * zoomed-out view of a large drawing is painted from images of the drawing kept at reduced scales, so that it stays
+     * quick to pan and zoom. Zooming and panning only change what is shown in the window (and in
+     * {@link AnimationCapture}s of it): the turtles' coordinates are unaffected, and images drawn to files (e.g. by
+     * {@link #drawTo(String)}) are always of the unzoomed, unpanned terrarium. Flattened tracks (see
+     * {@link #setTrackBudget(int)}) are only kept where they were in the unzoomed, unpanned window. See
+     * {@link #setNavigable(boolean)} to zoom and pan with the mouse.</p>
+     *
+     * @param factor by which to zoom (greater than 1 to zoom in, less than 1 to zoom out), within {@link #MIN_ZOOM}
+     *               and {@link #MAX_ZOOM} overall
+     * @param x      coordinate in the window
+     * @param y      coordinate in the window
      */
-    public synchronized void add(Turtle turtle, Turtle.UnderTheShell key) {
-        assert key != null;
-        turtles.add(turtle);
-        repaint();
+    public synchronized void zoom(double factor, double x, double y) {
+        if (!(factor > 0 && factor < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Cannot zoom by " + factor);
+        }
+        AffineTransform view = getView();
+        double zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, view.getScaleX() * factor));
+        AffineTransform zoomed = AffineTransform.getTranslateInstance(x, y);
+        zoomed.scale(zoom / view.getScaleX(), zoom / view.getScaleX());
+        zoomed.translate(-x, -y);
+        zoomed.concatenate(view);
+        setView(zoomed);
     }
 
     /**
-     * <p>Remove a turtle from the terrarium</p>
+     * Zoom the terrarium's window in (or out) on its center (see {@link #zoom(double, double, double)})
      *
-     * <p>May only be called by {@link Turtle} and its subclasses, enforced via {@link Turtle.UnderTheShell}.</p>
+     * @param factor by which to zoom
+     */
+    public void zoom(double factor) {
+        zoom(factor, getWidth() / 2.0, getHeight() / 2.0);
+    }
+
+    /**
+     * Pan the terrarium's window across the turtles' world (see {@link #zoom(double, double, double)})
      *
-     * @param turtle to be removed
-     * @param key    to authenticate "Turtleness"
+     * @param dx distance to move the world to the right, in window pixels
+     * @param dy distance to move the world down, in window pixels
      */
-    public synchronized void remove(Turtle turtle, Turtle.UnderTheShell key) {
-        assert key != null;
-        turtles.remove(turtle);
+    public synchronized void pan(double dx, double dy) {
+        AffineTransform panned = AffineTransform.getTranslateInstance(dx, dy);
+        panned.concatenate(getView());
+        setView(panned);
+    }
+
+    /**
+     * Return the terrarium's window to its original, unzoomed and unpanned, view
+     */
+    public synchronized void resetView() {
+        view = null;
+        zoomCache.clear();
+        repaint();
+    }
+
+    private void setView(AffineTransform view) {
+        this.view = view.isIdentity() ? null : view;
         repaint();
     }
 
+    /**
+     * @return Current zoom of the terrarium's window (1, if it is not zoomed)
+     */
+    public double getZoom() {
+        AffineTransform view = this.view;
+        return view == null ? 1 : view.getScaleX();
+    }
+
+    /**
+     * @return Transformation from the turtles' coordinates to the terrarium's window (see
+     * {@link #zoom(double, double, double)})
+     */
+    public AffineTransform getView() {
+        AffineTransform view = this.view;
+        return view == null ? new AffineTransform() : new AffineTransform(view);
+    }
+
+    /**
+     * @return Part of the turtles' world shown in the terrarium's window, in the turtles' coordinates
+     */
+    public Rectangle2D getVisibleWorld() {
+        Rectangle2D window = new Rectangle2D.Double(0, 0, getWidth(), getHeight());
+        AffineTransform view = this.view;
+        if (view == null) {
+            return window;
+        }
+        try {
+            return view.createInverse().createTransformedShape(window).getBounds2D();
+        } catch (NoninvertibleTransformException e) {
+            return window; // the view is never zoomed all the way out, so this cannot happen
+        }
+    }
+
+    /**
+     * Let the terrarium's window be zoomed with the mouse wheel and panned by dragging (a double-click returns it to
+     * its original view)
+     *
+     * @param navigable <code>true</code> to zoom and pan with the mouse (by default, the mouse is ignored)
+     */
+    public synchronized void setNavigable(boolean navigable) {
+        if (navigable && navigator == null) {
+            navigator = new Navigator();
+            addMouseListener(navigator);
+            addMouseMotionListener(navigator);
+            addMouseWheelListener(navigator);
+        } else if (!navigable && navigator != null) {
+            removeMouseListener(navigator);
+            removeMouseMotionListener(navigator);
+            removeMouseWheelListener(navigator);
+            navigator = null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the terrarium's window can be zoomed and panned with the mouse
+     */
+    public synchronized boolean isNavigable() {
+        return navigator != null;
+    }
+
+    /**
+     * Zooms and pans the terrarium's window with the mouse (see {@link #setNavigable(boolean)})
+     */
+    private class Navigator extends MouseAdapter {
+        private Point dragged;
+
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            zoom(Math.pow(WHEEL_ZOOM, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+        }
+
+        @Override
+        public void mousePressed(MouseEvent e) {
+            dragged = e.getPoint();
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e) {
+            if (dragged != null) {
+                pan(e.getX() - dragged.x, e.getY() - dragged.y);
+                dragged = e.getPoint();
+            }
+        }
+
+        @Override
+        public void mouseReleased(MouseEvent e) {
+            dragged = null;
+        }
+
+        @Override
+        public void mouseClicked(MouseEvent e) {
+            if (e.getClickCount() == 2) {
+                resetView();
+            }
+        }
+    }
+
+    /**
+     * Set how hard images drawn to PNG files (e.g. by {@link #drawTo(String)}) are compressed (see
+     * {@link PngEncoder})
+     *
+     * @param level of compression, from 0 (none, fastest) to 9 (smallest, slowest), defaults to
+     *              {@link PngEncoder#DEFAULT_COMPRESSION_LEVEL}
+     */
+    public void setPngCompressionLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be from 0 to 9");
+        }
+        pngCompressionLevel = level;
+    }
+
+    /**
+     * @return Level of compression of PNG files
+     */
+    public int getPngCompressionLevel() {
+        return pngCompressionLevel;
+    }
+
     /**
      * Adjust the dimensions of the terrarium view
      *
@@ -200,8 +1746,14 @@ public class Terrarium extends JPanel implements KeyListener {
      */
     public void setSize(int width, int height) {
         setPreferredSize(new Dimension(width, height));
-        getFrame().pack();
-        getFrame().repaint();
+        JFrame frame = this.frame;
+        if (frame == null) {
+            super.setSize(width, height); // the window, when it opens, is packed to the preferred size
+            repaint();
+            return;
+        }
+        frame.pack();
+        frame.repaint();
     }
 
     /**
@@ -213,8 +1765,13 @@ public class Terrarium extends JPanel implements KeyListener {
      * @param y coordinate
      */
     public void setPosition(int x, int y) {
-        getFrame().setLocation(x, y);
-        getFrame().repaint();
+        JFrame frame = this.frame;
+        if (frame == null) {
+            pendingPosition = new Point(x, y); // applied when the window opens
+            return;
+        }
+        frame.setLocation(x, y);
+        frame.repaint();
     }
 
     /**
@@ -228,24 +1785,148 @@ public class Terrarium extends JPanel implements KeyListener {
      */
     @Override
     public synchronized void paintComponent(Graphics context) {
+        long start = System.nanoTime();
         super.paintComponent(context);
         Graphics2D context2D = (Graphics2D) context;
         draw(context2D);
+        metrics.painted(System.nanoTime() - start);
     }
 
     /**
-     * For synchronous drawing requests (e.g. saving images)
+     * Counts repaint requests (see {@link TerrariumMetrics#getRepaintRequestCount()}) before passing them on
+     *
+     * @param tm     maximum time in milliseconds before update
+     * @param x      coordinate of the dirty region
+     * @param y      coordinate of the dirty region
+     * @param width  of the dirty region
+     * @param height of the dirty region
+     */
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (metrics != null) { // JComponent may request repaints before this terrarium is fully constructed
+            metrics.repaintRequested();
+        }
+        super.repaint(tm, x, y, width, height);
+    }
+
+    /**
+     * For synchronous drawing requests (e.g. capturing animations), as on screen: at the on-screen level of detail,
+     * zoomed and panned (see {@link #zoom(double, double, double)})
      *
      * @param context for drawing commands
      */
     protected void draw(Graphics2D context) {
-        context.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        for (Track track : tracks) {
-            track.draw(context, UNDER_THE_SURFACE);
+        draw(context, levelOfDetail, paintProfile, view, true);
+    }
+
+    /**
+     * For synchronous drawing requests (e.g. saving images)
+     *
+     * @param context       for drawing commands
+     * @param levelOfDetail tolerance, in pixels (see {@link #setLevelOfDetail(double)})
+     */
+    protected void draw(Graphics2D context, double levelOfDetail) {
+        draw(context, levelOfDetail, paintProfile);
+    }
+
+    /**
+     * For synchronous drawing requests (e.g. saving images)
+     *
+     * @param context       for drawing commands
+     * @param levelOfDetail tolerance, in pixels (see {@link #setLevelOfDetail(double)})
+     * @param profile       rendering hints to draw with
+     */
+    protected void draw(Graphics2D context, double levelOfDetail, RenderingProfile profile) {
+        draw(context, levelOfDetail, profile, null, false);
+    }
+
+    /**
+     * @param context       for drawing commands
+     * @param levelOfDetail tolerance, in pixels (see {@link #setLevelOfDetail(double)})
+     * @param profile       rendering hints to draw with
+     * @param view          through which to draw the turtles' world (see {@link #getView()}), or <code>null</code>
+     * @param onScreen      <code>true</code> if drawing as on screen, so that the layers may keep their images (see
+     *                      {@link TrackLayer#draw(Graphics2D, int, int, RenderingProfile, boolean, AffineTransform)})
+     */
+    private void draw(Graphics2D context, double levelOfDetail, RenderingProfile profile, AffineTransform view, boolean onScreen) {
+        publishAppends();
+        profile.apply(context);
+        AffineTransform window = context.getTransform();
+        List<TrackLayer> layers = this.layers.isEmpty() ? this.layers : getLayers();
+        int layer = 0;
+        for (; layer < layers.size() && layers.get(layer).getZOrder() < 0; layer++) {
+            layers.get(layer).draw(context, getWidth(), getHeight(), profile, onScreen, view);
+        }
+        if (view != null) {
+            context.transform(view);
+        }
+        if (flattened != null) {
+            context.drawImage(flattened, 0, 0, null);
+        }
+        double zoom = view == null ? 1 : view.getScaleX();
+        if (zoom >= 1 || trackCount < ZOOM_CACHE_THRESHOLD || !zoomCache.draw(context, zoom, tracks, trackEdits, profile, levelOfDetail)) {
+            Rectangle2D visible = getVisibleBounds(context);
+            double antialiasing = 2 / Math.sqrt(Math.abs(context.getTransform().getDeterminant()));
+            LevelOfDetail renderer = new LevelOfDetail(context, levelOfDetail);
+            TrackStore.Cursor track = tracks.cursor();
+            while (track.next()) {
+                if (visible == null || isVisible(track, visible, antialiasing)) {
+                    renderer.draw(track);
+                }
+            }
+            renderer.flush();
+        }
+        context.setTransform(window);
+        for (; layer < layers.size(); layer++) {
+            layers.get(layer).draw(context, getWidth(), getHeight(), profile, onScreen, view);
+        }
+        if (view != null) {
+            context.transform(view);
         }
         for (Turtle turtle : turtles) {
             turtle.draw(context, UNDER_THE_SURFACE);
         }
+        for (TurtleSwarm swarm : swarms) {
+            swarm.draw(context, UNDER_THE_SURFACE);
+        }
+        context.setTransform(window);
+        metrics.frameDrawn();
+    }
+
+    /**
+     * @param context for drawing commands
+     * @return The area that can be drawn on, in the context's own coordinates (or <code>null</code> if it cannot be
+     * known)
+     */
+    private static Rectangle2D getVisibleBounds(Graphics2D context) {
+        Rectangle clip = context.getClipBounds();
+        if (clip != null) {
+            return clip;
+        }
+        try {
+            return context.getTransform().createInverse().createTransformedShape(context.getDeviceConfiguration().getBounds()).getBounds2D();
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param track        to be drawn
+     * @param visible      area that can be drawn on
+     * @param antialiasing how far antialiased edges may spread beyond the stroke
+     * @return <code>false</code> if drawing the track would not touch the visible area
+     */
+    private static boolean isVisible(TrackStore.Cursor track, Rectangle2D visible, double antialiasing) {
+        double reach = track.getReach() + antialiasing;
+        double minX = track.getX(0), maxX = minX, minY = track.getY(0), maxY = minY;
+        for (int i = 1; i < track.getVertexCount(); i++) {
+            minX = Math.min(minX, track.getX(i));
+            maxX = Math.max(maxX, track.getX(i));
+            minY = Math.min(minY, track.getY(i));
+            maxY = Math.max(maxY, track.getY(i));
+        }
+        return !(maxX + reach < visible.getMinX() || minX - reach > visible.getMaxX()
+            || maxY + reach < visible.getMinY() || minY - reach > visible.getMaxY());
     }
 
     /**
@@ -272,14 +1953,9 @@ public class Terrarium extends JPanel implements KeyListener {
         @Override
         protected Void doInBackground() throws Exception {
             try {
-                BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
-                Graphics2D context = image.createGraphics();
-                context.setPaint(getBackground());
-                context.fillRect(0, 0, image.getWidth(), image.getHeight());
-                draw(context);
                 File file = new File(path);
-                ImageIO.write(image, format, file);
-                System.out.println(image.getWidth() + "x" + image.getHeight() + " pixel image saved to " + file.getAbsolutePath());
+                export(file, format);
+                System.out.println(getWidth() + "x" + getHeight() + " pixel image saved to " + file.getAbsolutePath());
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -288,7 +1964,95 @@ public class Terrarium extends JPanel implements KeyListener {
     }
 
     /**
-     * Draw the contents of the terrarium to a file
+     * Draw the contents of the terrarium to a file, on the calling thread (see {@link #drawTo(String, String)})
+     *
+     * @param file   to be saved
+     * @param format in which to save the file
+     * @throws IOException if the file could not be saved
+     */
+    void export(File file, String format) throws IOException {
+        exporter.write(file, format);
+    }
+
+    /**
+     * Draw the contents of the terrarium into an image of the caller's own (e.g. one that is reused for every frame)
+     *
+     * @param image to draw into (the top, left corner of the terrarium is drawn at the top, left corner of the image, and
+     *              whatever the image held before is replaced, even where the background is translucent)
+     */
+    public void drawTo(BufferedImage image) {
+        Graphics2D context = image.createGraphics();
+        context.setComposite(AlphaComposite.Src);
+        context.setPaint(getBackground());
+        context.fillRect(0, 0, image.getWidth(), image.getHeight());
+        context.setComposite(AlphaComposite.SrcOver);
+        synchronized (this) {
+            draw(context, levelOfDetailExported ? levelOfDetail : 0, exportProfile);
+        }
+        context.dispose();
+    }
+
+    /**
+     * @return A new image of the contents of the terrarium
+     */
+    public BufferedImage getImage() {
+        BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
+        drawTo(image);
+        return image;
+    }
+
+    /**
+     * Get the pixels of the contents of the terrarium, without encoding them at all
+     *
+     * @param pixels array to reuse, if it is large enough (may be <code>null</code>)
+     * @return The pixels, as packed ARGB values (see {@link Color#getRGB()}), row by row from the top, left corner,
+     * {@link #getWidth()} pixels to a row
+     */
+    public int[] getPixels(int[] pixels) {
+        return exporter.getPixels(pixels);
+    }
+
+    /**
+     * Encode the contents of the terrarium, on the calling thread, to a stream (without touching the filesystem)
+     *
+     * @param output to which to write the image (left open)
+     * @param format in which to encode the image (PNG is encoded by {@link PngEncoder}, other formats by ImageIO)
+     * @throws IOException if the image could not be written
+     */
+    public void drawTo(OutputStream output, String format) throws IOException {
+        exporter.write(output, format);
+    }
+
+    /**
+     * Encode the contents of the terrarium, on the calling thread, to a channel (e.g. a socket or a file)
+     *
+     * @param channel to which to write the image (left open)
+     * @param format  in which to encode the image (PNG is encoded by {@link PngEncoder}, other formats by ImageIO)
+     * @throws IOException if the image could not be written
+     */
+    public void drawTo(WritableByteChannel channel, String format) throws IOException {
+        exporter.write(channel, format);
+    }
+
+    /**
+     * <p>Encode the contents of the terrarium, on the calling thread, into a buffer</p>
+     *
+     * <p>The buffer is meant to be reused: the image is written from the start of the buffer, and if the buffer is not
+     * large enough, a larger one (of the same kind, direct or not) is allocated in its place, and returned for use the
+     * next time.</p>
+     *
+     * @param buffer in which to encode the image (may be <code>null</code>)
+     * @param format in which to encode the image (PNG is encoded by {@link PngEncoder}, other formats by ImageIO)
+     * @return The buffer holding the image (<code>buffer</code>, if it was large enough), flipped, ready to be read
+     * @throws IOException if the image could not be encoded
+     */
+    public ByteBuffer drawTo(ByteBuffer buffer, String format) throws IOException {
+        return exporter.write(buffer, format);
+    }
+
+    /**
+     * Draw the contents of the terrarium to a file (PNG files are saved by {@link PngEncoder}, other formats by
+     * ImageIO)
      *
      * @param path   Path to the file to be saved
      * @param format Format in which to save the file (anyting accepted by <a href="https://docs.oracle.com/javase/10/docs/api/javax/imageio/ImageIO.html#write(java.awt.image.RenderedImage,java.lang.String,java.io.File)">ImageIO.write()</a>)
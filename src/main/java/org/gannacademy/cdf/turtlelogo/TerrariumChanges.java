@@ -0,0 +1,188 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A {@link Terrarium.ChangeListener}'s subscription to the changes made to a terrarium (see
+ * {@link Terrarium#addChangeListener(Terrarium.ChangeListener, WaitStrategy)})</p>
+ *
+ * <p>Each subscription has its own thread, which reads the terrarium's changes from a shared ring buffer and passes
+ * them to its listener in batches: every track added since the listener last heard, in one list, for example. So the
+ * drawing turtles never wait for a listener, and pay the same small price to publish each change however many
+ * listeners there are. A listener that takes so long that it falls {@link Terrarium#CHANGE_BUFFER_SIZE} changes
+ * behind is told which changes it missed, and carries on from the latest.</p>
+ *
+ * <p>The subscription's thread waits for changes according to its {@link WaitStrategy}.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class TerrariumChanges implements AutoCloseable {
+
+    /**
+     * How a subscription's thread waits for the next change
+     */
+    public enum WaitStrategy {
+        /**
+         * Poll for changes while they keep coming, then park the thread until it is woken by the next change (the least
+         * processor time, the most latency)
+         */
+        BLOCKING,
+
+        /**
+         * Spin, then yield, then sleep briefly and check again (nothing is needed from the drawing turtles to wake the
+         * thread)
+         */
+        SLEEPING,
+
+        /**
+         * Spin, then yield the processor to other threads between checks
+         */
+        YIELDING,
+
+        /**
+         * Check continually (the least latency, but the thread keeps a processor busy)
+         */
+        BUSY_SPIN
+    }
+
+    private final Terrarium terrarium;
+    private final ChangeRing ring;
+    private final Terrarium.ChangeListener listener;
+    private final WaitStrategy strategy;
+    private final Thread thread;
+    private volatile long delivered;
+    private volatile long missed = 0;
+    private volatile boolean closed = false;
+
+    TerrariumChanges(Terrarium terrarium, ChangeRing ring, Terrarium.ChangeListener listener, WaitStrategy strategy, long first) {
+        this.terrarium = terrarium;
+        this.ring = ring;
+        this.listener = listener;
+        this.strategy = strategy;
+        delivered = first - 1;
+        thread = new Thread(this::deliver, "TerrariumChanges");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * @return The listener that is told of the changes
+     */
+    public Terrarium.ChangeListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return How the subscription waits for changes
+     */
+    public WaitStrategy getWaitStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return Number of the last change that the listener has been told of (or missed)
+     */
+    public long getLastChange() {
+        return delivered;
+    }
+
+    /**
+     * @return Number of changes published, but not yet passed to the listener
+     */
+    public long getBacklog() {
+        return Math.max(0, ring.getCursor() - delivered);
+    }
+
+    /**
+     * @return Number of changes that the listener has missed, by falling too far behind
+     */
+    public long getMissedCount() {
+        return missed;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stop telling the listener of changes (a batch that is being delivered is finished first)
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            ring.subscriptions.remove(this);
+            wake();
+        }
+    }
+
+    void wake() {
+        LockSupport.unpark(thread);
+    }
+
+    private void deliver() {
+        List<Track> tracks = new ArrayList<>();
+        List<Track> batch = Collections.unmodifiableList(tracks);
+        while (!closed) {
+            long next = delivered + 1;
+            long available = ring.waitFor(next, strategy, this);
+            if (available < next) {
+                return; // closed
+            }
+            long change = next;
+            while (change <= available) {
+                int type = ring.getType(change);
+                Turtle turtle = null;
+                long first = change;
+                if (type == ChangeRing.TRACK) {
+                    tracks.clear();
+                    while (change <= available && ring.getType(change) == ChangeRing.TRACK) {
+                        tracks.add(ring.getTrack(change++));
+                    }
+                } else {
+                    turtle = ring.getTurtle(change++);
+                }
+                if (!ring.isIntact(first)) {
+                    long latest = ring.getCursor();
+                    missed += latest - first + 1;
+                    tracks.clear();
+                    delivered = latest;
+                    try {
+                        listener.missed(terrarium, first, latest);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(); // keep listening
+                    }
+                    break;
+                }
+                try {
+                    switch (type) {
+                        case ChangeRing.TRACK:
+                            listener.tracksAdded(terrarium, first, batch);
+                            break;
+                        case ChangeRing.CLEAR:
+                            listener.cleared(terrarium, first);
+                            break;
+                        case ChangeRing.REWIND:
+                            listener.rewound(terrarium, first);
+                            break;
+                        case ChangeRing.TURTLE_ADDED:
+                            listener.turtleAdded(terrarium, first, turtle);
+                            break;
+                        default:
+                            listener.turtleRemoved(terrarium, first, turtle);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // keep listening
+                }
+                tracks.clear(); // let the tracks go
+                delivered = change - 1;
+            }
+        }
+    }
+}
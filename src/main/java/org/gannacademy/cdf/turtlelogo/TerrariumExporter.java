@@ -0,0 +1,193 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Encodes the contents of a terrarium as an image, to a stream, a channel, a buffer or a file (see
+ * {@link Terrarium#drawTo(WritableByteChannel, String)})</p>
+ *
+ * <p>The terrarium is drawn into a scratch image that is kept from one export to the next, so long as the terrarium
+ * stays the same size (an export that finds the image in use by another draws into one of its own). PNG images are
+ * encoded by {@link PngEncoder}, at the terrarium's {@link Terrarium#getPngCompressionLevel()}, and other formats by
+ * ImageIO. The time taken by each export, and any failures, are recorded in the terrarium's
+ * {@link Terrarium#getMetrics()}.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class TerrariumExporter {
+
+    private final Terrarium terrarium;
+    private final AtomicReference<BufferedImage> scratch = new AtomicReference<>();
+
+    /**
+     * @param terrarium whose contents are exported
+     */
+    TerrariumExporter(Terrarium terrarium) {
+        this.terrarium = terrarium;
+    }
+
+    /**
+     * @param pixels array to reuse, if it is large enough (may be <code>null</code>)
+     * @return The pixels of the contents of the terrarium (see {@link Terrarium#getPixels(int[])})
+     */
+    int[] getPixels(int[] pixels) {
+        int width = terrarium.getWidth(), height = terrarium.getHeight();
+        if (pixels == null || pixels.length < width * height) {
+            pixels = new int[width * height];
+        }
+        BufferedImage image = borrowScratch(width, height);
+        terrarium.drawTo(image);
+        System.arraycopy(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, pixels, 0, width * height);
+        scratch.set(image);
+        return pixels;
+    }
+
+    /**
+     * @return The scratch image (or a new one, if it is in use or is the wrong size), to be returned to
+     * {@link #scratch} when done with
+     */
+    private BufferedImage borrowScratch(int width, int height) {
+        BufferedImage image = scratch.getAndSet(null);
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        return image;
+    }
+
+    /**
+     * @param output to which to write the image (left open)
+     * @param format in which to encode the image
+     * @throws IOException if the image could not be written
+     */
+    void write(OutputStream output, String format) throws IOException {
+        if (format.equalsIgnoreCase("PNG")) {
+            write(Channels.newChannel(output), format);
+        } else {
+            encode(image -> {
+                ImageWriter writer = getImageWriter(image, format);
+                try (ImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+                    writer.setOutput(stream);
+                    writer.write(image);
+                } finally {
+                    writer.dispose();
+                }
+            });
+        }
+    }
+
+    /**
+     * @param channel to which to write the image (left open)
+     * @param format  in which to encode the image
+     * @throws IOException if the image could not be written
+     */
+    void write(WritableByteChannel channel, String format) throws IOException {
+        if (format.equalsIgnoreCase("PNG")) {
+            encode(image -> new PngEncoder(terrarium.getPngCompressionLevel()).write(image, channel));
+        } else {
+            write(Channels.newOutputStream(channel), format);
+        }
+    }
+
+    /**
+     * @param buffer in which to encode the image (may be <code>null</code>)
+     * @param format in which to encode the image
+     * @return The buffer holding the image (see {@link Terrarium#drawTo(ByteBuffer, String)}), flipped
+     * @throws IOException if the image could not be encoded
+     */
+    ByteBuffer write(ByteBuffer buffer, String format) throws IOException {
+        ByteBufferChannel channel = new ByteBufferChannel(buffer == null ? ByteBuffer.allocate(64 * 1024) : buffer);
+        write(channel, format);
+        return channel.buffer.flip();
+    }
+
+    /**
+     * @param file   to be saved (replaced, if it exists)
+     * @param format in which to save the file
+     * @throws IOException if the file could not be saved
+     */
+    void write(File file, String format) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, format);
+        }
+    }
+
+    /**
+     * A channel that writes into a buffer, replacing it with a larger one as needed
+     */
+    private static class ByteBufferChannel implements WritableByteChannel {
+        ByteBuffer buffer;
+
+        ByteBufferChannel(ByteBuffer buffer) {
+            this.buffer = buffer;
+            buffer.clear();
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            int length = source.remaining();
+            if (buffer.remaining() < length) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+                ByteBuffer larger = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+                larger.put(buffer.flip());
+                buffer = larger;
+            }
+            buffer.put(source);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private interface Encoder {
+        void encode(BufferedImage image) throws IOException;
+    }
+
+    /**
+     * Draw the contents of the terrarium into the scratch image, and encode it
+     */
+    private void encode(Encoder encoder) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = borrowScratch(terrarium.getWidth(), terrarium.getHeight());
+        try {
+            terrarium.drawTo(image);
+            encoder.encode(image);
+            terrarium.getMetrics().exported(System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            terrarium.getMetrics().exportFailed();
+            throw e;
+        } finally {
+            scratch.set(image);
+        }
+    }
+
+    private static ImageWriter getImageWriter(BufferedImage image, String format) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image), format);
+        if (!writers.hasNext()) {
+            throw new IOException("No ImageIO writer can save this image as " + format);
+        }
+        return writers.next();
+    }
+}
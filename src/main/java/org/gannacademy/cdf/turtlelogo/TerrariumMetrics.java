@@ -0,0 +1,348 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Instrumentation of a single {@link Terrarium}, available via {@link Terrarium#getMetrics()} and over JMX (see
+ * {@link TerrariumMetricsMXBean})</p>
+ *
+ * <p>All counters are striped ({@link LongAdder}, {@link Histogram}), so that recording them adds no contention to
+ * the drawing hot path. Gauges (like the track count) are read from the terrarium when asked for, and cost nothing
+ * while drawing.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class TerrariumMetrics implements TerrariumMetricsMXBean {
+
+    /**
+     * <code>org.gannacademy.cdf.turtlelogo</code>
+     */
+    public static final String JMX_DOMAIN = "org.gannacademy.cdf.turtlelogo";
+
+    /**
+     * Estimated heap footprint of a single segment track (the {@link Track}, its segment and its slot in the track
+     * list), in bytes
+     */
+    public static final long ESTIMATED_BYTES_PER_TRACK = 88;
+
+    /**
+     * System property that, when <code>true</code>, reports the time to the first turtle and the first frame of the
+     * first terrarium on the standard error stream
+     */
+    public static final String STARTUP_REPORT_PROPERTY = JMX_DOMAIN + ".startupReport";
+
+    private static final AtomicInteger nextSerial = new AtomicInteger();
+    private static final AtomicBoolean reported = new AtomicBoolean();
+    private static ExecutorService background;
+
+    /**
+     * <p>The registration of an MXBean, which may be completed in the background</p>
+     *
+     * <p>Looking up the platform MBean server for the first time takes a few hundred milliseconds, which would
+     * otherwise be spent before the first turtle could be drawn (see {@link Terrarium#setFastStartup(boolean)}).</p>
+     */
+    static final class Registration {
+        private final Object mbean;
+        private final String type, name;
+        private ObjectName objectName;
+        private boolean cancelled = false;
+
+        /**
+         * @param mbean        to register
+         * @param type         of object instrumented
+         * @param name         of object instrumented
+         * @param inBackground <code>true</code> to register the MXBean on a background thread
+         */
+        Registration(Object mbean, String type, String name, boolean inBackground) {
+            this.mbean = mbean;
+            this.type = type;
+            this.name = name;
+            if (inBackground) {
+                background().execute(this::complete);
+            } else {
+                complete();
+            }
+        }
+
+        private synchronized void complete() {
+            if (!cancelled && objectName == null) {
+                objectName = register(mbean, type, name);
+            }
+        }
+
+        /**
+         * Unregister the MXBean (or make sure that it is never registered, if that has not happened yet)
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            unregister(objectName);
+            objectName = null;
+        }
+    }
+
+    private static synchronized ExecutorService background() {
+        if (background == null) {
+            background = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "TerrariumMetrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return background;
+    }
+
+    private final Terrarium terrarium;
+    private final String name;
+    private final LongAdder repaintRequests;
+    private final Histogram paints;
+    private final Histogram exports;
+    private final LongAdder exportFailures;
+    private final Histogram flattens;
+    private final LongAdder flattenedTracks;
+    private volatile long firstTurtleNanos = 0, firstFrameNanos = 0;
+
+    TerrariumMetrics(Terrarium terrarium) {
+        this.terrarium = terrarium;
+        this.name = "terrarium-" + nextSerial.getAndIncrement();
+        repaintRequests = new LongAdder();
+        paints = new Histogram();
+        exports = new Histogram();
+        exportFailures = new LongAdder();
+        flattens = new Histogram();
+        flattenedTracks = new LongAdder();
+    }
+
+    /**
+     * Register an MXBean with the platform MBean server (failures are reported, but otherwise ignored: metrics are
+     * never worth breaking a drawing for)
+     *
+     * @param mbean to register
+     * @param type  of object instrumented
+     * @param name  of object instrumented
+     * @return The name under which the MXBean was registered (or <code>null</code> if registration failed)
+     */
+    static ObjectName register(Object mbean, String type, String name) {
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+            return objectName;
+        } catch (JMException | SecurityException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Unregister an MXBean from the platform MBean server
+     *
+     * @param objectName under which the MXBean was registered (may be <code>null</code>)
+     */
+    static void unregister(ObjectName objectName) {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException | SecurityException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    Registration register(boolean inBackground) {
+        return new Registration(this, "Terrarium", name, inBackground);
+    }
+
+    /**
+     * @return Name of the instrumented terrarium (as used in its JMX object name)
+     */
+    public String getName() {
+        return name;
+    }
+
+    void turtleAdded() {
+        if (firstTurtleNanos == 0) {
+            firstTurtleNanos = System.nanoTime();
+            report();
+        }
+    }
+
+    void frameDrawn() {
+        if (firstFrameNanos == 0) {
+            firstFrameNanos = System.nanoTime();
+            report();
+        }
+    }
+
+    /**
+     * Report the startup times of the first terrarium to get both a turtle and a frame, if asked to (see
+     * {@link #STARTUP_REPORT_PROPERTY})
+     */
+    private void report() {
+        if (firstTurtleNanos != 0 && firstFrameNanos != 0 && Boolean.getBoolean(STARTUP_REPORT_PROPERTY)
+            && reported.compareAndSet(false, true)) {
+            System.err.println(name + ": first turtle " + getTimeToFirstTurtle() + "ms, first frame "
+                + getTimeToFirstFrame() + "ms after the JVM started");
+        }
+    }
+
+    /**
+     * @param nanos {@link System#nanoTime()} of an event (or 0 if it has not happened)
+     * @return Milliseconds from the start of the JVM to the event, or -1 if it has not happened
+     */
+    private static long sinceStartup(long nanos) {
+        if (nanos == 0) {
+            return -1;
+        }
+        return ManagementFactory.getRuntimeMXBean().getUptime() - (System.nanoTime() - nanos) / 1_000_000;
+    }
+
+    @Override
+    public long getTimeToFirstTurtle() {
+        return sinceStartup(firstTurtleNanos);
+    }
+
+    @Override
+    public long getTimeToFirstFrame() {
+        return sinceStartup(firstFrameNanos);
+    }
+
+    void repaintRequested() {
+        repaintRequests.increment();
+    }
+
+    void painted(long nanos) {
+        paints.record(nanos);
+    }
+
+    void exported(long nanos) {
+        exports.record(nanos);
+    }
+
+    void exportFailed() {
+        exportFailures.increment();
+    }
+
+    void flattened(long tracks, long nanos) {
+        flattenedTracks.add(tracks);
+        flattens.record(nanos);
+    }
+
+    @Override
+    public long getTrackCount() {
+        return terrarium.peekTrackCount();
+    }
+
+    @Override
+    public long getEstimatedTrackBytes() {
+        return terrarium.peekEstimatedTrackBytes();
+    }
+
+    @Override
+    public long getOffHeapTrackBytes() {
+        return terrarium.getTrackStore().getOffHeapBytes();
+    }
+
+    @Override
+    public long getFlattenedLayerBytes() {
+        return terrarium.getFlattenedLayerBytes();
+    }
+
+    @Override
+    public long getFlattenCount() {
+        return flattens.getCount();
+    }
+
+    @Override
+    public long getFlattenedTrackTotal() {
+        return flattenedTracks.sum();
+    }
+
+    @Override
+    public double getMeanFlattenNanos() {
+        return flattens.getMean();
+    }
+
+    @Override
+    public int getTurtleCount() {
+        return terrarium.getTurtleCount();
+    }
+
+    @Override
+    public long getRepaintRequestCount() {
+        return repaintRequests.sum();
+    }
+
+    @Override
+    public long getPaintCount() {
+        return paints.getCount();
+    }
+
+    @Override
+    public double getMeanPaintNanos() {
+        return paints.getMean();
+    }
+
+    @Override
+    public long getP99PaintNanos() {
+        return paints.getPercentile(0.99);
+    }
+
+    @Override
+    public long getMaxPaintNanos() {
+        return paints.getMax();
+    }
+
+    @Override
+    public long[] getPaintDurationHistogram() {
+        return paints.getBuckets();
+    }
+
+    /**
+     * @return On-screen paint durations, in nanoseconds
+     */
+    public Histogram getPaintDurations() {
+        return paints;
+    }
+
+    @Override
+    public long getExportCount() {
+        return exports.getCount();
+    }
+
+    @Override
+    public long getExportFailureCount() {
+        return exportFailures.sum();
+    }
+
+    @Override
+    public double getMeanExportNanos() {
+        return exports.getMean();
+    }
+
+    @Override
+    public long[] getExportDurationHistogram() {
+        return exports.getBuckets();
+    }
+
+    /**
+     * @return Successful export durations, in nanoseconds
+     */
+    public Histogram getExportDurations() {
+        return exports;
+    }
+
+    @Override
+    public void reset() {
+        repaintRequests.reset();
+        paints.reset();
+        exports.reset();
+        exportFailures.reset();
+        flattens.reset();
+        flattenedTracks.reset();
+    }
+}
@@ -0,0 +1,122 @@
+package org.gannacademy.cdf.turtlelogo;
+
+/**
+ * <p>Management interface of {@link TerrariumMetrics}, registered with the platform MBean server under
+ * <code>org.gannacademy.cdf.turtlelogo:type=Terrarium,name=terrarium-<i>n</i></code></p>
+ *
+ * <p>Durations are reported in nanoseconds. Histograms are reported as bucket counts, as described in
+ * {@link Histogram}.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public interface TerrariumMetricsMXBean {
+
+    /**
+     * @return Number of track segments currently held by the terrarium (each polyline counts as many segments),
+     * including those still in append buffers, which are counted without being published
+     */
+    long getTrackCount();
+
+    /**
+     * @return Milliseconds from the start of the JVM until the first turtle was added to the terrarium (or -1)
+     */
+    long getTimeToFirstTurtle();
+
+    /**
+     * @return Milliseconds from the start of the JVM until the terrarium was first drawn, on screen or to a file (or
+     * -1)
+     */
+    long getTimeToFirstFrame();
+
+    /**
+     * @return Estimate of the heap consumed by the terrarium's tracks, in bytes
+     */
+    long getEstimatedTrackBytes();
+
+    /**
+     * @return Memory consumed by the terrarium's tracks outside of the heap (see {@link TrackStore#memoryMapped()}),
+     * in bytes
+     */
+    long getOffHeapTrackBytes();
+
+    /**
+     * @return Size of the raster layer holding flattened tracks, in bytes
+     */
+    long getFlattenedLayerBytes();
+
+    /**
+     * @return Number of times tracks have been flattened into the raster layer (see
+     * {@link Terrarium#setTrackBudget(int)})
+     */
+    long getFlattenCount();
+
+    /**
+     * @return Total number of tracks flattened into the raster layer
+     */
+    long getFlattenedTrackTotal();
+
+    /**
+     * @return Mean duration of a flatten
+     */
+    double getMeanFlattenNanos();
+
+    /**
+     * @return Number of turtles currently living in the terrarium
+     */
+    int getTurtleCount();
+
+    /**
+     * @return Number of repaints requested of the terrarium
+     */
+    long getRepaintRequestCount();
+
+    /**
+     * @return Number of times the terrarium has actually been painted on screen
+     */
+    long getPaintCount();
+
+    /**
+     * @return Mean duration of an on-screen paint
+     */
+    double getMeanPaintNanos();
+
+    /**
+     * @return 99th percentile duration of an on-screen paint
+     */
+    long getP99PaintNanos();
+
+    /**
+     * @return Longest on-screen paint
+     */
+    long getMaxPaintNanos();
+
+    /**
+     * @return On-screen paint durations, bucketed
+     */
+    long[] getPaintDurationHistogram();
+
+    /**
+     * @return Number of successful exports (e.g. {@link Terrarium#drawTo(String, String)})
+     */
+    long getExportCount();
+
+    /**
+     * @return Number of exports that failed
+     */
+    long getExportFailureCount();
+
+    /**
+     * @return Mean duration of a successful export
+     */
+    double getMeanExportNanos();
+
+    /**
+     * @return Successful export durations, bucketed
+     */
+    long[] getExportDurationHistogram();
+
+    /**
+     * Forget all recorded counts and durations (gauges, like track count, are unaffected)
+     */
+    void reset();
+}
@@ -0,0 +1,566 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Publish a terrarium's drawing over the network, to be watched live by {@link TerrariumViewer}s</p>
+ *
+ * <pre>
+ * Terrarium terrarium = new Terrarium();
+ * try (TerrariumPublisher publisher = new TerrariumPublisher(terrarium, 5555)) {
+ *     Turtle turtle = new Turtle(terrarium);
+ *     // ... draw, while viewers run java org.gannacademy.cdf.turtlelogo.TerrariumViewer host:5555
+ * }
+ * </pre>
+ *
+ * <p>Rather than sending pictures, the publisher sends each viewer the tracks that have been added since it last
+ * heard, and where the turtles are, every {@link #DEFAULT_INTERVAL} milliseconds (or at a chosen interval), so that a
+ * drawing of millions of tracks costs a few bytes per track, once, however long it is watched. The publisher is a
+ * {@link Terrarium.ChangeListener}, so the drawing turtles do not wait for it: the tracks are encoded, and sent, in
+ * the background (see {@link TrackDeltas} for the format). Every viewer is sent the same bytes, and each has its own
+ * bounded queue, so a slow viewer does not hold up the others (or the turtles): if it falls too far behind, what it
+ * has not yet been sent is dropped, and it is sent a fresh snapshot of the whole terrarium once it catches up (read a
+ * few thousand tracks at a time, so that the turtles are never kept waiting for long). A viewer that connects
+ * late, or reconnects, starts from a snapshot, as does every viewer after the tracks are rewound.</p>
+ *
+ * <p>The shared tracks, the flattened raster layer (as a PNG image), the size and background of the terrarium, and
+ * the turtles are published; {@link TrackLayer}s and {@link TurtleSwarm}s are not. Coordinates are rounded to
+ * 1/256 of a pixel, and pens that are not {@link BasicStroke}s are published as the default pen.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class TerrariumPublisher implements AutoCloseable {
+
+    /**
+     * Default interval between updates, in milliseconds
+     */
+    public static final int DEFAULT_INTERVAL = 50;
+
+    /**
+     * Most bytes queued for a single viewer, before it is considered to have fallen behind
+     */
+    public static final int MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Longest that a viewer goes without hearing from the publisher, in milliseconds (an empty update is sent, if
+     * nothing has changed)
+     */
+    static final int HEARTBEAT = 1000;
+
+    /**
+     * Most tracks of a snapshot copied at a time, while the terrarium is locked
+     */
+    private static final int SNAPSHOT_SLICE = 4096;
+
+    private final Terrarium terrarium;
+    private final ServerSocket server;
+    private final int interval;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final TerrariumChanges subscription;
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Marks the changes, among the pending tracks, that are not tracks
+     */
+    private static final Object CLEARED = new Object(), REWOUND = new Object(), OTHER = new Object();
+
+    // guarded by the publisher's lock
+    private final List<Object> pending = new ArrayList<>(); // every change since the last update, in order
+    private long pendingChange; // number of the first pending change
+    private boolean resyncPending = false;
+
+    // confined to the publishing thread
+    private final Map<Integer, float[]> poses = new HashMap<>();
+    private long lastSent;
+    private boolean snapshotCutShort = false;
+
+    /**
+     * Publish a terrarium on a port of every network interface
+     *
+     * @param terrarium to publish
+     * @param port      to listen on (or 0, for any free port: see {@link #getPort()})
+     * @throws IOException if the port cannot be listened on
+     */
+    public TerrariumPublisher(Terrarium terrarium, int port) throws IOException {
+        this(terrarium, new InetSocketAddress(port), DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Publish a terrarium
+     *
+     * @param terrarium to publish
+     * @param address   to listen on
+     * @param interval  between updates, in milliseconds
+     * @throws IOException if the address cannot be listened on
+     */
+    public TerrariumPublisher(Terrarium terrarium, InetSocketAddress address, int interval) throws IOException {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.terrarium = terrarium;
+        this.interval = interval;
+        server = new ServerSocket();
+        server.bind(address);
+        subscription = terrarium.addChangeListener(new Listener());
+        start(this::accept, "TerrariumPublisher");
+        start(this::publish, "TerrariumPublisher updates");
+    }
+
+    private static void start(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return Port on which viewers may connect
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return Number of viewers currently connected
+     */
+    public int getViewerCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return Bytes sent to all viewers, so far
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return Number of times a viewer fell so far behind that it had to be sent a fresh snapshot
+     */
+    public long getResyncCount() {
+        return resyncs.get();
+    }
+
+    /**
+     * Stop publishing, and disconnect every viewer
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        subscription.close();
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Client client = new Client(socket);
+                clients.add(client);
+                start(client, "TerrariumPublisher " + socket.getRemoteSocketAddress());
+            } catch (SocketException e) {
+                return; // closed
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void publish() {
+        while (!closed) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                update();
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep publishing
+            }
+        }
+    }
+
+    /**
+     * Send every viewer the changes since the last update (or a snapshot, if it needs one)
+     */
+    private void update() {
+        boolean resync;
+        synchronized (this) {
+            resync = resyncPending;
+            resyncPending = false;
+        }
+        boolean snapshotWanted = resync;
+        for (Client client : clients) {
+            snapshotWanted |= client.wantsSnapshot();
+        }
+        long lastChange;
+        List<Turtle> turtles;
+        List<float[]> current = new ArrayList<>();
+        List<TrackDeltas.Encoder> snapshot = null;
+        long snapshotTracks = 0, snapshotEdits = 0;
+        BufferedImage raster = null;
+        int width, height;
+        Color background;
+        synchronized (terrarium) {
+            lastChange = terrarium.getLastChange();
+            turtles = terrarium.getTurtles();
+            for (Turtle turtle : turtles) {
+                current.add(new float[]{(float) turtle.getX(), (float) turtle.getY(), (float) turtle.getHeadingInDegrees(), turtle.isHidden() ? 1 : 0});
+            }
+            width = terrarium.getWidth();
+            height = terrarium.getHeight();
+            background = terrarium.getBackground();
+            if (snapshotWanted) {
+                snapshotTracks = terrarium.getTrackStore().size();
+                snapshotEdits = terrarium.getTrackEdits();
+                if (snapshotCutShort) {
+                    // the last snapshot was cut short, so read this one while still locked, so that tracks that are
+                    // flattened as fast as they can be read cannot keep the viewers from ever catching up
+                    snapshot = snapshot(snapshotTracks, snapshotEdits, Integer.MAX_VALUE);
+                }
+                BufferedImage flattened = terrarium.getFlattened();
+                if (flattened != null) {
+                    raster = new BufferedImage(flattened.getWidth(), flattened.getHeight(), BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D context = raster.createGraphics();
+                    context.drawImage(flattened, 0, 0, null);
+                    context.dispose();
+                }
+            }
+        }
+        if (snapshotWanted) {
+            if (snapshot == null) {
+                snapshot = snapshot(snapshotTracks, snapshotEdits, SNAPSHOT_SLICE);
+            }
+            snapshotCutShort = snapshot == null;
+            if (snapshot == null && resync) {
+                synchronized (this) {
+                    resyncPending = true; // try again next time
+                }
+            }
+        }
+
+        // the delta is every change up to the snapshot (and no further), once the listener has been told of them
+        while (subscription.getLastChange() < lastChange && !closed) {
+            LockSupport.parkNanos(100_000);
+        }
+        List<Object> changes;
+        synchronized (this) {
+            int count = (int) Math.max(0, Math.min(pending.size(), lastChange - pendingChange + 1));
+            changes = new ArrayList<>(pending.subList(0, count));
+            pending.subList(0, count).clear();
+            pendingChange += count;
+        }
+        TrackDeltas.Encoder delta = new TrackDeltas.Encoder();
+        for (Object change : changes) {
+            if (change instanceof Track) {
+                delta.track((Track) change);
+            } else if (change == CLEARED) {
+                delta.clear();
+            } else if (change == REWOUND && !resync) {
+                synchronized (this) {
+                    resyncPending = true; // every viewer is sent a snapshot next time
+                }
+            }
+        }
+        Map<Integer, float[]> previous = new HashMap<>(poses);
+        poses.clear();
+        for (int i = 0; i < turtles.size(); i++) {
+            int serial = turtles.get(i).getSerial();
+            float[] pose = current.get(i);
+            float[] last = previous.remove(serial);
+            if (last == null || !Arrays.equals(last, pose)) {
+                delta.pose(serial, pose[0], pose[1], pose[2], pose[3] != 0);
+            }
+            poses.put(serial, pose);
+        }
+        for (int serial : previous.keySet()) {
+            delta.gone(serial);
+        }
+
+        byte[][] snapshotBatches = null;
+        if (snapshot != null) {
+            TrackDeltas.Encoder header = new TrackDeltas.Encoder();
+            header.size(width, height, background);
+            header.clear();
+            header.reset(); // forget turtles that left while the viewer was not being sent deltas
+            if (raster != null) {
+                header.raster(png(raster));
+            }
+            TrackDeltas.Encoder last = snapshot.get(snapshot.size() - 1);
+            for (int i = 0; i < turtles.size(); i++) {
+                float[] pose = current.get(i);
+                last.pose(turtles.get(i).getSerial(), pose[0], pose[1], pose[2], pose[3] != 0);
+            }
+            snapshotBatches = new byte[1 + snapshot.size()][];
+            snapshotBatches[0] = header.toByteArray();
+            for (int i = 0; i < snapshot.size(); i++) {
+                snapshotBatches[i + 1] = snapshot.get(i).toByteArray();
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        byte[] batch = null;
+        if (!delta.isEmpty() || now - lastSent >= HEARTBEAT) {
+            batch = delta.toByteArray();
+            lastSent = now;
+        }
+        for (Client client : clients) {
+            if (snapshotBatches != null && (resync || client.takeSnapshot())) {
+                client.sendSnapshot(snapshotBatches);
+            } else if (batch != null) {
+                client.send(batch);
+            }
+        }
+    }
+
+    /**
+     * Encode the terrarium's first tracks (as they were when the snapshot was taken), a slice at a time, copying each
+     * slice while the terrarium is locked and encoding it once the drawing turtles have been let go
+     *
+     * @param count of tracks in the snapshot
+     * @param edits of the tracks, when the snapshot was taken (see {@link Terrarium#getTrackEdits()})
+     * @param slice most tracks to copy at a time
+     * @return The tracks, in batches of about {@link TrackDeltas#SNAPSHOT_BATCH} bytes, or <code>null</code> if the
+     * tracks were cleared, rewound or flattened before they could all be read
+     */
+    private List<TrackDeltas.Encoder> snapshot(long count, long edits, int slice) {
+        List<TrackDeltas.Encoder> snapshot = new ArrayList<>();
+        TrackDeltas.Encoder batch = new TrackDeltas.Encoder();
+        snapshot.add(batch);
+        List<Track> copies = new ArrayList<>();
+        TrackStore.Cursor track = null;
+        for (long read = 0; read < count; ) {
+            copies.clear();
+            synchronized (terrarium) {
+                if (terrarium.getTrackEdits() != edits) {
+                    return null;
+                }
+                if (track == null) {
+                    track = terrarium.getTrackStore().cursor();
+                }
+                while (copies.size() < slice && read < count && track.next()) {
+                    double[] points = new double[2 * track.getVertexCount()];
+                    for (int i = 0; i < track.getVertexCount(); i++) {
+                        points[2 * i] = track.getX(i);
+                        points[2 * i + 1] = track.getY(i);
+                    }
+                    copies.add(new Track(points, track.getColor(), track.getStroke(), Turtle.UNDER_THE_SHELL));
+                    read++;
+                }
+            }
+            if (copies.isEmpty()) {
+                break;
+            }
+            for (Track copy : copies) {
+                if (batch.size() >= TrackDeltas.SNAPSHOT_BATCH) {
+                    batch = new TrackDeltas.Encoder();
+                    snapshot.add(batch);
+                }
+                batch.track(copy);
+            }
+        }
+        return snapshot;
+    }
+
+    private static byte[] png(BufferedImage image) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new PngEncoder().write(image, Channels.newChannel(bytes));
+        } catch (IOException e) {
+            throw new AssertionError(e); // cannot happen, writing to an array
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Collects the terrarium's changes until the next update
+     */
+    private class Listener implements Terrarium.ChangeListener {
+        @Override
+        public void tracksAdded(Terrarium terrarium, long change, List<Track> tracks) {
+            synchronized (TerrariumPublisher.this) {
+                start(change);
+                pending.addAll(tracks);
+            }
+        }
+
+        @Override
+        public void cleared(Terrarium terrarium, long change) {
+            add(change, CLEARED);
+        }
+
+        @Override
+        public void rewound(Terrarium terrarium, long change) {
+            add(change, REWOUND);
+        }
+
+        @Override
+        public void turtleAdded(Terrarium terrarium, long change, Turtle turtle) {
+            add(change, OTHER); // turtles are published by polling their poses
+        }
+
+        @Override
+        public void turtleRemoved(Terrarium terrarium, long change, Turtle turtle) {
+            add(change, OTHER);
+        }
+
+        @Override
+        public void missed(Terrarium terrarium, long first, long last) {
+            synchronized (TerrariumPublisher.this) {
+                pending.clear();
+                pendingChange = last + 1;
+                resyncPending = true;
+            }
+        }
+
+        private void add(long change, Object marker) {
+            synchronized (TerrariumPublisher.this) {
+                start(change);
+                pending.add(marker);
+            }
+        }
+
+        private void start(long change) {
+            if (pending.isEmpty()) {
+                pendingChange = change;
+            }
+        }
+    }
+
+    /**
+     * A connected viewer, and the batches waiting to be sent to it
+     */
+    private class Client implements Runnable {
+        private final Socket socket;
+        private final Queue<byte[]> queue = new ArrayDeque<>();
+        private long queued = 0;
+        private boolean needsSnapshot = true;
+        private boolean sending = false; // a batch is being written to the socket
+
+        Client(Socket socket) {
+            this.socket = socket;
+        }
+
+        synchronized boolean wantsSnapshot() {
+            return needsSnapshot && queue.isEmpty() && !sending;
+        }
+
+        /**
+         * @return <code>true</code> if the viewer needs a snapshot, and is ready for it (having received everything
+         * sent before it)
+         */
+        synchronized boolean takeSnapshot() {
+            if (wantsSnapshot()) {
+                needsSnapshot = false;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void send(byte[] batch) {
+            if (needsSnapshot) {
+                return; // the snapshot will include it
+            }
+            if (queued + batch.length > MAX_QUEUED_BYTES) {
+                queue.clear();
+                queued = 0;
+                needsSnapshot = true;
+                resyncs.incrementAndGet();
+                return;
+            }
+            queue.add(batch);
+            queued += batch.length;
+            notifyAll();
+        }
+
+        synchronized void sendSnapshot(byte[][] batches) {
+            queue.clear(); // the snapshot replaces anything queued before it
+            queued = 0;
+            needsSnapshot = false;
+            for (byte[] batch : batches) {
+                queue.add(batch);
+                queued += batch.length;
+            }
+            notifyAll();
+        }
+
+        private synchronized byte[] take() throws InterruptedException {
+            sending = false;
+            while (queue.isEmpty() && !closed && !socket.isClosed()) {
+                wait(HEARTBEAT);
+            }
+            byte[] batch = queue.poll();
+            if (batch != null) {
+                queued -= batch.length;
+                sending = true;
+            }
+            return batch;
+        }
+
+        @Override
+        public void run() {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+                out.writeInt(TrackDeltas.MAGIC);
+                out.writeInt(TrackDeltas.VERSION);
+                out.flush();
+                bytesSent.addAndGet(8);
+                byte[] batch;
+                while ((batch = take()) != null) {
+                    out.writeInt(batch.length);
+                    out.write(batch);
+                    out.flush();
+                    bytesSent.addAndGet(4 + batch.length);
+                }
+            } catch (IOException | InterruptedException e) {
+                // the viewer has disconnected
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            clients.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Watch a terrarium published by a {@link TerrariumPublisher}, live, in a terrarium of your own</p>
+ *
+ * <pre>
+ * java -cp turtlelogo.jar org.gannacademy.cdf.turtlelogo.TerrariumViewer host:5555
+ * </pre>
+ *
+ * <p>The published tracks are added to the local terrarium as they arrive, and the published turtles are shown by
+ * stand-in turtles (with their pens up), so the local terrarium can be zoomed, panned, exported or even drawn in by
+ * turtles of its own. If the connection is lost, the viewer keeps trying to reconnect, every
+ * {@link #RETRY_INTERVAL} milliseconds, and catches up from a fresh snapshot when it does.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class TerrariumViewer implements AutoCloseable {
+
+    /**
+     * Interval between attempts to reconnect, in milliseconds
+     */
+    public static final int RETRY_INTERVAL = 1000;
+
+    /**
+     * Longest to wait for the publisher (which sends a heartbeat every second) before giving up on the connection, in
+     * milliseconds
+     */
+    private static final int TIMEOUT = 5000;
+
+    private final Terrarium terrarium;
+    private final String host;
+    private final int port;
+    private final Map<Integer, Turtle> turtles = new HashMap<>();
+    private volatile Socket socket;
+    private volatile boolean connected = false, closed = false;
+    private volatile long bytesReceived = 0, connections = 0;
+
+    /**
+     * Watch a published terrarium
+     *
+     * @param terrarium in which to show it
+     * @param host      of the publisher
+     * @param port      of the publisher
+     */
+    public TerrariumViewer(Terrarium terrarium, String host, int port) {
+        if (port <= 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid port " + port);
+        }
+        this.terrarium = terrarium;
+        this.host = host;
+        this.port = port;
+        Thread thread = new Thread(this::watch, "TerrariumViewer " + host + ":" + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return <code>true</code> if currently connected to the publisher
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return Bytes received from the publisher, so far
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return Number of times the viewer has connected to the publisher
+     */
+    public long getConnectionCount() {
+        return connections;
+    }
+
+    /**
+     * Stop watching (the local terrarium keeps what it has been sent)
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void watch() {
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+                socket.setSoTimeout(TIMEOUT);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                if (in.readInt() != TrackDeltas.MAGIC || in.readInt() != TrackDeltas.VERSION) {
+                    throw new IOException("Not a compatible terrarium publisher");
+                }
+                bytesReceived += 8;
+                connected = true;
+                connections++;
+                forgetTurtles(); // the publisher starts with a snapshot
+                while (!closed) {
+                    int length = in.readInt();
+                    if (length < 0 || length > TrackDeltas.MAX_BATCH) {
+                        throw new IOException("Malformed batch"); // reconnect, and start again from a snapshot
+                    }
+                    byte[] batch = new byte[length];
+                    in.readFully(batch);
+                    bytesReceived += 4 + batch.length;
+                    if (batch.length > 0) {
+                        apply(batch);
+                    }
+                }
+            } catch (IOException e) {
+                // lost (or never made) the connection: try again
+            } finally {
+                connected = false;
+            }
+            if (!closed) {
+                try {
+                    Thread.sleep(RETRY_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void forgetTurtles() {
+        for (Turtle turtle : turtles.values()) {
+            terrarium.remove(turtle, Turtle.UNDER_THE_SHELL);
+        }
+        turtles.clear();
+    }
+
+    /**
+     * Apply one batch of operations to the local terrarium (adding all of its tracks at once)
+     */
+    private void apply(byte[] batch) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+        List<Color> colors = new ArrayList<>();
+        List<Stroke> strokes = new ArrayList<>();
+        List<Track> tracks = new ArrayList<>();
+        int pen = -1;
+        long x = 0, y = 0;
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            switch (op) {
+                case TrackDeltas.SIZE:
+                    int width = in.readInt(), height = in.readInt();
+                    Color background = new Color(in.readInt(), true);
+                    if (width != terrarium.getWidth() || height != terrarium.getHeight()) {
+                        terrarium.setSize(width, height);
+                    }
+                    terrarium.setBackground(background);
+                    break;
+                case TrackDeltas.CLEAR:
+                    tracks.clear();
+                    terrarium.clear();
+                    break;
+                case TrackDeltas.RASTER:
+                    int length = in.readInt();
+                    if (length < 0 || length > in.available()) {
+                        throw new IOException("Malformed raster");
+                    }
+                    byte[] png = new byte[length];
+                    in.readFully(png);
+                    terrarium.setFlattened(ImageIO.read(new ByteArrayInputStream(png)));
+                    break;
+                case TrackDeltas.PEN:
+                    colors.add(new Color(in.readInt(), true));
+                    float lineWidth = in.readFloat();
+                    int cap = in.readByte(), join = in.readByte();
+                    strokes.add(new BasicStroke(lineWidth, cap, join, Math.max(1, in.readFloat())));
+                    break;
+                case TrackDeltas.TRACK:
+                case TrackDeltas.CONTINUE:
+                    int vertices;
+                    if (op == TrackDeltas.TRACK) {
+                        pen = (int) TrackDeltas.readVarLong(in);
+                        vertices = (int) TrackDeltas.readVarLong(in);
+                        x = y = 0;
+                    } else {
+                        vertices = (int) TrackDeltas.readVarLong(in) + 1;
+                    }
+                    if (pen < 0 || pen >= colors.size() || vertices < 2) {
+                        throw new IOException("Malformed track");
+                    }
+                    double[] points = new double[2 * vertices];
+                    int first = 0;
+                    if (op == TrackDeltas.CONTINUE) {
+                        points[0] = x * TrackDeltas.RESOLUTION;
+                        points[1] = y * TrackDeltas.RESOLUTION;
+                        first = 1;
+                    }
+                    for (int i = first; i < vertices; i++) {
+                        x += TrackDeltas.readVarLong(in);
+                        y += TrackDeltas.readVarLong(in);
+                        points[2 * i] = x * TrackDeltas.RESOLUTION;
+                        points[2 * i + 1] = y * TrackDeltas.RESOLUTION;
+                    }
+                    tracks.add(new Track(points, colors.get(pen), strokes.get(pen), Turtle.UNDER_THE_SHELL));
+                    break;
+                case TrackDeltas.POSE:
+                    int serial = (int) TrackDeltas.readVarLong(in);
+                    float turtleX = in.readFloat(), turtleY = in.readFloat(), heading = in.readFloat();
+                    boolean hidden = in.readByte() != 0;
+                    Turtle turtle = turtles.get(serial);
+                    if (turtle == null) {
+                        turtle = new Turtle(terrarium);
+                        turtle.pu();
+                        turtles.put(serial, turtle);
+                    }
+                    turtle.teleport(turtleX, turtleY);
+                    turtle.head(heading);
+                    if (hidden != turtle.isHidden()) {
+                        if (hidden) {
+                            turtle.hide();
+                        } else {
+                            turtle.show();
+                        }
+                    }
+                    break;
+                case TrackDeltas.RESET:
+                    forgetTurtles();
+                    break;
+                case TrackDeltas.GONE:
+                    Turtle gone = turtles.remove((int) TrackDeltas.readVarLong(in));
+                    if (gone != null) {
+                        terrarium.remove(gone, Turtle.UNDER_THE_SHELL);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown operation " + op);
+            }
+        }
+        if (!tracks.isEmpty()) {
+            terrarium.add(tracks, Turtle.UNDER_THE_SHELL);
+        }
+        terrarium.repaint();
+    }
+
+    /**
+     * Watch a published terrarium in a new window
+     *
+     * @param args <code>host:port</code> of the publisher
+     */
+    public static void main(String[] args) {
+        if (args.length != 1 || args[0].lastIndexOf(':') < 0) {
+            System.err.println("Usage: java org.gannacademy.cdf.turtlelogo.TerrariumViewer host:port");
+            System.exit(1);
+        }
+        int colon = args[0].lastIndexOf(':');
+        new TerrariumViewer(new Terrarium(), args[0].substring(0, colon), Integer.parseInt(args[0].substring(colon + 1)));
+    }
+}
@@ -1,7 +1,11 @@
 package org.gannacademy.cdf.turtlelogo;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 
 /**
  * Turtles make visible tracks in terraria (by dragging their pens, of course)
@@ -9,7 +13,7 @@ import java.awt.geom.Line2D;
  * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
  */
 public class Track {
-  private final Line2D.Double segment;
+  private final Shape segment;
   private final Stroke stroke;
   private final Color color;
 
@@ -33,6 +37,85 @@ public class Track {
     this.stroke = stroke;
   }
 
+  /**
+   * <p>Construct a new track polyline, through a series of points</p>
+   *
+   * <p>May only be called by {@link Turtle} and its subclasses, enforced via {@link Turtle.UnderTheShell}.</p>
+   *
+   * @param points coordinates of the points, interleaved (<i>x</i><sub>0</sub>, <i>y</i><sub>0</sub>,
+   *               <i>x</i><sub>1</sub>, <i>y</i><sub>1</sub>, &hellip;) &mdash; at least two points, and the track
+   *               takes ownership of the array, which must not be modified afterwards
+   * @param color  of track
+   * @param stroke style of track
+   * @param key    to authenticate "Turtleness"
+   */
+  public Track(double[] points, Color color, Stroke stroke, Turtle.UnderTheShell key) {
+    assert key != null;
+    if (points.length < 4 || points.length % 2 != 0) {
+      throw new IllegalArgumentException("A track needs at least two points, given as x, y pairs");
+    }
+    segment = points.length == 4 ? new Line2D.Double(points[0], points[1], points[2], points[3]) : new Polyline(points);
+    this.color = color;
+    this.stroke = stroke;
+  }
+
+  /**
+   * @return Number of points along the track (the ends of a segment, or the vertices of a polyline)
+   */
+  public int getVertexCount() {
+    return segment instanceof Polyline ? ((Polyline) segment).points.length / 2 : 2;
+  }
+
+  /**
+   * @return Number of segments in the track
+   */
+  public int getSegmentCount() {
+    return getVertexCount() - 1;
+  }
+
+  /**
+   * @param vertex from 0 to {@link #getVertexCount()} - 1
+   * @return X-coordinate of the vertex
+   */
+  public double getX(int vertex) {
+    if (segment instanceof Polyline) {
+      return ((Polyline) segment).points[2 * vertex];
+    }
+    return vertex == 0 ? ((Line2D.Double) segment).x1 : ((Line2D.Double) segment).x2;
+  }
+
+  /**
+   * @param vertex from 0 to {@link #getVertexCount()} - 1
+   * @return Y-coordinate of the vertex
+   */
+  public double getY(int vertex) {
+    if (segment instanceof Polyline) {
+      return ((Polyline) segment).points[2 * vertex + 1];
+    }
+    return vertex == 0 ? ((Line2D.Double) segment).y1 : ((Line2D.Double) segment).y2;
+  }
+
+  /**
+   * @return Estimated heap footprint of the track, in bytes
+   */
+  long getEstimatedBytes() {
+    return segment instanceof Polyline ? 64 + 16L * getVertexCount() : TerrariumMetrics.ESTIMATED_BYTES_PER_TRACK;
+  }
+
+  /**
+   * @return Color of the track
+   */
+  public Color getColor() {
+    return color;
+  }
+
+  /**
+   * @return Style of the track
+   */
+  public Stroke getStroke() {
+    return stroke;
+  }
+
   /**
    * <p>Draw the track in the terrarium</p>
    *
@@ -47,4 +130,117 @@ public class Track {
     context.setStroke(stroke);
     context.draw(segment);
   }
+
+  /**
+   * An open polyline, stroked straight from its array of points (rather than copying them into a
+   * {@link java.awt.geom.Path2D}). Like a {@link Line2D}, it encloses no area.
+   */
+  private static class Polyline implements Shape {
+    private final double[] points;
+    private final Rectangle2D.Double bounds;
+
+    Polyline(double[] points) {
+      this.points = points;
+      double minX = points[0], minY = points[1], maxX = minX, maxY = minY;
+      for (int i = 2; i < points.length; i += 2) {
+        minX = Math.min(minX, points[i]);
+        maxX = Math.max(maxX, points[i]);
+        minY = Math.min(minY, points[i + 1]);
+        maxY = Math.max(maxY, points[i + 1]);
+      }
+      bounds = new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    @Override
+    public Rectangle getBounds() {
+      return bounds.getBounds();
+    }
+
+    @Override
+    public Rectangle2D getBounds2D() {
+      return (Rectangle2D) bounds.clone();
+    }
+
+    @Override
+    public boolean contains(double x, double y) {
+      return false;
+    }
+
+    @Override
+    public boolean contains(Point2D p) {
+      return false;
+    }
+
+    @Override
+    public boolean contains(double x, double y, double w, double h) {
+      return false;
+    }
+
+    @Override
+    public boolean contains(Rectangle2D r) {
+      return false;
+    }
+
+    @Override
+    public boolean intersects(double x, double y, double w, double h) {
+      return intersects(new Rectangle2D.Double(x, y, w, h));
+    }
+
+    @Override
+    public boolean intersects(Rectangle2D r) {
+      for (int i = 2; i < points.length; i += 2) {
+        if (r.intersectsLine(points[i - 2], points[i - 1], points[i], points[i + 1])) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public PathIterator getPathIterator(AffineTransform at) {
+      return new PathIterator() {
+        private int vertex = 0;
+
+        @Override
+        public int getWindingRule() {
+          return WIND_NON_ZERO;
+        }
+
+        @Override
+        public boolean isDone() {
+          return 2 * vertex >= points.length;
+        }
+
+        @Override
+        public void next() {
+          vertex++;
+        }
+
+        @Override
+        public int currentSegment(float[] coords) {
+          coords[0] = (float) points[2 * vertex];
+          coords[1] = (float) points[2 * vertex + 1];
+          if (at != null) {
+            at.transform(coords, 0, coords, 0, 1);
+          }
+          return vertex == 0 ? SEG_MOVETO : SEG_LINETO;
+        }
+
+        @Override
+        public int currentSegment(double[] coords) {
+          coords[0] = points[2 * vertex];
+          coords[1] = points[2 * vertex + 1];
+          if (at != null) {
+            at.transform(coords, 0, coords, 0, 1);
+          }
+          return vertex == 0 ? SEG_MOVETO : SEG_LINETO;
+        }
+      };
+    }
+
+    @Override
+    public PathIterator getPathIterator(AffineTransform at, double flatness) {
+      return getPathIterator(at);
+    }
+  }
 }
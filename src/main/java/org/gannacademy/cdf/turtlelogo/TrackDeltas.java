@@ -0,0 +1,297 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>The binary protocol spoken by {@link TerrariumPublisher} and {@link TerrariumViewer}</p>
+ *
+ * <p>A connection opens with {@link #MAGIC} and {@link #VERSION}, and is then a sequence of batches, each an
+ * <code>int</code> length followed by that many bytes of operations (an empty batch is a heartbeat). Each batch is
+ * self-contained: it defines the pens that it uses, and its first track starts from an absolute point, so that every
+ * viewer can be sent the same bytes, and a viewer that falls behind can skip batches and catch up from a snapshot.</p>
+ *
+ * <p>Coordinates are rounded to multiples of {@link #RESOLUTION} and sent as variable-length differences from the
+ * previous point, so a short step takes a few bytes; a track that continues the previous one (with the same pen)
+ * does not repeat its starting point.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+final class TrackDeltas {
+
+    static final int MAGIC = 0x54727444; // "TrtD"
+    static final int VERSION = 2;
+
+    /**
+     * 1/256 pixel
+     */
+    static final double RESOLUTION = 1.0 / 256;
+
+    /**
+     * 64 MiB: the longest batch that a viewer accepts (anything longer is taken to be a corrupt stream)
+     */
+    static final int MAX_BATCH = 64 * 1024 * 1024;
+
+    /**
+     * 1 MiB: the length at which a snapshot's tracks are split into another batch, so that a snapshot of however many
+     * tracks is never longer than {@link #MAX_BATCH}
+     */
+    static final int SNAPSHOT_BATCH = 1024 * 1024;
+
+    /**
+     * <code>int</code> width, <code>int</code> height, <code>int</code> background ARGB
+     */
+    static final byte SIZE = 1;
+
+    /**
+     * Every track is cleared
+     */
+    static final byte CLEAR = 2;
+
+    /**
+     * <code>int</code> length, then a PNG image of the flattened tracks
+     */
+    static final byte RASTER = 3;
+
+    /**
+     * <code>int</code> ARGB, <code>float</code> width, <code>byte</code> cap, <code>byte</code> join,
+     * <code>float</code> miter limit: the next pen of the batch (numbered from zero)
+     */
+    static final byte PEN = 4;
+
+    /**
+     * Pen number, number of points, then the points (the first from the origin, the rest each from the one before)
+     */
+    static final byte TRACK = 5;
+
+    /**
+     * Number of points after the end of the previous track, then the points: a track with the same pen, starting where
+     * the previous track ended
+     */
+    static final byte CONTINUE = 6;
+
+    /**
+     * Turtle number, <code>float</code> x, <code>float</code> y, <code>float</code> heading, <code>byte</code> 1 if
+     * hidden
+     */
+    static final byte POSE = 7;
+
+    /**
+     * Turtle number: the turtle has left the terrarium
+     */
+    static final byte GONE = 8;
+
+    /**
+     * Every turtle has left the terrarium (a snapshot starts with this, and then poses the turtles that are still
+     * there)
+     */
+    static final byte RESET = 9;
+
+    private TrackDeltas() {
+    }
+
+    /**
+     * Writes one batch of operations
+     */
+    static final class Encoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<Pen, Integer> pens = new HashMap<>();
+        private Color lastColor;
+        private Stroke lastStroke;
+        private int lastPen = -1;
+        private long x, y; // last point written, in multiples of RESOLUTION
+
+        void size(int width, int height, Color background) {
+            write(SIZE);
+            writeInt(width);
+            writeInt(height);
+            writeInt(background.getRGB());
+        }
+
+        void clear() {
+            write(CLEAR);
+        }
+
+        void reset() {
+            write(RESET);
+        }
+
+        void raster(byte[] png) {
+            write(RASTER);
+            writeInt(png.length);
+            bytes.write(png, 0, png.length);
+        }
+
+        void track(Track track) {
+            int pen = pen(track.getColor(), track.getStroke());
+            if (start(pen, track.getVertexCount(), track.getX(0), track.getY(0))) {
+                point(track.getX(0), track.getY(0));
+            }
+            for (int i = 1; i < track.getVertexCount(); i++) {
+                point(track.getX(i), track.getY(i));
+            }
+        }
+
+        void track(TrackStore.Cursor track) {
+            int pen = pen(track.getColor(), track.getStroke());
+            if (start(pen, track.getVertexCount(), track.getX(0), track.getY(0))) {
+                point(track.getX(0), track.getY(0));
+            }
+            for (int i = 1; i < track.getVertexCount(); i++) {
+                point(track.getX(i), track.getY(i));
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the first point must be written (the track does not continue the previous one)
+         */
+        private boolean start(int pen, int vertices, double x, double y) {
+            boolean continues = pen == lastPen && Math.round(x / RESOLUTION) == this.x && Math.round(y / RESOLUTION) == this.y;
+            lastPen = pen;
+            if (continues) {
+                write(CONTINUE);
+                writeVarLong(vertices - 1);
+                return false;
+            }
+            write(TRACK);
+            writeVarLong(pen);
+            writeVarLong(vertices);
+            this.x = 0;
+            this.y = 0;
+            return true;
+        }
+
+        private void point(double x, double y) {
+            long qx = Math.round(x / RESOLUTION), qy = Math.round(y / RESOLUTION);
+            writeVarLong(qx - this.x);
+            writeVarLong(qy - this.y);
+            this.x = qx;
+            this.y = qy;
+        }
+
+        private int pen(Color color, Stroke stroke) {
+            if (color == lastColor && stroke == lastStroke) {
+                return lastPen;
+            }
+            lastColor = color;
+            lastStroke = stroke;
+            Pen key = new Pen(color, stroke);
+            Integer pen = pens.get(key);
+            if (pen == null) {
+                pen = pens.size();
+                pens.put(key, pen);
+                BasicStroke basic = stroke instanceof BasicStroke ? (BasicStroke) stroke : new BasicStroke();
+                write(PEN);
+                writeInt(color == null ? 0 : color.getRGB());
+                writeFloat(basic.getLineWidth());
+                write((byte) basic.getEndCap());
+                write((byte) basic.getLineJoin());
+                writeFloat(basic.getMiterLimit());
+            }
+            return pen;
+        }
+
+        void pose(int turtle, double x, double y, double heading, boolean hidden) {
+            write(POSE);
+            writeVarLong(turtle);
+            writeFloat((float) x);
+            writeFloat((float) y);
+            writeFloat((float) heading);
+            write((byte) (hidden ? 1 : 0));
+        }
+
+        void gone(int turtle) {
+            write(GONE);
+            writeVarLong(turtle);
+        }
+
+        boolean isEmpty() {
+            return bytes.size() == 0;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        /**
+         * @return Number of bytes written so far
+         */
+        int size() {
+            return bytes.size();
+        }
+
+        private void write(byte value) {
+            bytes.write(value);
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new AssertionError(e); // cannot happen, writing to an array
+            }
+        }
+
+        private void writeFloat(float value) {
+            writeInt(Float.floatToIntBits(value));
+        }
+
+        /**
+         * Seven bits per byte, least significant first, zigzag encoded (so that small negative numbers are short too)
+         */
+        private void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                bytes.write((int) (zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            bytes.write((int) zigzag);
+        }
+    }
+
+    /**
+     * @param in to read from
+     * @return Number written by {@link Encoder#writeVarLong(long)}
+     * @throws IOException if the number cannot be read
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 63) {
+                throw new IOException("Malformed number");
+            }
+            byte b = in.readByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+    }
+
+    private static final class Pen {
+        private final Color color;
+        private final Stroke stroke;
+
+        Pen(Color color, Stroke stroke) {
+            this.color = color;
+            this.stroke = stroke;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Pen && Objects.equals(color, ((Pen) other).color) && Objects.equals(stroke, ((Pen) other).stroke);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(color, stroke);
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>A spatial index of a terrarium's track segments, for proximity and collision queries (see
+ * {@link Terrarium#tracksNear(double, double, double)})</p>
+ *
+ * <p>The index is a quadtree in which each leaf lists the segments that pass through it (as stroked, so a wide pen
+ * reaches further). A leaf that lists too many segments is split into quarters, and the tree grows outward as turtles
+ * wander, so a query only looks at the few segments near where it is asked, however many there are elsewhere.
+ * Segments are numbered in the order in which they were drawn, and can only be forgotten newest-first (as by a
+ * rewind), or all at once.</p>
+ *
+ * <p>Segments are added under the terrarium's lock, and queries may be made from any thread while turtles are
+ * drawing.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class TrackIndex {
+
+    /**
+     * Segments a leaf lists before it is split
+     */
+    private static final int LEAF_CAPACITY = 32;
+
+    /**
+     * Leaves this small (in pixels across) are never split, no matter how many segments pass through them
+     */
+    private static final double MIN_LEAF_SIZE = 1;
+
+    /**
+     * Size of the first leaf, in pixels across
+     */
+    private static final double INITIAL_SIZE = 256;
+
+    /**
+     * Segments reaching further than this from the origin are kept out of the tree, and checked one by one
+     */
+    private static final double FAR = 1 << 30;
+
+    /**
+     * Numbers describing each segment: the coordinates of its ends, and how far its stroke reaches from its center line
+     */
+    private static final int STRIDE = 5;
+
+    private static final class Node {
+        final double left, top, size;
+        Node[] children;
+        int[] segments = new int[4];
+        int count;
+
+        Node(double left, double top, double size) {
+            this.left = left;
+            this.top = top;
+            this.size = size;
+        }
+
+        void append(int segment) {
+            if (count == segments.length) {
+                segments = Arrays.copyOf(segments, count * 2);
+            }
+            segments[count++] = segment;
+        }
+
+        double distance(double x, double y) {
+            double dx = Math.max(0, Math.max(left - x, x - (left + size)));
+            double dy = Math.max(0, Math.max(top - y, y - (top + size)));
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long base;
+    private int count;
+    private double[] geometry = new double[64 * STRIDE]; // interleaved, so that each segment is read in one go
+    private int[] owners = new int[64];
+    private float maxReach;
+    private Node root;
+    private Node far = new Node(0, 0, 0);
+
+    /**
+     * @param base number of segments drawn (since the terrarium was last cleared) before the first that will be indexed
+     */
+    TrackIndex(long base) {
+        this.base = base;
+    }
+
+    /**
+     * @param track to index, after every segment already indexed
+     * @param owner serial number of the turtle that drew the track (or 0, if unknown)
+     */
+    void add(Track track, int owner) {
+        lock.writeLock().lock();
+        try {
+            float reach = reach(track.getStroke());
+            for (int i = 1; i < track.getVertexCount(); i++) {
+                add(track.getX(i - 1), track.getY(i - 1), track.getX(i), track.getY(i), reach, owner);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param track to index, after every segment already indexed
+     * @param owner serial number of the turtle that drew the track (or 0, if unknown)
+     */
+    void add(TrackStore.Cursor track, int owner) {
+        lock.writeLock().lock();
+        try {
+            float reach = reach(track.getStroke());
+            for (int i = 1; i < track.getVertexCount(); i++) {
+                add(track.getX(i - 1), track.getY(i - 1), track.getX(i), track.getY(i), reach, owner);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static float reach(Stroke stroke) {
+        return stroke instanceof BasicStroke ? ((BasicStroke) stroke).getLineWidth() / 2 : 0.5f;
+    }
+
+    private void add(double ax, double ay, double bx, double by, float reach, int owner) {
+        if (count == owners.length) {
+            int capacity = count + (count >> 1);
+            geometry = Arrays.copyOf(geometry, capacity * STRIDE);
+            owners = Arrays.copyOf(owners, capacity);
+        }
+        int segment = count++;
+        int at = segment * STRIDE;
+        geometry[at] = ax;
+        geometry[at + 1] = ay;
+        geometry[at + 2] = bx;
+        geometry[at + 3] = by;
+        geometry[at + 4] = reach;
+        owners[segment] = owner;
+        maxReach = Math.max(maxReach, reach);
+        double minX = Math.min(ax, bx) - reach, maxX = Math.max(ax, bx) + reach;
+        double minY = Math.min(ay, by) - reach, maxY = Math.max(ay, by) + reach;
+        if (!(minX > -FAR && maxX < FAR && minY > -FAR && maxY < FAR)) {
+            far.append(segment);
+            return;
+        }
+        if (root == null) {
+            root = new Node(Math.floor(minX / INITIAL_SIZE) * INITIAL_SIZE, Math.floor(minY / INITIAL_SIZE) * INITIAL_SIZE, INITIAL_SIZE);
+        }
+        while (minX < root.left || minY < root.top || maxX > root.left + root.size || maxY > root.top + root.size) {
+            grow(minX < root.left, minY < root.top);
+        }
+        insert(root, segment);
+    }
+
+    /**
+     * Double the size of the tree
+     *
+     * @param leftward <code>true</code> to grow leftward (rather than rightward)
+     * @param upward   <code>true</code> to grow upward (rather than downward)
+     */
+    private void grow(boolean leftward, boolean upward) {
+        double left = leftward ? root.left - root.size : root.left;
+        double top = upward ? root.top - root.size : root.top;
+        Node grown = new Node(left, top, root.size * 2);
+        grown.children = new Node[4];
+        grown.children[(root.left > left ? 1 : 0) + (root.top > top ? 2 : 0)] = root;
+        root = grown;
+    }
+
+    private void insert(Node node, int segment) {
+        if (node.children == null) {
+            node.append(segment);
+            if (node.count > LEAF_CAPACITY && node.size > MIN_LEAF_SIZE) {
+                split(node);
+            }
+            return;
+        }
+        double half = node.size / 2;
+        for (int quarter = 0; quarter < 4; quarter++) {
+            double left = node.left + (quarter & 1) * half, top = node.top + (quarter >> 1) * half;
+            if (touches(segment, left, top, half)) {
+                if (node.children[quarter] == null) {
+                    node.children[quarter] = new Node(left, top, half);
+                }
+                insert(node.children[quarter], segment);
+            }
+        }
+    }
+
+    private void split(Node leaf) {
+        double half = leaf.size / 2;
+        leaf.children = new Node[4];
+        for (int quarter = 0; quarter < 4; quarter++) {
+            double left = leaf.left + (quarter & 1) * half, top = leaf.top + (quarter >> 1) * half;
+            Node child = null;
+            for (int i = 0; i < leaf.count; i++) {
+                if (touches(leaf.segments[i], left, top, half)) {
+                    if (child == null) {
+                        child = new Node(left, top, half);
+                    }
+                    child.append(leaf.segments[i]);
+                }
+            }
+            leaf.children[quarter] = child;
+        }
+        leaf.segments = null;
+        leaf.count = 0;
+    }
+
+    /**
+     * Forget the newest segments
+     *
+     * @param segments number of segments drawn (since the terrarium was last cleared) to keep
+     */
+    void truncate(long segments) {
+        lock.writeLock().lock();
+        try {
+            if (segments <= base) {
+                clear(segments);
+                return;
+            }
+            int keep = (int) Math.min(count, segments - base);
+            while (count > keep) {
+                int segment = --count;
+                if (far.count > 0 && far.segments[far.count - 1] == segment) {
+                    far.count--;
+                } else {
+                    remove(root, segment);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the newest segment from every leaf that lists it (where it is always listed last)
+     */
+    private void remove(Node node, int segment) {
+        if (node.children == null) {
+            if (node.count > 0 && node.segments[node.count - 1] == segment) {
+                node.count--;
+            }
+            return;
+        }
+        double half = node.size / 2;
+        for (int quarter = 0; quarter < 4; quarter++) {
+            Node child = node.children[quarter];
+            if (child != null && touches(segment, child.left, child.top, half)) {
+                remove(child, segment);
+            }
+        }
+    }
+
+    /**
+     * Forget every segment
+     *
+     * @param base number of segments drawn (since the terrarium was last cleared) before the next that will be indexed
+     */
+    void clear(long base) {
+        lock.writeLock().lock();
+        try {
+            this.base = base;
+            count = 0;
+            maxReach = 0;
+            root = null;
+            far = new Node(0, 0, 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of segments indexed
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param x      coordinate
+     * @param y      coordinate
+     * @param radius around the point
+     * @return Every segment whose stroke comes within <code>radius</code> of the point, in the order drawn
+     */
+    List<Line2D> near(double x, double y, double radius) {
+        lock.readLock().lock();
+        try {
+            int[] found = new int[16];
+            int size = 0;
+            List<Node> leaves = new ArrayList<>();
+            leaves(root, x - radius, y - radius, x + radius, y + radius, leaves);
+            leaves.add(far);
+            for (Node leaf : leaves) {
+                for (int i = 0; i < leaf.count; i++) {
+                    int segment = leaf.segments[i];
+                    if (distance(segment, x, y) <= radius) {
+                        if (size == found.length) {
+                            found = Arrays.copyOf(found, size * 2);
+                        }
+                        found[size++] = segment;
+                    }
+                }
+            }
+            Arrays.sort(found, 0, size);
+            List<Line2D> near = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || found[i] != found[i - 1]) {
+                    near.add(line(found[i]));
+                }
+            }
+            return near;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param x     coordinate
+     * @param y     coordinate
+     * @param owner serial number of a turtle whose segments are not to be counted (or 0, to count every segment)
+     * @return <code>true</code> if the stroke of any segment covers the point
+     */
+    boolean covers(double x, double y, int owner) {
+        lock.readLock().lock();
+        try {
+            List<Node> leaves = new ArrayList<>();
+            leaves(root, x, y, x, y, leaves);
+            leaves.add(far);
+            for (Node leaf : leaves) {
+                for (int i = 0; i < leaf.count; i++) {
+                    int segment = leaf.segments[i];
+                    if ((owner == 0 || owners[segment] != owner) && distance(segment, x, y) <= 0) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param line to test
+     * @return <code>true</code> if the line crosses (or touches) the stroke of any segment
+     */
+    boolean intersects(Line2D line) {
+        lock.readLock().lock();
+        try {
+            return intersects(root, line.getX1(), line.getY1(), line.getX2(), line.getY2()) || intersects(far, line.getX1(), line.getY1(), line.getX2(), line.getY2());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean intersects(Node node, double ax, double ay, double bx, double by) {
+        if (node == null || (node != far && !clips(ax, ay, bx, by, node.left, node.top, node.left + node.size, node.top + node.size))) {
+            return false;
+        }
+        if (node.children == null) {
+            for (int i = 0; i < node.count; i++) {
+                int segment = node.segments[i], at = segment * STRIDE;
+                double x1 = geometry[at], y1 = geometry[at + 1], x2 = geometry[at + 2], y2 = geometry[at + 3];
+                if (Line2D.linesIntersect(ax, ay, bx, by, x1, y1, x2, y2)) {
+                    return true;
+                }
+                double reach = geometry[at + 4];
+                if (distance(segment, ax, ay) <= 0 || distance(segment, bx, by) <= 0
+                    || distance(ax, ay, bx, by, x1, y1) <= reach || distance(ax, ay, bx, by, x2, y2) <= reach) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (Node child : node.children) {
+            if (intersects(child, ax, ay, bx, by)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param x coordinate
+     * @param y coordinate
+     * @return The segment whose stroke comes closest to the point (or <code>null</code> if there are none)
+     */
+    Line2D nearest(double x, double y) {
+        lock.readLock().lock();
+        try {
+            int best = -1;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < far.count; i++) {
+                double distance = distance(far.segments[i], x, y);
+                if (distance < bestDistance || (distance == bestDistance && far.segments[i] < best)) {
+                    best = far.segments[i];
+                    bestDistance = distance;
+                }
+            }
+            // a node can hold a segment whose stroke reaches up to maxReach closer to the point than the node itself
+            PriorityQueue<Node> pending = new PriorityQueue<>((a, b) -> Double.compare(a.distance(x, y), b.distance(x, y)));
+            if (root != null) {
+                pending.add(root);
+            }
+            while (!pending.isEmpty() && pending.peek().distance(x, y) - maxReach <= bestDistance) {
+                Node node = pending.poll();
+                if (node.children == null) {
+                    for (int i = 0; i < node.count; i++) {
+                        int segment = node.segments[i];
+                        double distance = distance(segment, x, y);
+                        if (distance < bestDistance || (distance == bestDistance && segment < best)) {
+                            best = segment;
+                            bestDistance = distance;
+                        }
+                    }
+                } else {
+                    for (Node child : node.children) {
+                        if (child != null) {
+                            pending.add(child);
+                        }
+                    }
+                }
+            }
+            return best < 0 ? null : line(best);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void leaves(Node node, double left, double top, double right, double bottom, List<Node> leaves) {
+        if (node == null || node.left > right || node.top > bottom || node.left + node.size < left || node.top + node.size < top) {
+            return;
+        }
+        if (node.children == null) {
+            leaves.add(node);
+            return;
+        }
+        for (Node child : node.children) {
+            leaves(child, left, top, right, bottom, leaves);
+        }
+    }
+
+    private Line2D line(int segment) {
+        int at = segment * STRIDE;
+        return new Line2D.Double(geometry[at], geometry[at + 1], geometry[at + 2], geometry[at + 3]);
+    }
+
+    /**
+     * @return Distance from a point to the edge of a segment's stroke (zero, if the stroke covers the point)
+     */
+    private double distance(int segment, double x, double y) {
+        int at = segment * STRIDE;
+        return Math.max(0, distance(geometry[at], geometry[at + 1], geometry[at + 2], geometry[at + 3], x, y) - geometry[at + 4]);
+    }
+
+    /**
+     * @return Distance from a point to a line segment
+     */
+    private static double distance(double ax, double ay, double bx, double by, double x, double y) {
+        double dx = bx - ax, dy = by - ay, length = dx * dx + dy * dy;
+        double t = length == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / length));
+        double ex = x - (ax + t * dx), ey = y - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+
+    /**
+     * @return <code>true</code> if the stroke of a segment might reach into a square (a conservative test: the stroke is
+     * treated as reaching as far diagonally as it does sideways)
+     */
+    private boolean touches(int segment, double left, double top, double size) {
+        int at = segment * STRIDE;
+        double reach = geometry[at + 4];
+        return clips(geometry[at], geometry[at + 1], geometry[at + 2], geometry[at + 3], left - reach, top - reach, left + size + reach, top + size + reach);
+    }
+
+    /**
+     * @return <code>true</code> if any part of a line segment lies within a rectangle (Liang&ndash;Barsky clipping)
+     */
+    private static boolean clips(double ax, double ay, double bx, double by, double left, double top, double right, double bottom) {
+        double dx = bx - ax, dy = by - ay;
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {ax - left, right - ax, ay - top, bottom - ay};
+        double enter = 0, exit = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    if (t > exit) {
+                        return false;
+                    }
+                    enter = Math.max(enter, t);
+                } else {
+                    if (t < enter) {
+                        return false;
+                    }
+                    exit = Math.min(exit, t);
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,268 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>A layer of tracks, drawn by one or more turtles, that can be shown, hidden, faded or reordered on its own</p>
+ *
+ * <p>Ordinarily, every turtle in a terrarium leaves its tracks in one shared list. A turtle given a layer of its own
+ * (see {@link Turtle#setLayer(TrackLayer)}, or {@link Terrarium#getLayer(String)} for a layer shared by name) leaves
+ * its tracks in that layer instead. Each layer keeps its tracks drawn in an image of its own, which is only added to
+ * as new tracks are made, so that hiding a layer, changing its opacity or moving it in front of another only
+ * re-composites those images, rather than drawing every track again. The images are drawn at the resolution of the
+ * screen (so layers are as sharp as the shared tracks on high-density displays), and a little beyond what is shown,
+ * so that panning the terrarium (see {@link Terrarium#zoom(double, double, double)}) only moves them: they are only
+ * drawn again when the zoom changes, or when the terrarium is panned further than they reach.</p>
+ *
+ * <p>Layers are drawn in order of their {@link #setZOrder(int)} (lowest first). The terrarium's shared tracks are
+ * drawn at z-order 0, after any layers with a negative z-order and before the rest. Turtles are always drawn on top
+ * of every layer.</p>
+ *
+ * <p>Layers are not flattened (see {@link Terrarium#setTrackBudget(int)}): each is already drawn in an image, but
+ * keeps its tracks so that it can be drawn again if the terrarium is resized.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class TrackLayer {
+
+    private final String name;
+    private final List<Track> tracks = new ArrayList<>();
+    private long bytes;
+    private volatile Terrarium terrarium;
+    private volatile int zOrder = 0;
+    private volatile boolean visible = true;
+    private volatile float opacity = 1;
+
+    private BufferedImage image;
+    private RenderingProfile imageProfile; // with which the image was drawn
+    private double imageScale; // pixels of the image per pixel of the turtles' world
+    private Rectangle2D imageBounds; // of the turtles' world, covered by the image
+    private int drawn; // number of tracks already drawn in the image
+
+    /**
+     * Construct a new, empty layer (see {@link Terrarium#addLayer(TrackLayer)})
+     *
+     * @param name of the layer
+     */
+    public TrackLayer(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return Name of the layer
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Terrarium in which the layer is drawn (or <code>null</code>, if it has not been added to one)
+     */
+    public Terrarium getTerrarium() {
+        return terrarium;
+    }
+
+    /**
+     * @param terrarium in which the layer is now drawn (or <code>null</code>)
+     * @return Terrarium in which the layer was drawn
+     */
+    synchronized Terrarium moveTo(Terrarium terrarium) {
+        Terrarium previous = this.terrarium;
+        this.terrarium = terrarium;
+        return previous;
+    }
+
+    private void repaint() {
+        Terrarium terrarium = this.terrarium;
+        if (terrarium != null) {
+            terrarium.repaint();
+        }
+    }
+
+    /**
+     * Set the order in which layers are drawn: layers with a higher z-order are drawn on top of layers with a lower
+     * z-order (layers with the same z-order are drawn in the order in which they were added to the terrarium)
+     *
+     * @param zOrder of the layer (0 by default, the same as the terrarium's shared tracks)
+     */
+    public void setZOrder(int zOrder) {
+        this.zOrder = zOrder;
+        repaint();
+    }
+
+    /**
+     * @return Z-order of the layer
+     */
+    public int getZOrder() {
+        return zOrder;
+    }
+
+    /**
+     * Show or hide the layer (a hidden layer still collects tracks)
+     *
+     * @param visible <code>true</code> to show the layer
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        repaint();
+    }
+
+    /**
+     * @return <code>true</code> if the layer is shown
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * @param opacity of the layer as a whole, from 0 (transparent) to 1 (opaque, the default)
+     */
+    public void setOpacity(float opacity) {
+        this.opacity = Math.max(0, Math.min(1, opacity));
+        repaint();
+    }
+
+    /**
+     * @return Opacity of the layer
+     */
+    public float getOpacity() {
+        return opacity;
+    }
+
+    /**
+     * @param track to be added, on top of all of the others
+     */
+    synchronized void add(Track track) {
+        tracks.add(track);
+        bytes += track.getEstimatedBytes();
+    }
+
+    /**
+     * @return Number of tracks in the layer
+     */
+    public synchronized long getTrackCount() {
+        return tracks.size();
+    }
+
+    /**
+     * @return Estimate of the heap consumed by the layer's tracks and its image, in bytes
+     */
+    public synchronized long getEstimatedBytes() {
+        return bytes + (image == null ? 0 : 4L * image.getWidth() * image.getHeight());
+    }
+
+    /**
+     * Clear all tracks from the layer
+     */
+    public void clear() {
+        synchronized (this) {
+            tracks.clear();
+            bytes = 0;
+            image = null;
+            drawn = 0;
+        }
+        repaint();
+    }
+
+    /**
+     * Remember the tracks in the layer (see {@link Terrarium#checkpoint()})
+     *
+     * @return Forgets every track added to the layer since
+     */
+    synchronized Runnable snapshot() {
+        int count = tracks.size();
+        return () -> {
+            synchronized (this) {
+                if (tracks.size() > count) {
+                    List<Track> forgotten = tracks.subList(count, tracks.size());
+                    for (Track track : forgotten) {
+                        bytes -= track.getEstimatedBytes();
+                    }
+                    forgotten.clear();
+                    image = null;
+                    drawn = 0;
+                }
+            }
+        };
+    }
+
+    /**
+     * Draw the layer's image, after first drawing any new tracks in it
+     *
+     * @param context  for drawing commands
+     * @param width    of the terrarium
+     * @param height   of the terrarium
+     * @param profile  rendering hints to draw the tracks with
+     * @param onScreen <code>true</code> if the layer's image is to be kept at this profile; otherwise (e.g. for an
+     *                 export at another profile) the layer is drawn into a temporary image, unless its own image
+     *                 already matches
+     * @param view     of the terrarium (see {@link Terrarium#getView()}), or <code>null</code> if it is not zoomed or
+     *                 panned
+     */
+    synchronized void draw(Graphics2D context, int width, int height, RenderingProfile profile, boolean onScreen, AffineTransform view) {
+        if (!visible || opacity == 0 || width <= 0 || height <= 0) {
+            return;
+        }
+        AffineTransform window = context.getTransform(); // including any scaling of a high-density display
+        Rectangle2D shown = new Rectangle2D.Double(0, 0, width, height); // of the turtles' world
+        double scale = Math.sqrt(Math.abs(window.getDeterminant()));
+        if (view != null) {
+            try {
+                shown = view.createInverse().createTransformedShape(shown).getBounds2D();
+            } catch (NoninvertibleTransformException e) {
+                return; // zoomed to nothing
+            }
+            scale *= Math.sqrt(Math.abs(view.getDeterminant()));
+        }
+        BufferedImage target = image;
+        Rectangle2D bounds = imageBounds;
+        int from = drawn;
+        boolean reusable = image != null && imageProfile == profile && imageScale == scale && imageBounds.contains(shown);
+        if (!reusable) {
+            bounds = shown;
+            if (view != null) { // leave room to pan, in whole pixels of the image
+                double marginX = Math.ceil(shown.getWidth() * scale / 4) / scale, marginY = Math.ceil(shown.getHeight() * scale / 4) / scale;
+                bounds = new Rectangle2D.Double(shown.getX() - marginX, shown.getY() - marginY,
+                    shown.getWidth() + 2 * marginX, shown.getHeight() + 2 * marginY);
+            }
+            target = new BufferedImage(Math.max(1, (int) Math.ceil(bounds.getWidth() * scale)),
+                Math.max(1, (int) Math.ceil(bounds.getHeight() * scale)), BufferedImage.TYPE_INT_ARGB_PRE);
+            from = 0;
+            if (onScreen) {
+                image = target;
+                imageProfile = profile;
+                imageScale = scale;
+                imageBounds = bounds;
+                drawn = 0;
+            }
+        }
+        if (from < tracks.size()) {
+            Graphics2D layer = target.createGraphics();
+            profile.apply(layer);
+            layer.scale(scale, scale);
+            layer.translate(-bounds.getX(), -bounds.getY());
+            for (; from < tracks.size(); from++) {
+                tracks.get(from).draw(layer, Terrarium.UNDER_THE_SURFACE);
+            }
+            layer.dispose();
+            if (target == image) {
+                drawn = from;
+            }
+        }
+        Composite composite = context.getComposite();
+        if (opacity < 1) {
+            context.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+        }
+        AffineTransform placement = view == null ? new AffineTransform() : new AffineTransform(view); // (after the window)
+        placement.translate(bounds.getX(), bounds.getY());
+        placement.scale(1 / scale, 1 / scale);
+        context.drawImage(target, placement, null);
+        context.setComposite(composite);
+    }
+}
@@ -0,0 +1,93 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.util.Arrays;
+
+/**
+ * <p>Which turtle drew each of a terrarium's tracks, so that the tracks can be indexed (see
+ * {@link Terrarium#tracksNear(double, double, double)}) long after they were drawn, without losing track of whose they
+ * are</p>
+ *
+ * <p>Segments are numbered as the terrarium numbers them (from the last time it was cleared), and the owners are kept
+ * as runs: a turtle drawing on its own costs a single run, however many tracks it draws. Only used while the
+ * terrarium is locked.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class TrackOwners {
+
+    private long[] starts = new long[4]; // first segment of each run
+    private int[] owners = new int[4];
+    private int size = 0;
+
+    /**
+     * @param segment number of the first segment of a track, after every track already recorded
+     * @param owner   serial number of the turtle that drew the track (or 0, if unknown)
+     */
+    void record(long segment, int owner) {
+        if (size > 0 && owners[size - 1] == owner) {
+            return;
+        }
+        if (size > 0 && starts[size - 1] >= segment) {
+            size--; // the last run was empty
+            if (size > 0 && owners[size - 1] == owner) {
+                return;
+            }
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * size);
+            owners = Arrays.copyOf(owners, 2 * size);
+        }
+        starts[size] = segment;
+        owners[size++] = owner;
+    }
+
+    /**
+     * @param segment number
+     * @return Serial number of the turtle that drew the segment (or 0, if unknown)
+     */
+    int ownerOf(long segment) {
+        int low = 0, high = size - 1, run = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= segment) {
+                run = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return run < 0 ? 0 : owners[run];
+    }
+
+    /**
+     * Forget the owners of the segments from <code>segments</code> on (e.g. when the terrarium is rewound)
+     *
+     * @param segments number of segments to remember
+     */
+    void truncate(long segments) {
+        while (size > 0 && starts[size - 1] >= segments) {
+            size--;
+        }
+    }
+
+    /**
+     * Forget the owners of the segments before <code>segments</code> (e.g. when they have been flattened)
+     *
+     * @param segments number of segments to forget
+     */
+    void forget(long segments) {
+        int first = 0;
+        while (first + 1 < size && starts[first + 1] <= segments) {
+            first++;
+        }
+        if (first > 0) {
+            System.arraycopy(starts, first, starts, 0, size - first);
+            System.arraycopy(owners, first, owners, 0, size - first);
+            size -= first;
+        }
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
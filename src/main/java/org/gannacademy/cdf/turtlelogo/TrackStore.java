@@ -0,0 +1,493 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Where a {@link Terrarium} keeps its tracks (see {@link Terrarium#setTrackStore(TrackStore)})</p>
+ *
+ * <p>By default, tracks are kept {@link #onHeap()}, as {@link Track} objects. Long drawings may be kept
+ * {@link #compact()}ly, in a fraction of the memory, and very long drawings (hundreds of millions of segments) may be
+ * kept {@link #memoryMapped()}, outside of the Java heap entirely.</p>
+ *
+ * <p>A track store may only be used by one terrarium, and is only ever used while that terrarium is locked.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public abstract class TrackStore {
+
+    /**
+     * Reads the tracks in a store, oldest first, one at a time. The current track is only valid until the next call
+     * to {@link #next()}. A cursor that has run out of tracks can be kept, and resumed from where it left off once more
+     * tracks have been added, as long as the store has not been cleared or truncated, nor had tracks removed, in the
+     * meantime.
+     */
+    abstract static class Cursor {
+        /**
+         * @return <code>true</code> if the cursor moved to another track, <code>false</code> if there are none left
+         */
+        abstract boolean next();
+
+        /**
+         * @return Number of points along the current track
+         */
+        abstract int getVertexCount();
+
+        abstract double getX(int vertex);
+
+        abstract double getY(int vertex);
+
+        abstract Color getColor();
+
+        abstract Stroke getStroke();
+
+        /**
+         * Draw the current track, exactly as {@link Track#draw(Graphics2D, Terrarium.UnderTheSurface)} would
+         *
+         * @param context for drawing commands
+         */
+        abstract void draw(Graphics2D context);
+
+        /**
+         * @return Number of segments in the current track
+         */
+        int getSegmentCount() {
+            return getVertexCount() - 1;
+        }
+
+        /**
+         * @return How far the current track's stroke may reach from its center line (square caps and miter joins
+         * included), or infinity if the stroke is not a {@link BasicStroke}
+         */
+        double getReach() {
+            if (!(getStroke() instanceof BasicStroke)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            BasicStroke stroke = (BasicStroke) getStroke();
+            double reach = stroke.getLineWidth() / 2 * Math.sqrt(2);
+            if (stroke.getLineJoin() == BasicStroke.JOIN_MITER) {
+                reach *= Math.max(1, stroke.getMiterLimit());
+            }
+            return reach;
+        }
+    }
+
+    /**
+     * A cursor that decodes each track's points into a reusable array, so that reading allocates nothing once the
+     * array is large enough for the longest track
+     */
+    abstract static class DecodingCursor extends Cursor {
+        private final Pens pens;
+        private final Line2D.Double line = new Line2D.Double();
+        private Path2D.Double path;
+        private double[] points = new double[16];
+
+        /**
+         * Number of points decoded for the current track
+         */
+        int vertices;
+
+        /**
+         * Index of the pen of the current track
+         */
+        int pen;
+
+        DecodingCursor(Pens pens) {
+            this.pens = pens;
+        }
+
+        /**
+         * @param x coordinate of the next point along the current track
+         * @param y coordinate of the next point along the current track
+         */
+        void append(double x, double y) {
+            if (2 * vertices == points.length) {
+                points = Arrays.copyOf(points, 2 * points.length);
+            }
+            points[2 * vertices] = x;
+            points[2 * vertices + 1] = y;
+            vertices++;
+        }
+
+        @Override
+        int getVertexCount() {
+            return vertices;
+        }
+
+        @Override
+        double getX(int vertex) {
+            return points[2 * vertex];
+        }
+
+        @Override
+        double getY(int vertex) {
+            return points[2 * vertex + 1];
+        }
+
+        @Override
+        Color getColor() {
+            return pens.getColor(pen);
+        }
+
+        @Override
+        Stroke getStroke() {
+            return pens.getStroke(pen);
+        }
+
+        @Override
+        void draw(Graphics2D context) {
+            context.setPaint(getColor());
+            context.setStroke(getStroke());
+            if (vertices == 2) {
+                line.setLine(points[0], points[1], points[2], points[3]);
+                context.draw(line);
+            } else {
+                if (path == null) {
+                    path = new Path2D.Double();
+                }
+                path.reset();
+                path.moveTo(points[0], points[1]);
+                for (int i = 1; i < vertices; i++) {
+                    path.lineTo(points[2 * i], points[2 * i + 1]);
+                }
+                context.draw(path);
+            }
+        }
+    }
+
+    /**
+     * The distinct pens (color and stroke) used by the tracks in a store, each stored once and referred to by index
+     */
+    static class Pens {
+        private final List<Color> colors = new ArrayList<>();
+        private final List<Stroke> strokes = new ArrayList<>();
+        private final Map<List<Object>, Integer> indices = new HashMap<>();
+
+        /**
+         * @param color  of the pen
+         * @param stroke of the pen
+         * @return Index of the pen (added to the table, if necessary)
+         */
+        int indexOf(Color color, Stroke stroke) {
+            List<Object> key = Arrays.asList(color, stroke);
+            Integer index = indices.get(key);
+            if (index == null) {
+                index = colors.size();
+                colors.add(color);
+                strokes.add(stroke);
+                indices.put(key, index);
+            }
+            return index;
+        }
+
+        Color getColor(int index) {
+            return colors.get(index);
+        }
+
+        Stroke getStroke(int index) {
+            return strokes.get(index);
+        }
+
+        int size() {
+            return colors.size();
+        }
+
+        void clear() {
+            colors.clear();
+            strokes.clear();
+            indices.clear();
+        }
+    }
+
+    /**
+     * A position in a store, after some track, to which the store can later be {@link #truncate(Mark)}d
+     */
+    static final class Mark {
+        /**
+         * Where the store's own encoding of the next track would begin
+         */
+        final long position;
+
+        /**
+         * Number of tracks added to the store (since it was last cleared) before the mark
+         */
+        final long added;
+
+        Mark(long position, long added) {
+            this.position = position;
+            this.added = added;
+        }
+    }
+
+    TrackStore() {
+    }
+
+    /**
+     * @return A store that keeps every track as a {@link Track} object on the heap (the default)
+     */
+    public static TrackStore onHeap() {
+        return new OnHeap();
+    }
+
+    /**
+     * 1/1024 pixel
+     */
+    public static final double DEFAULT_RESOLUTION = 1.0 / 1024;
+
+    /**
+     * Keep tracks compactly on the heap, to within {@link #DEFAULT_RESOLUTION} (see {@link #compact(double)})
+     *
+     * @return A compact track store
+     */
+    public static TrackStore compact() {
+        return new CompactTrackStore(DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * <p>Keep tracks compactly on the heap, as a stream of small differences between consecutive points</p>
+     *
+     * <p>A {@link Track} object takes more than 80 bytes per segment. In a compact store, a short segment that starts
+     * where the previous one ended, with the same pen, takes about five: only the difference from the previous point
+     * is stored, rounded to a multiple of <code>resolution</code> (rounding errors do not accumulate, so every point is
+     * drawn within half the resolution of where the turtle actually was). After a teleport, the first point of the
+     * next track is stored exactly.</p>
+     *
+     * <p>Rounding is invisible to the eye, but not to a pixel-by-pixel comparison: by default, Java2D snaps thin lines
+     * to the pixel grid, so a line that passes almost exactly halfway between two pixels may be drawn one pixel over.
+     * A finer resolution makes that rarer (1/65536 pixel reproduced a 20,000 segment random walk exactly, at about
+     * seven bytes per segment).</p>
+     *
+     * @param resolution in pixels
+     * @return A compact track store
+     */
+    public static TrackStore compact(double resolution) {
+        return new CompactTrackStore(resolution);
+    }
+
+    /**
+     * Keep tracks in memory-mapped files in a new temporary directory (see {@link #memoryMapped(File)})
+     *
+     * @return A memory-mapped track store
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public static TrackStore memoryMapped() throws IOException {
+        return new MappedTrackStore(null);
+    }
+
+    /**
+     * <p>Keep tracks in memory-mapped files, rather than on the heap</p>
+     *
+     * <p>Every point is written as a fixed-size binary record to a file in <code>directory</code>, which grows by
+     * mapping one more region at a time. Drawing reads the records straight from the mapping, so the operating
+     * system's page cache holds the drawing, not the heap: a terrarium may hold far more tracks than would fit in
+     * the heap (at the cost of disk space, and of drawing more slowly once the drawing no longer fits in memory). The
+     * file is deleted when the terrarium is {@link Terrarium#clear()}ed or {@link Terrarium#dispose()}d.</p>
+     *
+     * @param directory in which to create the (temporary) file, or <code>null</code> for the system temporary
+     *                  directory
+     * @return A memory-mapped track store
+     * @throws IOException if the directory cannot be created
+     */
+    public static TrackStore memoryMapped(File directory) throws IOException {
+        return new MappedTrackStore(directory);
+    }
+
+    /**
+     * @param track to be stored, after all of the others
+     */
+    abstract void add(Track track);
+
+    /**
+     * @param tracks to be stored, in order, after all of the others
+     * @param count  number of tracks, from the start of the array
+     */
+    void add(Track[] tracks, int count) {
+        for (int i = 0; i < count; i++) {
+            add(tracks[i]);
+        }
+    }
+
+    /**
+     * @return A cursor positioned before the oldest track
+     */
+    abstract Cursor cursor();
+
+    /**
+     * Forget the oldest tracks: every track that the cursor has visited, including its current track
+     *
+     * @param cursor from {@link #cursor()}, with no tracks added since it was created
+     */
+    abstract void removeVisited(Cursor cursor);
+
+    /**
+     * @return A mark after the newest track
+     */
+    abstract Mark mark();
+
+    /**
+     * <p>Forget every track added after a mark</p>
+     *
+     * <p>Takes time in proportion to the number of tracks forgotten (each of which was added once), at most.</p>
+     *
+     * @param mark from {@link #mark()}, since which the store has been neither cleared nor had the tracks before the
+     *             mark removed
+     */
+    abstract void truncate(Mark mark);
+
+    /**
+     * Forget every track
+     */
+    abstract void clear();
+
+    /**
+     * Forget every track and release any resources held by the store, which will not be used again
+     */
+    void close() {
+        clear();
+    }
+
+    /**
+     * @return Number of tracks (not segments) in the store
+     */
+    public abstract long size();
+
+    /**
+     * @return Estimate of the heap consumed by the tracks in the store, in bytes
+     */
+    public abstract long getEstimatedBytes();
+
+    /**
+     * @return Estimate of the memory consumed by the tracks in the store outside of the heap, in bytes
+     */
+    public long getOffHeapBytes() {
+        return 0;
+    }
+
+    /**
+     * Tracks kept as {@link Track} objects
+     */
+    private static class OnHeap extends TrackStore {
+        private final List<Track> tracks = new ArrayList<>();
+        private long removed;
+        private volatile long bytes;
+
+        @Override
+        void add(Track track) {
+            tracks.add(track);
+            bytes += track.getEstimatedBytes();
+        }
+
+        @Override
+        void add(Track[] tracks, int count) {
+            long added = 0;
+            for (int i = 0; i < count; i++) {
+                added += tracks[i].getEstimatedBytes();
+            }
+            this.tracks.addAll(Arrays.asList(tracks).subList(0, count));
+            bytes += added;
+        }
+
+        @Override
+        Cursor cursor() {
+            return new OnHeapCursor();
+        }
+
+        @Override
+        void removeVisited(Cursor cursor) {
+            List<Track> visited = tracks.subList(0, ((OnHeapCursor) cursor).index + 1);
+            for (Track track : visited) {
+                bytes -= track.getEstimatedBytes();
+            }
+            removed += visited.size();
+            visited.clear();
+        }
+
+        @Override
+        Mark mark() {
+            return new Mark(removed + tracks.size(), removed + tracks.size());
+        }
+
+        @Override
+        void truncate(Mark mark) {
+            List<Track> forgotten = tracks.subList((int) (mark.added - removed), tracks.size());
+            for (Track track : forgotten) {
+                bytes -= track.getEstimatedBytes();
+            }
+            forgotten.clear();
+        }
+
+        @Override
+        void clear() {
+            tracks.clear();
+            removed = 0;
+            bytes = 0;
+        }
+
+        @Override
+        public long size() {
+            return tracks.size();
+        }
+
+        @Override
+        public long getEstimatedBytes() {
+            return bytes;
+        }
+
+        private class OnHeapCursor extends Cursor {
+            private int index = -1;
+            private Track track;
+
+            @Override
+            boolean next() {
+                if (index + 1 < tracks.size()) {
+                    track = tracks.get(++index);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            int getVertexCount() {
+                return track.getVertexCount();
+            }
+
+            @Override
+            double getX(int vertex) {
+                return track.getX(vertex);
+            }
+
+            @Override
+            double getY(int vertex) {
+                return track.getY(vertex);
+            }
+
+            @Override
+            Color getColor() {
+                return track.getColor();
+            }
+
+            @Override
+            Stroke getStroke() {
+                return track.getStroke();
+            }
+
+            @Override
+            void draw(Graphics2D context) {
+                track.draw(context, Terrarium.UNDER_THE_SURFACE);
+            }
+
+            @Override
+            int getSegmentCount() {
+                return track.getSegmentCount();
+            }
+        }
+    }
+}
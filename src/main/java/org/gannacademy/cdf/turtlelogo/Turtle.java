@@ -6,8 +6,11 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>A turtles lives in a {@link Terrarium}. We imagine that turtles all hold a pen in their mouth. As they walk around
@@ -129,6 +132,14 @@ public class Turtle {
 
     private Terrarium terrarium;
     private static BufferedImage icon;
+    private static CompletableFuture<BufferedImage> iconLoader;
+    private static final AtomicInteger serials = new AtomicInteger();
+
+    static {
+        if (Terrarium.isFastStartup()) {
+            prefetchIcon();
+        }
+    }
 
     private double x, y;
     private double headingInDegrees;
@@ -136,6 +147,9 @@ public class Turtle {
     private BasicStroke penStroke;
     private boolean penDown;
     private boolean hidden;
+    private TrackLayer layer;
+    private AppendBuffer appendBuffer; // see Terrarium.setAppendBufferSize()
+    private final int serial = serials.incrementAndGet();
 
     /**
      * Construct a turtle in the default terrarium
@@ -227,18 +241,61 @@ public class Turtle {
         return hidden;
     }
 
-    private BufferedImage getIcon() {
+    /**
+     * <p>Test whether the turtle is standing on a track left by another turtle</p>
+     *
+     * <p>The turtle's own tracks do not count (it is always standing on the end of the last one, after all): to test
+     * whether a turtle is about to cross its own path, ask {@link Terrarium#intersects(java.awt.geom.Line2D)} about
+     * the step it is about to take. See {@link Terrarium#tracksNear(double, double, double)} for which tracks are
+     * searched.</p>
+     *
+     * @return <code>true</code> if the turtle's position is covered by another turtle's track
+     */
+    public boolean isTouchingTrack() {
+        return getTerrarium().getIndex().covers(x, y, serial);
+    }
+
+    /**
+     * @return Number that identifies the turtle (among all turtles) as the owner of its tracks
+     */
+    int getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return The image of a turtle (heading {@link #EAST}, nose at its right edge)
+     */
+    static BufferedImage getIcon() {
         if (icon == null) {
-            try {
-                icon = ImageIO.read(getClass().getResource("/turtle.png"));
-            } catch (IOException e) {
-                System.err.println("The image file containing the turtle icon could not be found and/or opened.");
-                e.printStackTrace();
+            CompletableFuture<BufferedImage> loader;
+            synchronized (Turtle.class) {
+                loader = iconLoader;
             }
+            icon = loader == null ? readIcon() : loader.join();
         }
         return icon;
     }
 
+    /**
+     * Start decoding the turtle icon in the background, so that it is ready by the time the first turtle is drawn
+     * (see {@link Terrarium#setFastStartup(boolean)})
+     */
+    static synchronized void prefetchIcon() {
+        if (icon == null && iconLoader == null) {
+            iconLoader = CompletableFuture.supplyAsync(Turtle::readIcon);
+        }
+    }
+
+    private static BufferedImage readIcon() {
+        try {
+            return ImageIO.read(Turtle.class.getResource("/turtle.png"));
+        } catch (IOException e) {
+            System.err.println("The image file containing the turtle icon could not be found and/or opened.");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * @return Terrarium currently housing the turtle
      */
@@ -257,6 +314,53 @@ public class Turtle {
         }
         this.terrarium = terrarium;
         terrarium.add(this, UNDER_THE_SHELL);
+        if (layer != null) {
+            terrarium.addLayer(layer);
+        }
+    }
+
+    /**
+     * <p>Leave the turtle's tracks in a layer of their own, which can be shown, hidden, faded or reordered without
+     * affecting any other tracks (see {@link TrackLayer})</p>
+     *
+     * <p>The layer is added to the turtle's terrarium, and moves with the turtle if the turtle moves to another
+     * terrarium (see {@link #setTerrarium(Terrarium)}). Tracks that the turtle has already left stay where they
+     * are.</p>
+     *
+     * @param layer for the turtle's tracks, or <code>null</code> to leave them with the terrarium's shared tracks
+     */
+    public void setLayer(TrackLayer layer) {
+        this.layer = layer;
+        if (layer != null) {
+            getTerrarium().addLayer(layer);
+        }
+    }
+
+    /**
+     * @return Layer in which the turtle leaves its tracks (or <code>null</code> if they are left with the
+     * terrarium's shared tracks)
+     */
+    public TrackLayer getLayer() {
+        return layer;
+    }
+
+    /**
+     * @param track left by the turtle
+     */
+    private void leave(Track track) {
+        TrackLayer layer = this.layer;
+        Terrarium terrarium = getTerrarium();
+        if (layer != null) {
+            terrarium.add(track, layer, UNDER_THE_SHELL);
+        } else if (terrarium.getAppendBufferSize() == Terrarium.UNBUFFERED) {
+            terrarium.add(track, this);
+        } else {
+            AppendBuffer buffer = appendBuffer;
+            if (buffer == null || buffer.getTerrarium() != terrarium || buffer.isRetired()) {
+                buffer = appendBuffer = terrarium.createAppendBuffer(this);
+            }
+            buffer.append(track);
+        }
     }
 
     /**
@@ -306,7 +410,7 @@ public class Turtle {
         double newX = x + Math.cos(getHeadingInRadians()) * steps,
             newY = y + Math.sin(getHeadingInRadians()) * steps;
         if (penDown) {
-            getTerrarium().add(new Track(x, y, newX, newY, penColor, penStroke, UNDER_THE_SHELL), UNDER_THE_SHELL);
+            leave(new Track(x, y, newX, newY, penColor, penStroke, UNDER_THE_SHELL));
         }
         x = newX;
         y = newY;
@@ -334,12 +438,109 @@ public class Turtle {
      */
     public void moveTo(double x, double y) {
         if (penDown) {
-            getTerrarium().add(new Track(this.x, this.y, x, y, penColor, penStroke, UNDER_THE_SHELL), UNDER_THE_SHELL);
+            leave(new Track(this.x, this.y, x, y, penColor, penStroke, UNDER_THE_SHELL));
         }
         this.x = x;
         this.y = y;
     }
 
+    /**
+     * <p>Move the turtle through a series of points, as if by calling {@link #moveTo(double, double)} for each in turn</p>
+     * <p>If the pen is down, the whole path is added to the terrarium as a single polyline track (one lock, one
+     * repaint), which makes it far faster than moving point by point. Afterwards, the turtle is at the last point,
+     * heading in the direction of the last step of the path.</p>
+     *
+     * @param xs coordinates of the points
+     * @param ys coordinates of the points (as many as <code>xs</code>)
+     */
+    public void path(double[] xs, double[] ys) {
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("A path needs as many y-coordinates as x-coordinates");
+        }
+        double[] points = new double[2 * (xs.length + 1)];
+        for (int i = 0; i < xs.length; i++) {
+            points[2 * i + 2] = xs[i];
+            points[2 * i + 3] = ys[i];
+        }
+        path(points);
+    }
+
+    /**
+     * <p>Move the turtle through a series of points, as if by calling {@link #moveTo(double, double)} for each in turn
+     * (see {@link #path(double[], double[])})</p>
+     * <p>The points are read from the buffer's position to its limit as interleaved pairs (<i>x</i><sub>0</sub>,
+     * <i>y</i><sub>0</sub>, <i>x</i><sub>1</sub>, <i>y</i><sub>1</sub>, &hellip;), leaving the position at the
+     * limit.</p>
+     *
+     * @param points interleaved coordinates of the points (an even number of them)
+     */
+    public void path(DoubleBuffer points) {
+        if (points.remaining() % 2 != 0) {
+            throw new IllegalArgumentException("A path needs its points given as x, y pairs");
+        }
+        double[] copy = new double[points.remaining() + 2];
+        points.get(copy, 2, points.remaining());
+        path(copy);
+    }
+
+    /**
+     * <p>Move the turtle through a series of points, as if by calling {@link #moveTo(double, double)} for each in turn
+     * (see {@link #path(double[], double[])})</p>
+     * <p>The <i>i</i>th point is read from <code>coordinates[offset + i * stride]</code> (<i>x</i>) and
+     * <code>coordinates[offset + i * stride + 1]</code> (<i>y</i>), so the points may be interleaved with other data
+     * (e.g. <i>x</i>, <i>y</i>, <i>z</i> triples have a stride of 3).</p>
+     *
+     * @param coordinates of the points
+     * @param offset      of the first point's <i>x</i>-coordinate
+     * @param count       of points
+     * @param stride      from one point's <i>x</i>-coordinate to the next (at least 2)
+     */
+    public void path(double[] coordinates, int offset, int count, int stride) {
+        if (stride < 2 || count < 0) {
+            throw new IllegalArgumentException("A path needs a stride of at least 2 and a non-negative count");
+        }
+        if (count > 0 && (offset < 0 || offset + (long) (count - 1) * stride + 1 >= coordinates.length)) {
+            throw new IndexOutOfBoundsException("Path of " + count + " points, from " + offset + " by " + stride + ", overruns " + coordinates.length + " coordinates");
+        }
+        double[] points = new double[2 * (count + 1)];
+        if (stride == 2) {
+            System.arraycopy(coordinates, offset, points, 2, 2 * count);
+        } else {
+            for (int i = 0, j = offset; i < count; i++, j += stride) {
+                points[2 * i + 2] = coordinates[j];
+                points[2 * i + 3] = coordinates[j + 1];
+            }
+        }
+        path(points);
+    }
+
+    /**
+     * Move along a path whose first point (<code>points[0]</code>, <code>points[1]</code>) is reserved for the turtle's
+     * current location
+     *
+     * @param points interleaved coordinates, of which this turtle takes ownership
+     */
+    protected void path(double[] points) {
+        int last = points.length - 2;
+        if (last == 0) {
+            return;
+        }
+        points[0] = x;
+        points[1] = y;
+        if (penDown) {
+            leave(new Track(points, penColor, penStroke, UNDER_THE_SHELL));
+        }
+        for (int i = last; i > 0; i -= 2) {
+            double dx = points[i] - points[i - 2], dy = points[i + 1] - points[i - 1];
+            if (dx != 0 || dy != 0) {
+                headingInDegrees = (Math.toDegrees(Math.atan2(dy, dx)) + 360) % 360;
+                break;
+            }
+        }
+        x = points[last];
+        y = points[last + 1];
+    }
+
     /**
      * Alias for {@link #teleport(double, double)}
      *
@@ -545,6 +746,27 @@ public class Turtle {
         getTerrarium().repaint();
     }
 
+    /**
+     * Remember the turtle's current state (see {@link Terrarium#checkpoint()})
+     *
+     * @return Puts the turtle back in the remembered state, without leaving a track
+     */
+    Runnable snapshot() {
+        double x = this.x, y = this.y, headingInDegrees = this.headingInDegrees;
+        Color penColor = this.penColor;
+        BasicStroke penStroke = this.penStroke;
+        boolean penDown = this.penDown, hidden = this.hidden;
+        return () -> {
+            this.x = x;
+            this.y = y;
+            this.headingInDegrees = headingInDegrees;
+            this.penColor = penColor;
+            this.penStroke = penStroke;
+            this.penDown = penDown;
+            this.hidden = hidden;
+        };
+    }
+
     /**
      * <p>Draw the turtle</p>
      * <p>May only be called by {@link Terrarium} and its subclasses, enforced by {@link Terrarium.UnderTheSurface}</p>
@@ -0,0 +1,501 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>A swarm of (many, many) turtles that all follow the same rule, one tick at a time</p>
+ *
+ * <p>Rather than thousands of separate {@link Turtle} objects, each moved in turn by a loop, a swarm keeps the
+ * location, heading and pen state of all of its turtles in arrays. Each {@link #tick(Rule)} applies the rule to every
+ * turtle in parallel (split into ranges of turtles across a {@link ForkJoinPool}), collects the tracks that each
+ * range leaves in its own buffer, and then adds all of them to the terrarium at once, in turtle order. All of the
+ * turtles in a swarm share a pen color and width, and are drawn in a single pass.</p>
+ *
+ * <pre>
+ * TurtleSwarm swarm = new TurtleSwarm(10000);
+ * swarm.run(turtle -&gt; {
+ *     turtle.turn(Math.random() * 20 - 10);
+ *     turtle.move(2);
+ * }, 100);
+ * </pre>
+ *
+ * <p>A rule may read and move only the turtle that it is given: each turtle is stepped by exactly one thread per
+ * tick.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class TurtleSwarm {
+
+    /**
+     * What every turtle in the swarm does each tick
+     *
+     * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+     */
+    public interface Rule {
+        /**
+         * @param turtle to be stepped (valid only for the duration of this call)
+         */
+        void step(Step turtle);
+    }
+
+    /**
+     * <p>The turtle being stepped by a {@link Rule}</p>
+     *
+     * <p>Each range of turtles is stepped by a single <code>Step</code>, which moves from turtle to turtle, so that no
+     * objects are created per turtle per tick (beyond the tracks that they leave).</p>
+     *
+     * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+     */
+    public final class Step {
+        private final List<Track> tracks = new ArrayList<>();
+        private final long tick;
+        private int index;
+
+        private Step(long tick) {
+            this.tick = tick;
+        }
+
+        /**
+         * @return Index of this turtle in the swarm
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return Number of ticks completed before this one
+         */
+        public long getTick() {
+            return tick;
+        }
+
+        /**
+         * @return X-coordinate of turtle
+         */
+        public double getX() {
+            return nextX[index];
+        }
+
+        /**
+         * @return Y-coordinate of turtle
+         */
+        public double getY() {
+            return nextY[index];
+        }
+
+        /**
+         * @return Current turtle heading in degrees
+         */
+        public double getHeadingInDegrees() {
+            return nextHeading[index];
+        }
+
+        /**
+         * @return <code>true</code> if the pen is down, <code>false</code> otherwise
+         */
+        public boolean isPenDown() {
+            return nextPenDown[index];
+        }
+
+        /**
+         * Move the turtle in the direction of its current heading (see {@link Turtle#move(double)})
+         *
+         * @param steps in pixels
+         */
+        public void move(double steps) {
+            double radians = Math.toRadians(nextHeading[index]);
+            moveTo(nextX[index] + Math.cos(radians) * steps, nextY[index] + Math.sin(radians) * steps);
+        }
+
+        /**
+         * Move the turtle to a particular location (see {@link Turtle#moveTo(double, double)})
+         *
+         * @param x coordinate
+         * @param y coordinate
+         */
+        public void moveTo(double x, double y) {
+            if (nextPenDown[index]) {
+                tracks.add(new Track(nextX[index], nextY[index], x, y, penColor, penStroke, Turtle.UNDER_THE_SHELL));
+            }
+            teleport(x, y);
+        }
+
+        /**
+         * Move the turtle instantaneously to a particular location (see {@link Turtle#teleport(double, double)})
+         *
+         * @param x coordinate
+         * @param y coordinate
+         */
+        public void teleport(double x, double y) {
+            nextX[index] = x;
+            nextY[index] = y;
+        }
+
+        /**
+         * Turn the turtle from its current heading (see {@link Turtle#turn(double)})
+         *
+         * @param angle in degrees
+         */
+        public void turn(double angle) {
+            nextHeading[index] = (nextHeading[index] + angle) % 360;
+        }
+
+        /**
+         * Turn the turtle to a particular heading (see {@link Turtle#head(double)})
+         *
+         * @param heading [0..360) in degrees
+         */
+        public void head(double heading) {
+            nextHeading[index] = heading % 360;
+        }
+
+        /**
+         * Lift the turtle's pen up, causing it not to leave a track
+         */
+        public void penUp() {
+            nextPenDown[index] = false;
+        }
+
+        /**
+         * Lower the turtle's pen, causing it to leave a trail
+         */
+        public void penDown() {
+            nextPenDown[index] = true;
+        }
+    }
+
+    /**
+     * Steps a range of turtles, splitting it in half until it is small enough to step directly
+     */
+    private class Stepper extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Rule rule;
+        private final long tick;
+        private final int from, to;
+        private Step step;
+        private Stepper left, right;
+
+        Stepper(Rule rule, long tick, int from, int to) {
+            this.rule = rule;
+            this.tick = tick;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                step = new Step(tick);
+                for (step.index = from; step.index < to; step.index++) {
+                    rule.step(step);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                left = new Stepper(rule, tick, from, middle);
+                right = new Stepper(rule, tick, middle, to);
+                invokeAll(left, right);
+            }
+        }
+
+        /**
+         * Gather the tracks left by this range of turtles, in turtle order
+         *
+         * @param tracks to gather into
+         */
+        void collect(List<Track> tracks) {
+            if (step != null) {
+                tracks.addAll(step.tracks);
+            } else {
+                left.collect(tracks);
+                right.collect(tracks);
+            }
+        }
+    }
+
+    /**
+     * Fewest turtles stepped together as one task (256 turtles)
+     */
+    public static final int MIN_RANGE = 256;
+
+    private final Terrarium terrarium;
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private volatile double[] x, y, heading; // as the turtles are shown, between ticks
+    private volatile boolean[] penDown;
+    private double[] nextX, nextY, nextHeading; // as the turtles are stepped, during a tick
+    private boolean[] nextPenDown;
+    private final Object stepping = new Object(); // held for the duration of a tick
+    private volatile Color penColor;
+    private volatile BasicStroke penStroke;
+    private volatile boolean hidden;
+    private long ticks;
+    private long generation; // counts the times the swarm has been put back in a remembered state (see snapshot())
+
+    /**
+     * Construct a swarm of turtles in the default terrarium
+     *
+     * @param size number of turtles
+     */
+    public TurtleSwarm(int size) {
+        this(size, Terrarium.getInstance());
+    }
+
+    /**
+     * Construct a swarm of turtles in a custom terrarium, stepped on the common {@link ForkJoinPool}
+     *
+     * @param size      number of turtles
+     * @param terrarium to house the turtles
+     */
+    public TurtleSwarm(int size, Terrarium terrarium) {
+        this(size, terrarium, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * <p>Construct a swarm of turtles in a custom terrarium</p>
+     *
+     * <p>As with individual turtles, every turtle starts at the center of the terrarium, heading
+     * {@link Turtle#EAST}, with its pen down.</p>
+     *
+     * @param size      number of turtles
+     * @param terrarium to house the turtles
+     * @param pool      on which to step the turtles
+     */
+    public TurtleSwarm(int size, Terrarium terrarium, ForkJoinPool pool) {
+        try {
+            terrarium.ready.acquire();
+            terrarium.ready.release();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        this.terrarium = terrarium;
+        this.pool = pool;
+        threshold = Math.max(MIN_RANGE, size / (4 * pool.getParallelism()));
+        x = new double[size];
+        y = new double[size];
+        heading = new double[size];
+        penDown = new boolean[size];
+        nextX = new double[size];
+        nextY = new double[size];
+        nextHeading = new double[size];
+        nextPenDown = new boolean[size];
+        Arrays.fill(x, terrarium.getWidth() / 2.0);
+        Arrays.fill(y, terrarium.getHeight() / 2.0);
+        Arrays.fill(heading, Turtle.DEFAULT_HEADING_IN_DEGREES);
+        Arrays.fill(penDown, Turtle.DEFAULT_PEN_DOWN);
+        penColor = Turtle.DEFAULT_PEN_COLOR;
+        penStroke = new BasicStroke(Turtle.DEFAULT_PEN_WIDTH);
+        hidden = Turtle.DEFAULT_HIDDEN;
+        terrarium.add(this, Turtle.UNDER_THE_SHELL);
+    }
+
+    /**
+     * @return Number of turtles in the swarm
+     */
+    public int size() {
+        return x.length;
+    }
+
+    /**
+     * @return Terrarium housing the swarm
+     */
+    public Terrarium getTerrarium() {
+        return terrarium;
+    }
+
+    /**
+     * @return Number of ticks completed
+     */
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @param turtle index
+     * @return X-coordinate of turtle
+     */
+    public double getX(int turtle) {
+        return x[turtle];
+    }
+
+    /**
+     * @param turtle index
+     * @return Y-coordinate of turtle
+     */
+    public double getY(int turtle) {
+        return y[turtle];
+    }
+
+    /**
+     * @param turtle index
+     * @return Current turtle heading in degrees
+     */
+    public double getHeadingInDegrees(int turtle) {
+        return heading[turtle];
+    }
+
+    /**
+     * @param turtle index
+     * @return <code>true</code> if the pen is down, <code>false</code> otherwise
+     */
+    public boolean isPenDown(int turtle) {
+        return penDown[turtle];
+    }
+
+    /**
+     * Set the color of every turtle's pen
+     *
+     * @param color to use
+     */
+    public void penColor(Color color) {
+        penColor = color;
+    }
+
+    /**
+     * Set the width of every turtle's pen
+     *
+     * @param width in pixels
+     */
+    public void penWidth(double width) {
+        penStroke = new BasicStroke((float) width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    }
+
+    /**
+     * Hide every turtle in the swarm (they still leave tracks)
+     */
+    public void hide() {
+        hidden = true;
+        terrarium.repaint();
+    }
+
+    /**
+     * Show every turtle in the swarm (if they were hidden)
+     */
+    public void show() {
+        hidden = false;
+        terrarium.repaint();
+    }
+
+    /**
+     * <p>Apply the rule to every turtle in the swarm, once</p>
+     *
+     * <p>The turtles are stepped on a copy of their state, without locking the terrarium (so a rule may ask the
+     * terrarium about its tracks, e.g. {@link Terrarium#tracksNear(double, double, double)}), and the terrarium is only
+     * locked to add their tracks and put every turtle in its new position at once, so that it is never painted with
+     * some turtles stepped and others not. If the terrarium is rewound while the turtles are being stepped, the step is
+     * forgotten.</p>
+     *
+     * @param rule to apply
+     */
+    public void tick(Rule rule) {
+        synchronized (stepping) {
+            long tick, started;
+            synchronized (this) {
+                System.arraycopy(x, 0, nextX, 0, x.length);
+                System.arraycopy(y, 0, nextY, 0, y.length);
+                System.arraycopy(heading, 0, nextHeading, 0, heading.length);
+                System.arraycopy(penDown, 0, nextPenDown, 0, penDown.length);
+                tick = ticks;
+                started = generation;
+            }
+            Stepper stepper = new Stepper(rule, tick, 0, size());
+            pool.invoke(stepper);
+            List<Track> tracks = new ArrayList<>();
+            stepper.collect(tracks);
+            synchronized (terrarium) {
+                synchronized (this) {
+                    if (generation != started) {
+                        return; // the terrarium was rewound while the turtles were stepping: forget the step
+                    }
+                } // (and, since rewinding locks the terrarium, it cannot be rewound again until the tick is done)
+                terrarium.add(tracks, Turtle.UNDER_THE_SHELL);
+                synchronized (this) {
+                    double[] shown = x;
+                    x = nextX;
+                    nextX = shown;
+                    shown = y;
+                    y = nextY;
+                    nextY = shown;
+                    shown = heading;
+                    heading = nextHeading;
+                    nextHeading = shown;
+                    boolean[] pens = penDown;
+                    penDown = nextPenDown;
+                    nextPenDown = pens;
+                    ticks++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply the rule to every turtle in the swarm, repeatedly
+     *
+     * @param rule  to apply
+     * @param ticks number of times to apply it
+     */
+    public void run(Rule rule, int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            tick(rule);
+        }
+    }
+
+    /**
+     * Remember the state of every turtle in the swarm (see {@link Terrarium#checkpoint()})
+     *
+     * @return Puts the swarm back in the remembered state, without leaving any tracks
+     */
+    synchronized Runnable snapshot() {
+        double[] x = this.x.clone(), y = this.y.clone(), heading = this.heading.clone();
+        boolean[] penDown = this.penDown.clone();
+        Color penColor = this.penColor;
+        BasicStroke penStroke = this.penStroke;
+        boolean hidden = this.hidden;
+        long ticks = this.ticks;
+        return () -> {
+            synchronized (this) {
+                System.arraycopy(x, 0, this.x, 0, x.length);
+                System.arraycopy(y, 0, this.y, 0, y.length);
+                System.arraycopy(heading, 0, this.heading, 0, heading.length);
+                System.arraycopy(penDown, 0, this.penDown, 0, penDown.length);
+                this.penColor = penColor;
+                this.penStroke = penStroke;
+                this.hidden = hidden;
+                this.ticks = ticks;
+                generation++; // a tick that is under way is dropped
+            }
+        };
+    }
+
+    /**
+     * <p>Draw every turtle in the swarm, in a single pass</p>
+     *
+     * <p>May only be called by {@link Terrarium} and its subclasses, enforced by {@link Terrarium.UnderTheSurface}</p>
+     *
+     * @param context for drawing commands
+     * @param key     to authenticate "Terrarium-iality"
+     */
+    public void draw(Graphics2D context, Terrarium.UnderTheSurface key) {
+        assert key != null;
+        BufferedImage icon = Turtle.getIcon();
+        if (hidden || icon == null) {
+            return;
+        }
+        double[] x = this.x, y = this.y, heading = this.heading;
+        AffineTransform transform = new AffineTransform();
+        double noseX = -1 * icon.getWidth(), noseY = icon.getHeight() / -2.0;
+        for (int i = 0; i < x.length; i++) {
+            transform.setToTranslation(x[i], y[i]); // transformations are applied in reverse order
+            transform.rotate(Math.toRadians(heading[i]));
+            transform.translate(noseX, noseY);
+            context.drawImage(icon, transform, null);
+        }
+    }
+}
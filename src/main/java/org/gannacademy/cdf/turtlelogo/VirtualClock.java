@@ -0,0 +1,182 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/**
+ * <p>A clock that only moves when it is told to</p>
+ *
+ * <p>By default, a virtual clock advances itself: once every animated turtle that is timed by it is waiting for its
+ * next frame, the clock jumps straight to the earliest of their deadlines, and releases only the turtles that are due
+ * then, so that animations run as fast as they can be drawn, with exactly the same timing every time. A clock that
+ * does not advance itself keeps turtles waiting until the clock is moved along with {@link #advance(long)} or
+ * {@link #advanceTo(long)} (e.g. by a test that checks each frame).</p>
+ *
+ * <pre>
+ * Terrarium terrarium = new Terrarium();
+ * VirtualClock clock = new VirtualClock(0, false);
+ * terrarium.setClock(clock);
+ * AnimatedTurtle turtle = new AnimatedTurtle(terrarium);
+ * turtle.move(100);
+ * clock.advance(10 * AnimatedTurtle.DEFAULT_FRAME_DELAY); // the turtle takes ten steps
+ * </pre>
+ *
+ * <p>When several turtles share a clock that advances itself, each turtle takes its steps at its own pace, relative
+ * to the others: a turtle with twice the frame delay of another takes half as many steps in the same (virtual)
+ * time. Only turtles that have instructions to follow hold the clock back: a turtle that is waiting for its next
+ * instruction does not.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+public class VirtualClock implements AnimationClock {
+
+    private long now;
+    private boolean advancing;
+    private final Map<Thread, Long> deadlines = new HashMap<>(); // of the threads waiting on the clock
+    private final Set<Thread> animators = new HashSet<>(); // threads timed by the clock (see join())
+    private int waitingAnimators = 0;
+    private LongConsumer onAdvance; // told how far the clock is about to advance itself (see AnimationCapture)
+
+    /**
+     * Construct a virtual clock, starting at zero, that advances itself
+     */
+    public VirtualClock() {
+        this(0, true);
+    }
+
+    /**
+     * Construct a virtual clock
+     *
+     * @param start     time, in milliseconds
+     * @param advancing <code>true</code> if the clock should advance itself to each deadline that it is asked to wait
+     *                  for, <code>false</code> if it should only be moved by {@link #advance(long)}
+     */
+    public VirtualClock(long start, boolean advancing) {
+        now = start;
+        this.advancing = advancing;
+    }
+
+    @Override
+    public synchronized long millis() {
+        return now;
+    }
+
+    @Override
+    public synchronized void waitUntil(long millis) {
+        if (now >= millis) {
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        boolean animator = animators.contains(thread);
+        deadlines.put(thread, millis);
+        if (animator) {
+            waitingAnimators++;
+        }
+        try {
+            step();
+            while (now < millis) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            deadlines.remove(thread);
+            if (animator) {
+                waitingAnimators--;
+            }
+        }
+    }
+
+    /**
+     * Time a thread by this clock: while it is joined, a clock that advances itself waits for it to be waiting too
+     * before moving on (for animated turtles that have instructions to follow)
+     *
+     * @param animator thread to wait for
+     */
+    synchronized void join(Thread animator) {
+        animators.add(animator);
+    }
+
+    /**
+     * Stop timing a thread by this clock (e.g. because its turtle has run out of instructions), so that the clock no
+     * longer waits for it
+     *
+     * @param animator thread to stop waiting for
+     */
+    synchronized void leave(Thread animator) {
+        if (animators.remove(animator)) {
+            step();
+        }
+    }
+
+    /**
+     * Be told each time the clock advances itself, just before it moves, while every joined thread is waiting (e.g. to
+     * capture one frame of the animation as it stands)
+     *
+     * @param listener given the time, in milliseconds, by which the clock is about to advance (or <code>null</code>)
+     */
+    synchronized void onAdvance(LongConsumer listener) {
+        onAdvance = listener;
+    }
+
+    /**
+     * If the clock advances itself, and every joined thread is waiting, move to the earliest deadline (unless a
+     * thread that is already due has yet to wake up)
+     */
+    private void step() {
+        if (!advancing || deadlines.isEmpty() || waitingAnimators < animators.size()) {
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (long deadline : deadlines.values()) {
+            earliest = Math.min(earliest, deadline);
+        }
+        if (earliest > now) {
+            if (onAdvance != null) {
+                onAdvance.accept(earliest - now);
+            }
+            now = earliest;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Move the clock forward, releasing any turtles whose deadlines have passed
+     *
+     * @param millis to move forward
+     */
+    public synchronized void advance(long millis) {
+        advanceTo(now + millis);
+    }
+
+    /**
+     * Move the clock forward (but never back), releasing any turtles whose deadlines have passed
+     *
+     * @param millis new time
+     */
+    public synchronized void advanceTo(long millis) {
+        if (millis > now) {
+            now = millis;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @param advancing <code>true</code> if the clock should advance itself to each deadline that it is asked to wait
+     *                  for
+     */
+    public synchronized void setAdvancing(boolean advancing) {
+        this.advancing = advancing;
+        step();
+    }
+
+    /**
+     * @return <code>true</code> if the clock advances itself
+     */
+    public synchronized boolean isAdvancing() {
+        return advancing;
+    }
+}
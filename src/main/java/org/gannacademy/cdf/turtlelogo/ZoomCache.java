@@ -0,0 +1,216 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Images of a terrarium's shared tracks at reduced scales, so that a zoomed-out view of a huge drawing can be
+ * painted without stroking every track, every frame (see {@link Terrarium#zoom(double, double, double)})</p>
+ *
+ * <p>Each level of the cache is an image of every track at a power-of-two reduction (&frac12;, &frac14;, &hellip;),
+ * covering the whole drawing with a margin to spare. A view is painted from the level just larger than it, scaled down
+ * by less than half again. Levels are drawn once, and then only the tracks made since are added to them, until the
+ * tracks are edited (cleared, rewound, flattened or moved) or wander beyond the margin. A few levels are kept, so that
+ * zooming back and forth does not redraw them.</p>
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class ZoomCache {
+
+    /**
+     * Largest level image, in pixels across
+     */
+    static final int MAX_SIZE = 2048;
+
+    /**
+     * Number of levels kept
+     */
+    static final int LEVELS = 4;
+
+    /**
+     * Fraction of the drawing's size left as a margin around it, on each side, for tracks yet to come
+     */
+    private static final double MARGIN = 0.25;
+
+    /**
+     * Coarsest level of detail at which levels are drawn, in pixels of the level's image, however fine the terrarium's
+     * own (merging runs of tracks into polylines makes a level much quicker to draw, and the difference is invisible
+     * once the level is scaled down to paint)
+     */
+    private static final double MIN_LEVEL_OF_DETAIL = 0.25;
+
+    private static class Level {
+        BufferedImage image;
+        double scale, left, top; // world coordinates of the image's top, left corner
+        long drawn; // number of tracks already drawn in the image
+        TrackStore store;
+        TrackStore.Cursor cursor; // after the last track drawn in the image, to be resumed
+        long edits;
+        boolean tooWidespread; // to fit in an image, until the tracks are next edited (they can only spread further)
+        RenderingProfile profile;
+        double levelOfDetail;
+    }
+
+    private final Map<Integer, Level> levels = new LinkedHashMap<Integer, Level>(LEVELS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Level> eldest) {
+            return size() > LEVELS;
+        }
+    };
+
+    /**
+     * Draw the tracks, if they fit in a level of the cache at this zoom
+     *
+     * @param context       for drawing commands, in world coordinates
+     * @param zoom          of the view, less than 1
+     * @param tracks        to draw
+     * @param edits         number of times the tracks have been edited, other than by adding to them
+     * @param profile       rendering hints to draw the tracks with
+     * @param levelOfDetail tolerance, in pixels at the level's scale (see {@link Terrarium#setLevelOfDetail(double)})
+     * @return <code>true</code> if the tracks were drawn, <code>false</code> if they are too widespread to cache at this
+     * zoom, and must be drawn some other way
+     */
+    boolean draw(Graphics2D context, double zoom, TrackStore tracks, long edits, RenderingProfile profile, double levelOfDetail) {
+        int index = (int) Math.floor(Math.log(1 / zoom) / Math.log(2));
+        Level level = levels.get(index);
+        if (level == null || level.edits != edits || level.profile != profile || level.levelOfDetail != levelOfDetail) {
+            level = new Level();
+            level.scale = Math.scalb(1.0, -index);
+            level.edits = edits;
+            level.profile = profile;
+            level.levelOfDetail = levelOfDetail;
+            levels.put(index, level);
+        }
+        if (level.tooWidespread || !update(level, tracks)) {
+            level.tooWidespread = true;
+            return false;
+        }
+        if (level.image != null) {
+            Object interpolation = context.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+            context.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            context.drawImage(level.image, new AffineTransform(1 / level.scale, 0, 0, 1 / level.scale, level.left, level.top), null);
+            context.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation != null ? interpolation : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+        return true;
+    }
+
+    /**
+     * Draw the tracks made since the level was last drawn, redrawing the level from scratch if they do not fit
+     *
+     * @return <code>false</code> if the tracks are too widespread for the level
+     */
+    private boolean update(Level level, TrackStore tracks) {
+        if (level.cursor == null || level.store != tracks) {
+            level.store = tracks;
+            level.cursor = tracks.cursor();
+            for (long skipped = 0; skipped < level.drawn; skipped++) {
+                level.cursor.next();
+            }
+        }
+        TrackStore.Cursor track = level.cursor;
+        Graphics2D context = null;
+        LevelOfDetail renderer = null;
+        while (track.next()) {
+            if (level.image == null || !fits(level, track)) {
+                if (context != null) {
+                    context.dispose(); // the image is about to be replaced, so the rest of the run need not be drawn
+                }
+                return redraw(level, tracks);
+            }
+            if (context == null) {
+                context = createGraphics(level);
+                renderer = new LevelOfDetail(context, Math.max(MIN_LEVEL_OF_DETAIL, level.levelOfDetail));
+            }
+            renderer.draw(track);
+            level.drawn++;
+        }
+        if (context != null) {
+            renderer.flush();
+            context.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * Draw every track into a new image, sized to fit the drawing (with a margin)
+     *
+     * @return <code>false</code> if the drawing is too widespread for the level
+     */
+    private boolean redraw(Level level, TrackStore tracks) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, reach = 0;
+        TrackStore.Cursor track = tracks.cursor();
+        while (track.next()) {
+            for (int i = 0; i < track.getVertexCount(); i++) {
+                minX = Math.min(minX, track.getX(i));
+                maxX = Math.max(maxX, track.getX(i));
+                minY = Math.min(minY, track.getY(i));
+                maxY = Math.max(maxY, track.getY(i));
+            }
+            reach = Math.max(reach, track.getReach());
+        }
+        level.drawn = 0;
+        level.image = null;
+        level.cursor = null;
+        if (minX > maxX) {
+            return true;
+        }
+        double size = Math.max(maxX - minX, maxY - minY) * level.scale, slack = reach * level.scale + 2;
+        double margin = size * MARGIN + slack; // in pixels of the level's image
+        if (size + 2 * margin > MAX_SIZE) {
+            margin = Math.max(slack, (MAX_SIZE - size) / 2); // as much margin as will fit
+        }
+        double width = Math.ceil((maxX - minX) * level.scale + 2 * margin), height = Math.ceil((maxY - minY) * level.scale + 2 * margin);
+        if (!(width <= MAX_SIZE && height <= MAX_SIZE)) {
+            return false;
+        }
+        level.left = minX - margin / level.scale;
+        level.top = minY - margin / level.scale;
+        level.image = new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D context = createGraphics(level);
+        LevelOfDetail renderer = new LevelOfDetail(context, Math.max(MIN_LEVEL_OF_DETAIL, level.levelOfDetail));
+        track = tracks.cursor();
+        while (track.next()) {
+            renderer.draw(track);
+            level.drawn++;
+        }
+        renderer.flush();
+        context.dispose();
+        level.store = tracks;
+        level.cursor = track;
+        return true;
+    }
+
+    private static Graphics2D createGraphics(Level level) {
+        Graphics2D context = level.image.createGraphics();
+        level.profile.apply(context);
+        context.scale(level.scale, level.scale);
+        context.translate(-level.left, -level.top);
+        return context;
+    }
+
+    /**
+     * @return <code>true</code> if the track (and its stroke) lies within the level's image
+     */
+    private static boolean fits(Level level, TrackStore.Cursor track) {
+        double reach = track.getReach() + 2 / level.scale;
+        double right = level.left + level.image.getWidth() / level.scale, bottom = level.top + level.image.getHeight() / level.scale;
+        for (int i = 0; i < track.getVertexCount(); i++) {
+            double x = track.getX(i), y = track.getY(i);
+            if (!(x - reach >= level.left && x + reach <= right && y - reach >= level.top && y + reach <= bottom)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget every level
+     */
+    void clear() {
+        levels.clear();
+    }
+}
@@ -0,0 +1,94 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.Adler32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Images saved by {@link PngEncoder} must read back exactly as they were
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class PngEncoderTest {
+
+    /**
+     * @return Widths and heights (odd ones, and ones that span many of the encoder's 128KiB blocks of rows), with and
+     * without alpha, stored, and at the fastest and smallest levels of compression
+     */
+    static Stream<Arguments> images() {
+        int[][] sizes = {{1, 1}, {7, 3}, {333, 517}, {1001, 400}};
+        Stream.Builder<Arguments> images = Stream.builder();
+        for (int[] size : sizes) {
+            for (boolean alpha : new boolean[]{false, true}) {
+                for (int level : new int[]{0, 1, 9}) {
+                    images.add(Arguments.of(size[0], size[1], alpha, level));
+                }
+            }
+        }
+        return images.build();
+    }
+
+    @ParameterizedTest(name = "{0}x{1}, alpha {2}, level {3}")
+    @MethodSource("images")
+    void roundTrip(int width, int height, boolean alpha, int level) throws IOException {
+        BufferedImage image = image(width, height, alpha);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        new PngEncoder(level).write(image, Channels.newChannel(png));
+
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+        assertNotNull(read, "not a readable PNG");
+        assertEquals(width, read.getWidth());
+        assertEquals(height, read.getHeight());
+        assertEquals(alpha, read.getColorModel().hasAlpha());
+        assertArrayEquals(image.getRGB(0, 0, width, height, null, 0, width),
+            read.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    @Test
+    void combinedChecksumsMatchWholeChecksum() {
+        byte[] data = new byte[300_000];
+        new Random(42).nextBytes(data);
+        for (int split : new int[]{0, 1, 65521, 131072, data.length}) {
+            assertEquals(adler(data, 0, data.length),
+                PngEncoder.combine(adler(data, 0, split), adler(data, split, data.length - split), data.length - split),
+                "split at " + split);
+        }
+    }
+
+    /**
+     * @return An image of smooth gradients (which compress well) sprinkled with noise (which does not)
+     */
+    private static BufferedImage image(int width, int height, boolean alpha) {
+        BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = random.nextInt(4) == 0 ? random.nextInt() : (x * 0x010203 + y * 0x030201);
+                int a = alpha ? (x + 2 * y) & 0xFF : 0xFF;
+                image.setRGB(x, y, (a << 24) | (rgb & 0xFFFFFF));
+            }
+        }
+        return image;
+    }
+
+    private static long adler(byte[] data, int offset, int length) {
+        Adler32 adler = new Adler32();
+        adler.update(data, offset, length);
+        return adler.getValue();
+    }
+}
@@ -0,0 +1,55 @@
+package org.gannacademy.cdf.turtlelogo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Proximity queries against a terrarium's tracks (see {@link Terrarium#tracksNear(double, double, double)})
+ *
+ * @author <a href="https://github.com/gann-cdf/turtlelogo/issues">Seth Battis</a>
+ */
+class TrackQueryTest {
+
+    private Terrarium terrarium;
+
+    @BeforeEach
+    void setUp() {
+        terrarium = new Terrarium();
+    }
+
+    @AfterEach
+    void tearDown() {
+        terrarium.dispose();
+    }
+
+    @Test
+    void ownTracksDoNotCountOnFirstQuery() {
+        Turtle turtle = new Turtle(terrarium);
+        turtle.fd(50);
+        assertFalse(turtle.isTouchingTrack(), "first query, which builds the index");
+        assertFalse(turtle.isTouchingTrack(), "second query, against the built index");
+    }
+
+    @Test
+    void otherTurtlesTracksCountOnFirstQuery() {
+        Turtle drawer = new Turtle(terrarium), visitor = new Turtle(terrarium);
+        drawer.fd(50);
+        visitor.teleport(drawer.getX(), drawer.getY());
+        assertTrue(visitor.isTouchingTrack());
+        assertFalse(drawer.isTouchingTrack());
+    }
+
+    @Test
+    void ownBufferedTracksDoNotCountOnFirstQuery() {
+        terrarium.setAppendBufferSize(64);
+        Turtle first = new Turtle(terrarium), second = new Turtle(terrarium);
+        first.fd(40);
+        second.fd(10);
+        assertFalse(first.isTouchingTrack());
+        assertTrue(second.isTouchingTrack(), "standing on the first turtle's track");
+    }
+}